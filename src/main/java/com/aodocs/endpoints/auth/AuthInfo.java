@@ -22,9 +22,11 @@ package com.aodocs.endpoints.auth;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 
-import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.SneakyThrows;
@@ -34,20 +36,25 @@ import lombok.extern.java.Log;
 import org.apache.commons.lang3.StringUtils;
 
 import com.aodocs.endpoints.auth.authenticator.microsoft.MicrosoftIdToken;
+import com.fasterxml.jackson.core.JsonPointer;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.JsonNodeType;
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
+import com.google.api.client.json.webtoken.JsonWebToken;
 import com.google.api.server.spi.auth.GoogleAuth;
 import com.google.common.base.Splitter;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableSet;
 
 /**
  *  Common data for access and id tokens
  */
 @Value
-@Builder
+@Builder(toBuilder = true)
 @AllArgsConstructor
 @Log
 public class AuthInfo {
@@ -65,9 +72,43 @@ public class AuthInfo {
     Object rawTokenInfo;
     Claims claims;
     
-    @AllArgsConstructor(access = AccessLevel.PACKAGE)
+    /**
+     * Claims of the token, the JSON tree of the payload is only built on the first access to a claim.
+     */
     public final static class Claims {
-        private JsonNode payload;
+        
+        private static final ObjectReader JSON_READER = new ObjectMapper().reader();
+        
+        //keys come from the authorizers configuration, the bound only protects against unexpected usages
+        private static final int MAX_CACHED_POINTERS = 1_000;
+        private static final ConcurrentMap<String, JsonPointer> JSON_POINTERS = new ConcurrentHashMap<>();
+        
+        private final Supplier<JsonNode> payload;
+        
+        Claims(JsonNode payload) {
+            this.payload = Suppliers.ofInstance(payload);
+        }
+        
+        Claims(Supplier<JsonNode> payloadSupplier) {
+            this.payload = Suppliers.memoize(payloadSupplier::get);
+        }
+        
+        @SneakyThrows(JsonProcessingException.class)
+        private static JsonNode readTree(JsonWebToken.Payload payload) {
+            return JSON_READER.readTree(payload.toString());
+        }
+        
+        private static JsonPointer getJsonPointer(String key) {
+            JsonPointer pointer = JSON_POINTERS.get(key);
+            if (pointer == null) {
+                //make the key a valid json pointer
+                pointer = JsonPointer.compile(key.startsWith("/") ? key : "/" + key);
+                if (JSON_POINTERS.size() < MAX_CACHED_POINTERS) {
+                    JSON_POINTERS.putIfAbsent(key, pointer);
+                }
+            }
+            return pointer;
+        }
     
         /**
          * Extract the given claim from the token.
@@ -80,11 +121,8 @@ public class AuthInfo {
          * @return {@code null} if the key points to a non-primitive object ; {@link Optional#empty()} If the claim is not present in the token or present with null value.
          */
         public Optional<Object> get(String key) {
-            //make the key a valid json pointer
-            if (!key.startsWith("/")) {
-                key = "/" + key;
-            }
-            JsonNode node = payload.at(key);
+            JsonPointer pointer = getJsonPointer(key);
+            JsonNode node = payload.get().at(pointer);
             JsonNodeType nodeType = node.getNodeType();
             switch (nodeType) {
                 case BOOLEAN:
@@ -102,14 +140,24 @@ public class AuthInfo {
                 case BINARY:
                     log.log(Level.WARNING,
                             "Please extract primitive type claim only. Node at ''{0}'' is of type=''{1}'' with the content ''{2}''",
-                            new Object[] {key, nodeType, node});
+                            new Object[] {pointer, nodeType, node});
             }
             return null;
         }
     }
     
-    @SneakyThrows(JsonProcessingException.class)
     public AuthInfo(String token, GoogleIdToken idToken) {
+        this(token, idToken, new Claims(() -> Claims.readTree(idToken.getPayload())));
+    }
+    
+    /**
+     * Same as {@link #AuthInfo(String, GoogleIdToken)}, reusing the payload already decoded for the request.
+     */
+    public AuthInfo(DecodedJwt decodedJwt, GoogleIdToken idToken) {
+        this(decodedJwt.getToken(), idToken, new Claims(decodedJwt.getPayloadTree()));
+    }
+    
+    private AuthInfo(String token, GoogleIdToken idToken, Claims claims) {
         this.authType = AuthType.JWT;
         this.token = token;
         GoogleIdToken.Payload payload = idToken.getPayload();
@@ -122,7 +170,7 @@ public class AuthInfo {
         this.scopes = null;
         this.expiresInSeconds = payload.getExpirationTimeSeconds();
         this.rawTokenInfo = idToken;
-        this.claims = new Claims(new ObjectMapper().readTree(payload.toString()));
+        this.claims = claims;
     }
 
     public AuthInfo(String token, GoogleAuth.TokenInfo tokenInfo) {
@@ -138,11 +186,21 @@ public class AuthInfo {
                 ? ImmutableSet.copyOf(Splitter.on(' ').split(tokenInfo.scopes)) : ImmutableSet.of();
         this.expiresInSeconds = tokenInfo.expiresIn == null ? 0L : tokenInfo.expiresIn;
         this.rawTokenInfo = tokenInfo;
-        this.claims = new Claims(new ObjectMapper().createObjectNode());
+        this.claims = new Claims(JsonNodeFactory.instance.objectNode());
     }
     
-    @SneakyThrows(JsonProcessingException.class)
     public AuthInfo(String token, MicrosoftIdToken microsoftIdToken) {
+        this(token, microsoftIdToken, new Claims(() -> Claims.readTree(microsoftIdToken.getPayload())));
+    }
+    
+    /**
+     * Same as {@link #AuthInfo(String, MicrosoftIdToken)}, reusing the payload already decoded for the request.
+     */
+    public AuthInfo(DecodedJwt decodedJwt, MicrosoftIdToken microsoftIdToken) {
+        this(decodedJwt.getToken(), microsoftIdToken, new Claims(decodedJwt.getPayloadTree()));
+    }
+    
+    private AuthInfo(String token, MicrosoftIdToken microsoftIdToken, Claims claims) {
         this.authType = AuthType.MS_OAUTH2;
         this.token = token;
         MicrosoftIdToken.Payload payload = microsoftIdToken.getPayload();
@@ -155,7 +213,7 @@ public class AuthInfo {
         this.scopes = null;
         this.expiresInSeconds = payload.getExpirationTimeSeconds();
         this.rawTokenInfo = microsoftIdToken;
-        this.claims = new Claims(new ObjectMapper().readTree(payload.toString()));
+        this.claims = claims;
     }
 
 }
@@ -23,9 +23,9 @@ import java.util.function.Supplier;
 
 import javax.servlet.http.HttpServletRequest;
 
+import com.aodocs.endpoints.auth.authenticator.CachingOAuth2Authenticator;
 import com.aodocs.endpoints.auth.authenticator.microsoft.MicrosoftOAuth2Authenticator;
 import com.google.api.server.spi.auth.GoogleJwtAuthenticator;
-import com.google.api.server.spi.auth.GoogleOAuth2Authenticator;
 import com.google.api.server.spi.auth.common.User;
 import com.google.api.server.spi.response.ServiceUnavailableException;
 
@@ -40,7 +40,7 @@ public enum AuthType {
     OAUTH2 {
         @Override
         public User authenticate(HttpServletRequest request) throws ServiceUnavailableException {
-            return new GoogleOAuth2Authenticator().authenticate(request);
+            return CachingOAuth2Authenticator.getInstance().authenticate(request);
         }
     },
     /**
@@ -60,7 +60,7 @@ public enum AuthType {
     MS_OAUTH2 {
         @Override
         public User authenticate(HttpServletRequest request) {
-            return new MicrosoftOAuth2Authenticator().authenticate(request);
+            return MicrosoftOAuth2Authenticator.getInstance().authenticate(request);
         }
     };
 
@@ -33,4 +33,15 @@ public class CustomAttribute {
 	 */
 	public static final String MICROSOFT_ID_TOKEN = "endpoints:MS-Token";
 	
+	/**
+	 * If set, contains the {@link AuthInfo} built by the authenticator for the current token
+	 */
+	public static final String AUTH_INFO = "endpoints:AuthInfo";
+	
+	/**
+	 * If set, contains the JWT token of the request, decoded but not verified
+	 * {@link DecodedJwt}
+	 */
+	public static final String DECODED_JWT = "endpoints:DecodedJwt";
+	
 }
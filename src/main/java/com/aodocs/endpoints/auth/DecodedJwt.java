@@ -0,0 +1,176 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.auth;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.webtoken.JsonWebSignature;
+import com.google.api.client.json.webtoken.JsonWebToken;
+import com.google.api.client.util.Base64;
+import com.google.api.client.util.StringUtils;
+import com.google.api.server.spi.Client;
+import com.google.api.server.spi.auth.GoogleAuth;
+
+/**
+ * A JWT token decoded once per request, and shared by the authenticators and {@link AuthInfo}
+ * through the {@link CustomAttribute#DECODED_JWT} request attribute.
+ * <p>
+ * The header and the payload (as a JSON tree) are parsed when decoding. Typed payloads, needed to build
+ * the token classes of the verifiers, are parsed from the already decoded bytes on first use.
+ * Nothing is verified: the signature and the claims must still be checked by an authenticator.
+ */
+@Log
+@Getter
+public final class DecodedJwt {
+    
+    private static final ObjectReader JSON_READER = new ObjectMapper().reader();
+    
+    private final String token;
+    private final JsonWebSignature.Header header;
+    private final JsonNode payloadTree;
+    @Getter(AccessLevel.NONE)
+    private final byte[] payloadBytes;
+    private final byte[] signatureBytes;
+    private final byte[] signedContentBytes;
+    
+    //request-scoped, so no synchronization needed
+    @Getter(AccessLevel.NONE)
+    private JsonWebToken.Payload typedPayload;
+    
+    private DecodedJwt(String token, JsonWebSignature.Header header, JsonNode payloadTree, byte[] payloadBytes,
+            byte[] signatureBytes, byte[] signedContentBytes) {
+        this.token = token;
+        this.header = header;
+        this.payloadTree = payloadTree;
+        this.payloadBytes = payloadBytes;
+        this.signatureBytes = signatureBytes;
+        this.signedContentBytes = signedContentBytes;
+    }
+    
+    /**
+     * @return the decoded token of the request, decoding it on the first call, or null if there is no JWT token
+     * in the request or if it is malformed
+     */
+    public static DecodedJwt from(HttpServletRequest request) {
+        String token = GoogleAuth.getAuthToken(request);
+        if (!isJwt(token)) {
+            return null;
+        }
+        DecodedJwt decoded = getDecoded(request, token);
+        if (decoded != null) {
+            return decoded;
+        }
+        try {
+            DecodedJwt decodedJwt = decode(token);
+            request.setAttribute(CustomAttribute.DECODED_JWT, decodedJwt);
+            return decodedJwt;
+        } catch (IOException | IllegalArgumentException e) {
+            log.fine("Malformed JWT token: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * @return the token of the request if an authenticator already decoded it, null otherwise: never decodes it
+     */
+    public static DecodedJwt getIfDecoded(HttpServletRequest request) {
+        String token = GoogleAuth.getAuthToken(request);
+        return isJwt(token) ? getDecoded(request, token) : null;
+    }
+    
+    private static DecodedJwt getDecoded(HttpServletRequest request, String token) {
+        Object decoded = request.getAttribute(CustomAttribute.DECODED_JWT);
+        if (decoded instanceof DecodedJwt && ((DecodedJwt) decoded).token.equals(token)) {
+            return (DecodedJwt) decoded;
+        }
+        return null;
+    }
+    
+    /**
+     * @return true if the token has the JWT structure (three parts separated by dots)
+     */
+    public static boolean isJwt(String token) {
+        if (token == null) {
+            return false;
+        }
+        int firstDot = token.indexOf('.');
+        int secondDot = firstDot < 0 ? -1 : token.indexOf('.', firstDot + 1);
+        return secondDot >= 0 && token.indexOf('.', secondDot + 1) < 0;
+    }
+    
+    /**
+     * Decodes the token without verifying it.
+     *
+     * @throws IllegalArgumentException if the token is not a JWT token
+     * @throws IOException if the header or the payload are not valid JSON
+     */
+    public static DecodedJwt decode(String token) throws IOException {
+        if (!isJwt(token)) {
+            throw new IllegalArgumentException("Not a JWT token");
+        }
+        int firstDot = token.indexOf('.');
+        int secondDot = token.indexOf('.', firstDot + 1);
+        byte[] headerBytes = Base64.decodeBase64(token.substring(0, firstDot));
+        byte[] payloadBytes = Base64.decodeBase64(token.substring(firstDot + 1, secondDot));
+        byte[] signatureBytes = Base64.decodeBase64(token.substring(secondDot + 1));
+        byte[] signedContentBytes = StringUtils.getBytesUtf8(token.substring(0, secondDot));
+        
+        JsonWebSignature.Header header = parse(headerBytes, JsonWebSignature.Header.class);
+        JsonNode payloadTree = JSON_READER.readTree(payloadBytes);
+        if (header == null || payloadTree == null || !payloadTree.isObject()) {
+            throw new IllegalArgumentException("JWT header and payload must be JSON objects");
+        }
+        return new DecodedJwt(token, header, payloadTree, payloadBytes, signatureBytes, signedContentBytes);
+    }
+    
+    /**
+     * @return the "iss" claim, or null if absent
+     */
+    public String getIssuer() {
+        JsonNode issuer = payloadTree.get("iss");
+        return issuer != null && issuer.isTextual() ? issuer.asText() : null;
+    }
+    
+    /**
+     * @return the payload parsed as the given class, parsed once and then reused for the same class
+     */
+    public <P extends JsonWebToken.Payload> P getPayload(Class<P> payloadClass) throws IOException {
+        if (typedPayload == null || typedPayload.getClass() != payloadClass) {
+            typedPayload = parse(payloadBytes, payloadClass);
+        }
+        return payloadClass.cast(typedPayload);
+    }
+    
+    private static <T> T parse(byte[] bytes, Class<T> valueClass) throws IOException {
+        JsonFactory jsonFactory = Client.getInstance().getJsonFactory();
+        return jsonFactory.fromInputStream(new ByteArrayInputStream(bytes), valueClass);
+    }
+}
@@ -0,0 +1,301 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.auth.authenticator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+
+import lombok.extern.java.Log;
+
+import com.aodocs.endpoints.auth.AuthInfo;
+import com.aodocs.endpoints.auth.CustomAttribute;
+import com.aodocs.endpoints.context.AppengineHelper;
+import com.aodocs.endpoints.util.cache.ObjectCache;
+import com.aodocs.endpoints.util.cache.VerifiedTokenCache;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.UrlEncodedContent;
+import com.google.api.client.util.Clock;
+import com.google.api.client.util.Key;
+import com.google.api.server.spi.Client;
+import com.google.api.server.spi.auth.GoogleAuth;
+import com.google.api.server.spi.auth.GoogleOAuth2Authenticator;
+import com.google.api.server.spi.auth.common.User;
+import com.google.api.server.spi.config.Singleton;
+import com.google.api.server.spi.config.model.ApiMethodConfig;
+import com.google.api.server.spi.request.Attribute;
+import com.google.api.server.spi.response.ServiceUnavailableException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.Hashing;
+
+/**
+ * Same as {@link GoogleOAuth2Authenticator}, but keeps the tokeninfo results in memory to avoid calling the tokeninfo
+ * endpoint on each request.
+ * <p>
+ * Results are kept until the token expires (or at most {@code maxCacheSeconds}, so that revoked tokens stop being accepted
+ * after a while), invalid tokens are remembered for a short time. An optional shared {@link ObjectCache} (memcache
+ * on App Engine) allows other instances to reuse a result until the same time, it is keyed by a digest of the token.
+ * The scopes and client ID checks depend on the called method, so they are still done on each request.
+ */
+/*
+ * Implementation note: this class extends GoogleOAuth2Authenticator so that it can be given to EndpointsAuthenticator,
+ * but the tokeninfo call is not accessible from subclasses, so the whole authenticate method is reimplemented.
+ */
+@Log
+@Singleton
+public class CachingOAuth2Authenticator extends GoogleOAuth2Authenticator {
+	
+	static final String TOKEN_INFO_ENDPOINT = "https://www.googleapis.com/oauth2/v2/tokeninfo";
+	
+	public static final long DEFAULT_MAX_CACHED_TOKENS = 10_000;
+	
+	public static final int DEFAULT_MAX_CACHE_SECONDS = 600;
+	
+	static final int INVALID_TOKEN_CACHE_SECONDS = 60;
+	
+	private final VerifiedTokenCache<CachedTokenInfo> localCache;
+	
+	@Nullable
+	private final ObjectCache sharedCache;
+	
+	private final int maxCacheSeconds;
+	
+	private final Clock clock;
+	
+	private static final class InstanceHolder {
+		private static final CachingOAuth2Authenticator INSTANCE = new CachingOAuth2Authenticator(
+				DEFAULT_MAX_CACHED_TOKENS, DEFAULT_MAX_CACHE_SECONDS,
+				AppengineHelper.isRunningOnAppengineStandard() ? ObjectCache.get() : null);
+	}
+	
+	/**
+	 * @return an instance shared by the whole application, using memcache as shared cache on App Engine standard
+	 */
+	public static CachingOAuth2Authenticator getInstance() {
+		return InstanceHolder.INSTANCE;
+	}
+	
+	public CachingOAuth2Authenticator() {
+		this(DEFAULT_MAX_CACHED_TOKENS, DEFAULT_MAX_CACHE_SECONDS, null);
+	}
+	
+	/**
+	 * @param maxCachedTokens the maximum number of tokeninfo results kept in memory
+	 * @param maxCacheSeconds the maximum time a result is kept, even if the token is still valid
+	 * @param sharedCache     a cache shared between instances, checked when the result is not in memory, or null
+	 */
+	public CachingOAuth2Authenticator(long maxCachedTokens, int maxCacheSeconds, @Nullable ObjectCache sharedCache) {
+		this(maxCachedTokens, maxCacheSeconds, sharedCache, Clock.SYSTEM);
+	}
+	
+	@VisibleForTesting
+	CachingOAuth2Authenticator(long maxCachedTokens, int maxCacheSeconds, @Nullable ObjectCache sharedCache, Clock clock) {
+		this.localCache = new VerifiedTokenCache<>(maxCachedTokens, clock);
+		this.sharedCache = sharedCache;
+		this.maxCacheSeconds = maxCacheSeconds;
+		this.clock = clock;
+	}
+	
+	//This method is a copy of GoogleOAuth2Authenticator#authenticate, using the cached token info
+	@Override
+	public User authenticate(HttpServletRequest request) throws ServiceUnavailableException {
+		Attribute attr = Attribute.from(request);
+		if (attr.isEnabled(Attribute.SKIP_TOKEN_AUTH)) {
+			return null;
+		}
+		
+		String token = GoogleAuth.getAuthToken(request);
+		if (token == null || GoogleAuth.isJwt(token)) {
+			return null;
+		}
+		
+		CachedTokenInfo cachedTokenInfo = getTokenInfo(token);
+		GoogleAuth.TokenInfo tokenInfo = cachedTokenInfo.tokenInfo;
+		if (tokenInfo == null) {
+			return null;
+		}
+		AuthInfo authInfo = cachedTokenInfo.getAuthInfo(token, clock.currentTimeMillis());
+		
+		ApiMethodConfig config = attr.get(Attribute.API_METHOD_CONFIG);
+		
+		//check scopes
+		if (authInfo.getScopes().isEmpty()) {
+			log.warning("Access token does not contain a valid scope");
+			return null;
+		}
+		if (!config.getScopeExpression().isAuthorized(authInfo.getScopes())) {
+			log.log(Level.WARNING, "Access token does not contain sufficient scopes from: {0}", config.getScopeExpression());
+			return null;
+		}
+		
+		//check client id
+		if (attr.isEnabled(Attribute.ENABLE_CLIENT_ID_WHITELIST)
+				&& !checkClientId(tokenInfo.clientId, config.getClientIds())) {
+			log.log(Level.WARNING, "ClientId is not allowed: {0}", tokenInfo.clientId);
+			return null;
+		}
+		
+		attr.set(Attribute.TOKEN_INFO, tokenInfo);
+		attr.set(CustomAttribute.AUTH_INFO, authInfo);
+		
+		User user = new User(tokenInfo.userId, tokenInfo.email);
+		if (attr.isEnabled(Attribute.REQUIRE_APPENGINE_USER)) {
+			com.google.appengine.api.users.User appEngineUser =
+					(tokenInfo.email == null) ? null : new com.google.appengine.api.users.User(tokenInfo.email, "");
+			attr.set(Attribute.AUTHENTICATED_APPENGINE_USER, appEngineUser);
+		}
+		return user;
+	}
+	
+	/**
+	 * @return hit, miss and eviction counts of the in-memory cache
+	 */
+	public CacheStats getLocalCacheStats() {
+		return localCache.stats();
+	}
+	
+	private CachedTokenInfo getTokenInfo(String token) throws ServiceUnavailableException {
+		CachedTokenInfo cachedTokenInfo = localCache.getIfValid(token);
+		if (cachedTokenInfo != null) {
+			return cachedTokenInfo;
+		}
+		String sharedKey = sharedCache != null ? Hashing.sha256().hashString(token, StandardCharsets.UTF_8).toString() : null;
+		if (sharedKey != null) {
+			cachedTokenInfo = sharedCache.getJson(sharedKey, CachedTokenInfo.class);
+		}
+		if (cachedTokenInfo == null || cachedTokenInfo.expiresAtMillis <= clock.currentTimeMillis()) {
+			//availability failures are thrown before anything is cached
+			cachedTokenInfo = loadTokenInfo(token);
+			if (sharedKey != null) {
+				putSharedTokenInfo(sharedKey, cachedTokenInfo);
+			}
+		}
+		localCache.put(token, cachedTokenInfo, cachedTokenInfo.expiresAtMillis, () -> true);
+		return cachedTokenInfo;
+	}
+	
+	//replaces an expired entry, and expires with the result
+	private void putSharedTokenInfo(String key, CachedTokenInfo cachedTokenInfo) {
+		long remainingSeconds = (cachedTokenInfo.expiresAtMillis - clock.currentTimeMillis()) / 1000;
+		if (remainingSeconds > 0) {
+			sharedCache.putJson(key, CachedTokenInfo.class, cachedTokenInfo, (int) remainingSeconds);
+		}
+	}
+	
+	private CachedTokenInfo loadTokenInfo(String token) throws ServiceUnavailableException {
+		GoogleAuth.TokenInfo tokenInfo = fetchTokenInfo(token);
+		long now = clock.currentTimeMillis();
+		//same as GoogleAuth#getTokenInfo
+		if (tokenInfo == null || tokenInfo.email == null || tokenInfo.email.trim().isEmpty()) {
+			if (tokenInfo != null) {
+				log.warning("Access token does not contain email scope");
+			}
+			return new CachedTokenInfo(null, now + INVALID_TOKEN_CACHE_SECONDS * 1000L, 0);
+		}
+		long expiresInSeconds = tokenInfo.expiresIn == null ? 0 : tokenInfo.expiresIn;
+		return new CachedTokenInfo(tokenInfo, now + Math.min(expiresInSeconds, maxCacheSeconds) * 1000,
+				now + expiresInSeconds * 1000);
+	}
+	
+	/**
+	 * @return the token info, or null if the token is not valid
+	 * @throws ServiceUnavailableException if the tokeninfo endpoint can't be reached
+	 */
+	@VisibleForTesting
+	GoogleAuth.TokenInfo fetchTokenInfo(String token) throws ServiceUnavailableException {
+		try {
+			HttpRequest request = Client.getInstance().getJsonHttpRequestFactory()
+					.buildPostRequest(new GenericUrl(TOKEN_INFO_ENDPOINT),
+							new UrlEncodedContent(Collections.singletonMap("access_token", token)));
+			request.setThrowExceptionOnExecuteError(false);
+			HttpResponse response = request.execute();
+			try {
+				int statusCode = response.getStatusCode();
+				if (statusCode == 200) {
+					return response.parseAs(GoogleAuth.TokenInfo.class);
+				}
+				if (statusCode >= 500) {
+					throw new ServiceUnavailableException("Failed to validate access token, tokeninfo returned " + statusCode);
+				}
+				log.log(Level.INFO, "Invalid access token, tokeninfo returned {0}", statusCode);
+				return null;
+			} finally {
+				response.disconnect();
+			}
+		} catch (IOException e) {
+			throw new ServiceUnavailableException("Failed to perform access token validation", e);
+		}
+	}
+	
+	//same as GoogleAuth#checkClientId, without allowing to skip the check, as GoogleOAuth2Authenticator
+	private static boolean checkClientId(String clientId, List<String> allowedClientIds) {
+		if (clientId == null || clientId.trim().isEmpty()) {
+			return false;
+		}
+		return allowedClientIds != null && allowedClientIds.contains(clientId);
+	}
+	
+	/**
+	 * A tokeninfo result, the time until which it can be used, and the time when the token expires.
+	 * tokenInfo is null for invalid tokens. Serialized as JSON in the shared cache.
+	 */
+	public static final class CachedTokenInfo {
+		
+		@Key
+		private GoogleAuth.TokenInfo tokenInfo;
+		
+		@Key
+		private long expiresAtMillis;
+		
+		@Key
+		private long tokenExpiresAtMillis;
+		
+		private volatile AuthInfo authInfo;
+		
+		public CachedTokenInfo() {
+		}
+		
+		CachedTokenInfo(GoogleAuth.TokenInfo tokenInfo, long expiresAtMillis, long tokenExpiresAtMillis) {
+			this.tokenInfo = tokenInfo;
+			this.expiresAtMillis = expiresAtMillis;
+			this.tokenExpiresAtMillis = tokenExpiresAtMillis;
+		}
+		
+		//the scopes are split once per cached token, the remaining lifetime is computed on each request
+		private AuthInfo getAuthInfo(String token, long nowMillis) {
+			AuthInfo result = authInfo;
+			if (result == null) {
+				result = new AuthInfo(token, tokenInfo);
+				authInfo = result;
+			}
+			return result.toBuilder()
+					.expiresInSeconds(Math.max(0, (tokenExpiresAtMillis - nowMillis) / 1000))
+					.build();
+		}
+	}
+}
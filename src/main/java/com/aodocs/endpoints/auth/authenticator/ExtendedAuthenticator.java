@@ -28,13 +28,16 @@ import lombok.extern.java.Log;
 
 import com.aodocs.endpoints.auth.AuthInfo;
 import com.aodocs.endpoints.auth.CustomAttribute;
+import com.aodocs.endpoints.auth.DecodedJwt;
 import com.aodocs.endpoints.auth.ExtendedUser;
 import com.aodocs.endpoints.auth.authorizers.Authorizer;
 import com.aodocs.endpoints.auth.authenticator.microsoft.MicrosoftIdToken;
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
 import com.google.api.server.spi.ServiceException;
 import com.google.api.server.spi.auth.EndpointsAuthenticator;
+import com.google.api.server.spi.auth.GoogleAppEngineAuthenticator;
 import com.google.api.server.spi.auth.GoogleAuth;
+import com.google.api.server.spi.auth.GoogleJwtAuthenticator;
 import com.google.api.server.spi.auth.common.User;
 import com.google.api.server.spi.config.Authenticator;
 import com.google.api.server.spi.config.Singleton;
@@ -58,7 +61,8 @@ public class ExtendedAuthenticator implements Authenticator {
     private final Authorizer authorizer;
 
     public ExtendedAuthenticator(Authorizer authorizer) {
-        this(new EndpointsAuthenticator(), authorizer);
+        this(new EndpointsAuthenticator(new GoogleJwtAuthenticator(), new GoogleAppEngineAuthenticator(),
+                CachingOAuth2Authenticator.getInstance()), authorizer);
     }
    
     public ExtendedAuthenticator(@NonNull Authenticator delegate, @NonNull Authorizer authorizer) {
@@ -128,6 +132,11 @@ public class ExtendedAuthenticator implements Authenticator {
 
     @VisibleForTesting
     AuthInfo getAuthInfo(HttpServletRequest request) {
+        final AuthInfo authInfo = (AuthInfo) request.getAttribute(CustomAttribute.AUTH_INFO);
+        if (authInfo != null) {
+            return authInfo;
+        }
+        
         String token = GoogleAuth.getAuthToken(request);
         
         final GoogleAuth.TokenInfo tokenInfo = (GoogleAuth.TokenInfo) request.getAttribute(Attribute.TOKEN_INFO);
@@ -135,12 +144,16 @@ public class ExtendedAuthenticator implements Authenticator {
             return new AuthInfo(token, tokenInfo);
         }
     
+        //the claims are read from the token if an authenticator decoded it for this request,
+        //otherwise the payload is only serialized on the first access to a claim
+        final DecodedJwt decodedJwt = DecodedJwt.getIfDecoded(request);
+        
         final GoogleIdToken idToken = (GoogleIdToken) request.getAttribute(Attribute.ID_TOKEN);
         if (idToken != null) {
-            return new AuthInfo(token, idToken);
+            return decodedJwt != null ? new AuthInfo(decodedJwt, idToken) : new AuthInfo(token, idToken);
         }
         
         final MicrosoftIdToken microsoftIdToken = (MicrosoftIdToken) request.getAttribute(CustomAttribute.MICROSOFT_ID_TOKEN);
-        return new AuthInfo(token, microsoftIdToken);
+        return decodedJwt != null ? new AuthInfo(decodedJwt, microsoftIdToken) : new AuthInfo(token, microsoftIdToken);
     }
 }
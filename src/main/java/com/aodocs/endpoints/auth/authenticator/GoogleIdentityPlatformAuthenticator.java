@@ -32,13 +32,14 @@ import javax.servlet.http.HttpServletRequest;
 
 import lombok.extern.java.Log;
 
+import com.aodocs.endpoints.auth.DecodedJwt;
 import com.aodocs.endpoints.context.AppengineHelper;
+import com.aodocs.endpoints.util.cache.VerifiedTokenCache;
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdTokenVerifier;
 import com.google.api.client.googleapis.auth.oauth2.GooglePublicKeysManager;
 import com.google.api.client.util.Clock;
 import com.google.api.server.spi.Client;
-import com.google.api.server.spi.auth.GoogleAuth;
 import com.google.api.server.spi.auth.common.User;
 import com.google.api.server.spi.config.Authenticator;
 import com.google.api.server.spi.config.Singleton;
@@ -89,6 +90,17 @@ public class GoogleIdentityPlatformAuthenticator implements Authenticator {
 	
 	private final GoogleIdTokenVerifier verifier;
 	
+	/**
+	 * Tokens already verified by this instance (so with this instance's issuers and audiences), null when disabled.
+	 */
+	private final VerifiedTokenCache<GoogleIdToken> verifiedTokens;
+	
+	/**
+	 * Expiration time of the public certificates when a token was last verified.
+	 * The keys manager does not publish it safely, so it is read on the verifying thread, then published here.
+	 */
+	private volatile long certificatesExpirationMillis;
+	
 	/**
 	 * Creates an instance that only accepts Identity Platform tokens for the provided project IDs.
 	 * 
@@ -105,13 +117,36 @@ public class GoogleIdentityPlatformAuthenticator implements Authenticator {
 		this(Clock.SYSTEM, projectIds);
 	}
 	
+	/**
+	 * Same as {@link #GoogleIdentityPlatformAuthenticator(String...)}, but keeps verified tokens in memory until they expire,
+	 * to skip the signature verification when the same token is used again.
+	 * Cached tokens are verified again once the public certificates are refreshed.
+	 *
+	 * @param maxCachedTokens the maximum number of verified tokens kept in memory, 0 to disable the cache
+	 * @param projectIds the project IDs to check tokens for
+	 */
+	public GoogleIdentityPlatformAuthenticator(int maxCachedTokens, String ... projectIds) {
+		this(Clock.SYSTEM, maxCachedTokens, projectIds);
+	}
+	
 	@VisibleForTesting
 	GoogleIdentityPlatformAuthenticator(Clock clock, String ... projectIds) {
-		this.verifier = new GoogleIdTokenVerifier.Builder(CLOUD_IDENTITY_KEYS)
+		this(clock, 0, projectIds);
+	}
+	
+	@VisibleForTesting
+	GoogleIdentityPlatformAuthenticator(Clock clock, int maxCachedTokens, String ... projectIds) {
+		this(CLOUD_IDENTITY_KEYS, clock, maxCachedTokens, projectIds);
+	}
+	
+	@VisibleForTesting
+	GoogleIdentityPlatformAuthenticator(GooglePublicKeysManager publicKeysManager, Clock clock, int maxCachedTokens, String ... projectIds) {
+		this.verifier = new GoogleIdTokenVerifier.Builder(publicKeysManager)
 				.setIssuers(projectIds.length == 0 ? null : Stream.of(projectIds).map(projectId -> ISSUER_PREFIX + projectId).collect(Collectors.toList()))
 				.setAudience(projectIds.length == 0 ? null : Arrays.asList(projectIds))
 				.setClock(clock)
 				.build();
+		this.verifiedTokens = maxCachedTokens > 0 ? new VerifiedTokenCache<>(maxCachedTokens, clock) : null;
 	}
 	
 	//This method is a partial copy of GoogleJwtAuthenticator#authenticate
@@ -122,12 +157,12 @@ public class GoogleIdentityPlatformAuthenticator implements Authenticator {
 			return null;
 		}
 		
-		String token = GoogleAuth.getAuthToken(request);
-		if (!GoogleAuth.isJwt(token)) {
+		DecodedJwt decodedJwt = DecodedJwt.from(request);
+		if (decodedJwt == null) {
 			return null;
 		}
 		
-		GoogleIdToken idToken = verifyToken(token);
+		GoogleIdToken idToken = verifyToken(decodedJwt);
 		if (idToken == null) {
 			return null;
 		}
@@ -152,15 +187,54 @@ public class GoogleIdentityPlatformAuthenticator implements Authenticator {
 	
 	//This method is a partial copy of GoogleJwtAuthenticator#verifyToken
 	@VisibleForTesting
-	GoogleIdToken verifyToken(String token) {
-		if (token == null) {
+	GoogleIdToken verifyToken(DecodedJwt decodedJwt) {
+		if (decodedJwt == null) {
 			return null;
 		}
+		String token = decodedJwt.getToken();
+		if (verifiedTokens != null) {
+			GoogleIdToken cachedToken = verifiedTokens.getIfValid(token);
+			if (cachedToken != null) {
+				return cachedToken;
+			}
+		}
 		try {
-			return verifier.verify(token);
+			GoogleIdToken idToken = new GoogleIdToken(decodedJwt.getHeader(),
+					decodedJwt.getPayload(GoogleIdToken.Payload.class),
+					decodedJwt.getSignatureBytes(), decodedJwt.getSignedContentBytes());
+			//read before verifying, a refresh during the verification is then detected
+			long verifiedWithExpirationMillis = verifier.getPublicKeysManager().getExpirationTimeMilliseconds();
+			if (!verifier.verify(idToken)) {
+				return null;
+			}
+			if (verifiedTokens != null) {
+				cacheVerifiedToken(token, idToken, verifiedWithExpirationMillis);
+			}
+			return idToken;
 		} catch (GeneralSecurityException | IOException | IllegalArgumentException e) {
 			log.log(Level.WARNING, "error while verifying JWT", e);
 			return null;
 		}
 	}
+	
+	/**
+	 * The token is cached until it expires, and as long as the public certificates it was verified with are not refreshed.
+	 * Refreshes are detected through the expiration time of the certificates, which changes on each refresh,
+	 * as soon as a token is verified with the new certificates.
+	 * A token is not cached when the certificates were refreshed while it was verified, as either could have been used.
+	 *
+	 * @param verifiedWithExpirationMillis expiration time of the certificates, read before verifying the token
+	 */
+	private void cacheVerifiedToken(String token, GoogleIdToken idToken, long verifiedWithExpirationMillis) {
+		Long expirationTimeSeconds = idToken.getPayload().getExpirationTimeSeconds();
+		if (expirationTimeSeconds == null
+				|| verifier.getPublicKeysManager().getExpirationTimeMilliseconds() != verifiedWithExpirationMillis) {
+			return;
+		}
+		Clock clock = verifier.getClock();
+		certificatesExpirationMillis = verifiedWithExpirationMillis;
+		verifiedTokens.put(token, idToken, expirationTimeSeconds * 1000,
+				() -> certificatesExpirationMillis == verifiedWithExpirationMillis
+						&& clock.currentTimeMillis() < verifiedWithExpirationMillis);
+	}
 }
@@ -0,0 +1,210 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.auth.authenticator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import lombok.NonNull;
+import lombok.extern.java.Log;
+
+import com.aodocs.endpoints.auth.DecodedJwt;
+import com.google.api.server.spi.ServiceException;
+import com.google.api.server.spi.auth.GoogleAuth;
+import com.google.api.server.spi.auth.common.User;
+import com.google.api.server.spi.config.Authenticator;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Sends each token to the single authenticator handling it, instead of trying all authenticators in order
+ * like {@link DisjunctAuthenticator}.
+ * <p>
+ * JWT tokens are decoded once (without verifying them, see {@link DecodedJwt}) and dispatched on their "kid" header first,
+ * then on their "iss" claim, matched exactly first, then by prefix in registration order.
+ * Unsigned JWT tokens (no "alg" or "none") are rejected, as well as algorithms outside of {@link Builder#algorithms}, if set.
+ * Opaque tokens are sent to the OAuth2 authenticator. The fallback authenticator, if any, handles everything else:
+ * JWT tokens from unknown issuers, opaque tokens when there is no OAuth2 authenticator, and requests without token.
+ * <p>
+ * This authenticator is opt-in: the built-in chains ({@link ExtendedAuthenticator#ExtendedAuthenticator(com.aodocs.endpoints.auth.authorizers.Authorizer)},
+ * {@link com.aodocs.endpoints.auth.AuthType}) keep the framework's EndpointsAuthenticator, whose delegates already
+ * skip the tokens they do not handle. It pays off when several JWT authenticators are combined, for instance:
+ * <pre>
+ * public class MyAuthenticator extends ExtendedAuthenticator {
+ *     public MyAuthenticator() {
+ *         super(IssuerRoutingAuthenticator.builder()
+ *                 .issuerPrefix(GoogleIdentityPlatformAuthenticator.ISSUER_PREFIX, GoogleIdentityPlatformAuthenticator.currentProject())
+ *                 .issuerPrefix("https://login.microsoftonline.com/", MicrosoftOAuth2Authenticator.getInstance())
+ *                 .opaqueTokens(CachingOAuth2Authenticator.getInstance())
+ *                 .fallback(new GoogleJwtAuthenticator())
+ *                 .build(), new MyAuthorizer());
+ *     }
+ * }
+ * </pre>
+ */
+@Log
+public final class IssuerRoutingAuthenticator implements Authenticator {
+    
+    private static final String ALG_NONE = "none";
+    
+    private final ImmutableSet<String> algorithms;
+    private final ImmutableMap<String, Authenticator> keyIds;
+    private final ImmutableMap<String, Authenticator> issuers;
+    private final ImmutableMap<String, Authenticator> issuerPrefixes;
+    private final Authenticator opaqueTokenAuthenticator;
+    private final Authenticator fallbackAuthenticator;
+    
+    private IssuerRoutingAuthenticator(Builder builder) {
+        this.algorithms = builder.algorithms == null ? null : ImmutableSet.copyOf(builder.algorithms);
+        this.keyIds = ImmutableMap.copyOf(builder.keyIds);
+        this.issuers = ImmutableMap.copyOf(builder.issuers);
+        this.issuerPrefixes = ImmutableMap.copyOf(builder.issuerPrefixes);
+        this.opaqueTokenAuthenticator = builder.opaqueTokenAuthenticator;
+        this.fallbackAuthenticator = builder.fallbackAuthenticator;
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    @Override
+    public User authenticate(HttpServletRequest request) throws ServiceException {
+        Authenticator authenticator = route(request);
+        return authenticator == null ? null : authenticator.authenticate(request);
+    }
+    
+    /**
+     * @return the authenticator for the token of this request, null if the token must be rejected
+     */
+    private Authenticator route(HttpServletRequest request) {
+        String token = GoogleAuth.getAuthToken(request);
+        if (token == null) {
+            return fallbackAuthenticator;
+        }
+        if (!DecodedJwt.isJwt(token)) {
+            return opaqueTokenAuthenticator != null ? opaqueTokenAuthenticator : fallbackAuthenticator;
+        }
+        
+        //decoded once for the request, the selected authenticator reuses it
+        DecodedJwt decodedJwt = DecodedJwt.from(request);
+        if (decodedJwt == null) {
+            return null;
+        }
+        String algorithm = decodedJwt.getHeader().getAlgorithm();
+        if (algorithm == null || ALG_NONE.equalsIgnoreCase(algorithm)) {
+            log.warning("Unsigned JWT token rejected");
+            return null;
+        }
+        if (algorithms != null && !algorithms.contains(algorithm)) {
+            log.warning("JWT token signed with " + algorithm + " rejected");
+            return null;
+        }
+        
+        String keyId = decodedJwt.getHeader().getKeyId();
+        if (keyId != null) {
+            Authenticator authenticator = keyIds.get(keyId);
+            if (authenticator != null) {
+                return authenticator;
+            }
+        }
+        String issuer = decodedJwt.getIssuer();
+        if (issuer != null) {
+            Authenticator authenticator = issuers.get(issuer);
+            if (authenticator != null) {
+                return authenticator;
+            }
+            for (Map.Entry<String, Authenticator> issuerPrefix : issuerPrefixes.entrySet()) {
+                if (issuer.startsWith(issuerPrefix.getKey())) {
+                    return issuerPrefix.getValue();
+                }
+            }
+        }
+        return fallbackAuthenticator;
+    }
+    
+    public static final class Builder {
+        private Set<String> algorithms;
+        private final Map<String, Authenticator> keyIds = new LinkedHashMap<>();
+        private final Map<String, Authenticator> issuers = new LinkedHashMap<>();
+        private final Map<String, Authenticator> issuerPrefixes = new LinkedHashMap<>();
+        private Authenticator opaqueTokenAuthenticator;
+        private Authenticator fallbackAuthenticator;
+        
+        private Builder() {
+        }
+        
+        /**
+         * Only accepts JWT tokens signed with these algorithms ("alg" header, for example "RS256"), other tokens are rejected.
+         * By default, any algorithm but "none" is accepted.
+         */
+        public Builder algorithms(@NonNull String... algorithms) {
+            this.algorithms = ImmutableSet.copyOf(algorithms);
+            return this;
+        }
+        
+        /**
+         * Sends JWT tokens whose "kid" header is this key id to the authenticator, whatever their issuer.
+         */
+        public Builder keyId(@NonNull String keyId, @NonNull Authenticator authenticator) {
+            keyIds.put(keyId, authenticator);
+            return this;
+        }
+        
+        /**
+         * Sends JWT tokens whose "iss" claim is exactly this issuer to the authenticator.
+         */
+        public Builder issuer(@NonNull String issuer, @NonNull Authenticator authenticator) {
+            issuers.put(issuer, authenticator);
+            return this;
+        }
+        
+        /**
+         * Sends JWT tokens whose "iss" claim starts with this prefix to the authenticator.
+         */
+        public Builder issuerPrefix(@NonNull String issuerPrefix, @NonNull Authenticator authenticator) {
+            issuerPrefixes.put(issuerPrefix, authenticator);
+            return this;
+        }
+        
+        /**
+         * Sends opaque (non JWT) tokens to the authenticator, usually an OAuth2 authenticator.
+         */
+        public Builder opaqueTokens(@NonNull Authenticator authenticator) {
+            this.opaqueTokenAuthenticator = authenticator;
+            return this;
+        }
+        
+        /**
+         * Sends all the requests that are not routed to another authenticator to this one,
+         * for example a {@link DisjunctAuthenticator} trying all authenticators in order.
+         */
+        public Builder fallback(@NonNull Authenticator authenticator) {
+            this.fallbackAuthenticator = authenticator;
+            return this;
+        }
+        
+        public IssuerRoutingAuthenticator build() {
+            return new IssuerRoutingAuthenticator(this);
+        }
+    }
+}
@@ -21,6 +21,7 @@ package com.aodocs.endpoints.auth.authenticator.microsoft;
 
 import java.io.IOException;
 
+import com.aodocs.endpoints.auth.DecodedJwt;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.webtoken.JsonWebSignature;
 import com.google.api.client.json.webtoken.JsonWebToken;
@@ -56,6 +57,20 @@ public class MicrosoftIdToken extends JsonWebSignature {
 				jws.getSignedContentBytes());
 	}
 	
+	/**
+	 * Builds the {@link MicrosoftIdToken} from a token already decoded for the request.
+	 *
+	 * @param decodedJwt decoded token
+	 * @return Microsoft OAuth2 ID token
+	 */
+	public static MicrosoftIdToken parse(DecodedJwt decodedJwt) throws IOException {
+		return new MicrosoftIdToken(
+				decodedJwt.getHeader(),
+				decodedJwt.getPayload(MicrosoftIdToken.Payload.class),
+				decodedJwt.getSignatureBytes(),
+				decodedJwt.getSignedContentBytes());
+	}
+	
 	@Override
 	public MicrosoftIdToken.Payload getPayload() {
 		return (MicrosoftIdToken.Payload) super.getPayload();
@@ -25,6 +25,7 @@ import java.security.GeneralSecurityException;
 import javax.servlet.http.HttpServletRequest;
 
 import com.aodocs.endpoints.auth.CustomAttribute;
+import com.aodocs.endpoints.auth.DecodedJwt;
 import com.aodocs.endpoints.auth.authenticator.microsoft.MicrosoftIdToken;
 import com.aodocs.endpoints.auth.authenticator.microsoft.jwks.PublicKeyProvider;
 import com.aodocs.endpoints.auth.authenticator.microsoft.verifier.MicrosoftOpenIDConfigurationDocumentProvider;
@@ -34,19 +35,33 @@ import com.google.api.server.spi.ServiceException;
 import com.google.api.server.spi.auth.GoogleAuth;
 import com.google.api.server.spi.auth.common.User;
 import com.google.api.server.spi.config.Authenticator;
+import com.google.api.server.spi.config.Singleton;
 import com.google.api.server.spi.request.Attribute;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.flogger.FluentLogger;
 
 /**
  * Authenticator for Microsoft issued JSON Web Token, currently specific for Microsoft Id Tokens (v1.0 and v2.0).
+ * It is a singleton, as the verifier caches the verified tokens.
  */
+@Singleton
 public class MicrosoftOAuth2Authenticator implements Authenticator {
 	
 	private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 	
 	private final MicrosoftTokenVerifier verifier;
 	
+	private static final class InstanceHolder {
+		private static final MicrosoftOAuth2Authenticator INSTANCE = new MicrosoftOAuth2Authenticator();
+	}
+	
+	/**
+	 * @return an instance shared by the whole application, so that verified tokens and keys are cached across calls
+	 */
+	public static MicrosoftOAuth2Authenticator getInstance() {
+		return InstanceHolder.INSTANCE;
+	}
+	
 	public MicrosoftOAuth2Authenticator() {
 		this(new MicrosoftTokenVerifier(
 				Client.getInstance().getJsonFactory(),
@@ -59,12 +74,12 @@ public class MicrosoftOAuth2Authenticator implements Authenticator {
 	}
 	
 	@VisibleForTesting
-	MicrosoftIdToken verifyToken(String token) {
-		if (token == null) {
+	MicrosoftIdToken verifyToken(DecodedJwt decodedJwt) {
+		if (decodedJwt == null) {
 			return null;
 		}
 		try {
-			return verifier.verify(token);
+			return verifier.verify(decodedJwt);
 		} catch (GeneralSecurityException | IOException | IllegalArgumentException | ServiceException e) {
 			logger.atWarning().withCause(e).log("error while verifying JWT");
 			return null;
@@ -79,11 +94,15 @@ public class MicrosoftOAuth2Authenticator implements Authenticator {
 		}
 		
 		String token = GoogleAuth.getAuthToken(request);
-		if (!GoogleAuth.isJwt(token)) {
+		if (!DecodedJwt.isJwt(token)) {
 			return null;
 		}
 		
-		MicrosoftIdToken microsoftToken = verifyToken(token);
+		//already verified tokens are not decoded again
+		MicrosoftIdToken microsoftToken = verifier.getVerifiedToken(token);
+		if (microsoftToken == null) {
+			microsoftToken = verifyToken(DecodedJwt.from(request));
+		}
 		if (microsoftToken == null) {
 			return null;
 		}
@@ -0,0 +1,74 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.auth.authenticator.microsoft.jwks;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.server.spi.Client;
+import com.google.common.annotations.VisibleForTesting;
+import com.nimbusds.jose.jwk.JWKSet;
+
+/**
+ * Fetches the key set over HTTP, and reads the cache time from the response headers.
+ */
+class HttpJwksFetcher implements JwksFetcher {
+	
+	private static final Pattern MAX_AGE_PATTERN = Pattern.compile("\\s*max-age\\s*=\\s*(\\d+)\\s*");
+	
+	@Override
+	public FetchedKeySet fetch(String jwksUri) throws IOException, ParseException {
+		HttpRequest request = Client.getInstance().getJsonHttpRequestFactory()
+				.buildGetRequest(new GenericUrl(jwksUri));
+		HttpResponse response = request.execute();
+		try {
+			JWKSet keySet = JWKSet.parse(response.parseAsString());
+			return new FetchedKeySet(keySet, getCacheTimeInSeconds(response.getHeaders()));
+		} finally {
+			response.disconnect();
+		}
+	}
+	
+	//This method is a copy of GooglePublicKeysManager#getCacheTimeInSec
+	@VisibleForTesting
+	static long getCacheTimeInSeconds(HttpHeaders httpHeaders) {
+		long cacheTimeInSec = 0;
+		if (httpHeaders.getCacheControl() != null) {
+			for (String arg : httpHeaders.getCacheControl().split(",")) {
+				Matcher m = MAX_AGE_PATTERN.matcher(arg);
+				if (m.matches()) {
+					cacheTimeInSec = Long.parseLong(m.group(1));
+					break;
+				}
+			}
+		}
+		if (httpHeaders.getAge() != null) {
+			cacheTimeInSec -= httpHeaders.getAge();
+		}
+		return Math.max(0, cacheTimeInSec);
+	}
+	
+}
@@ -0,0 +1,187 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.auth.authenticator.microsoft.jwks;
+
+import java.io.IOException;
+import java.security.interfaces.RSAPublicKey;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.primitives.Longs;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+
+/**
+ * Caches the RSA keys of a single JWKS URI, indexed by key id.
+ * <p>
+ * Keys are refreshed in the background once the cache time advertised by the server is over, the stale keys being
+ * served meanwhile. An unknown key id triggers a synchronous refetch (to handle key rotation), at most once every
+ * {@link #MIN_REFETCH_INTERVAL_SECONDS} so that forged key ids can't be used to flood the JWKS endpoint.
+ */
+class JwksCache {
+	
+	private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+	
+	/**
+	 * Used when the server does not provide a max-age
+	 */
+	static final long DEFAULT_CACHE_TIME_SECONDS = TimeUnit.HOURS.toSeconds(1);
+	static final long MIN_CACHE_TIME_SECONDS = TimeUnit.MINUTES.toSeconds(5);
+	static final long MAX_CACHE_TIME_SECONDS = TimeUnit.DAYS.toSeconds(1);
+	
+	/**
+	 * Minimum delay between two fetches, when the fetch is caused by an unknown key id or a failed refresh.
+	 */
+	static final long MIN_REFETCH_INTERVAL_SECONDS = 30;
+	
+	private final String jwksUri;
+	private final JwksFetcher fetcher;
+	private final Ticker ticker;
+	private final Executor refreshExecutor;
+	
+	private final AtomicBoolean refreshing = new AtomicBoolean();
+	private volatile KeySet keySet;
+	
+	JwksCache(String jwksUri, JwksFetcher fetcher, Ticker ticker, Executor refreshExecutor) {
+		this.jwksUri = jwksUri;
+		this.fetcher = fetcher;
+		this.ticker = ticker;
+		this.refreshExecutor = refreshExecutor;
+	}
+	
+	/**
+	 * @return the key with the provided id, or null if it's not in the key set (even after a refetch)
+	 */
+	RSAPublicKey getKey(String keyId) throws IOException, ParseException, JOSEException {
+		KeySet current = getKeySet();
+		if (ticker.read() - current.expiresAtNanos >= 0) {
+			refreshAsync();
+		}
+		RSAPublicKey key = current.keysById.get(keyId);
+		return key != null ? key : refetchForUnknownKeyId(keyId);
+	}
+	
+	/**
+	 * @return the key with the provided id if it is currently cached, without any fetch
+	 */
+	RSAPublicKey getCachedKey(String keyId) {
+		KeySet current = keySet;
+		return current == null ? null : current.keysById.get(keyId);
+	}
+	
+	private KeySet getKeySet() throws IOException, ParseException, JOSEException {
+		KeySet current = keySet;
+		if (current != null) {
+			return current;
+		}
+		synchronized (this) {
+			if (keySet == null) {
+				keySet = fetch();
+			}
+			return keySet;
+		}
+	}
+	
+	private synchronized RSAPublicKey refetchForUnknownKeyId(String keyId) throws IOException, ParseException, JOSEException {
+		//another thread may have refetched the keys while this one was waiting
+		KeySet current = keySet;
+		RSAPublicKey key = current.keysById.get(keyId);
+		if (key != null) {
+			return key;
+		}
+		if (ticker.read() - current.fetchedAtNanos < TimeUnit.SECONDS.toNanos(MIN_REFETCH_INTERVAL_SECONDS)) {
+			logger.atFine().log("Unknown key id %s for %s, keys were fetched too recently to refetch", keyId, jwksUri);
+			return null;
+		}
+		logger.atInfo().log("Unknown key id %s for %s, refetching keys", keyId, jwksUri);
+		keySet = fetch();
+		return keySet.keysById.get(keyId);
+	}
+	
+	private void refreshAsync() {
+		if (!refreshing.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			refreshExecutor.execute(() -> {
+				try {
+					KeySet refreshed = fetch();
+					synchronized (this) {
+						keySet = refreshed;
+					}
+				} catch (Exception e) {
+					logger.atWarning().withCause(e).log("Cannot refresh keys from %s, retrying later", jwksUri);
+					synchronized (this) {
+						keySet = keySet.retryLater(ticker.read() + TimeUnit.SECONDS.toNanos(MIN_REFETCH_INTERVAL_SECONDS));
+					}
+				} finally {
+					refreshing.set(false);
+				}
+			});
+		} catch (RuntimeException e) {
+			refreshing.set(false);
+			logger.atWarning().withCause(e).log("Cannot schedule refresh of keys from %s", jwksUri);
+		}
+	}
+	
+	private KeySet fetch() throws IOException, ParseException, JOSEException {
+		long fetchedAtNanos = ticker.read();
+		JwksFetcher.FetchedKeySet fetched = fetcher.fetch(jwksUri);
+		Map<String, RSAPublicKey> keysById = new HashMap<>();
+		for (JWK jwk : fetched.getKeySet().getKeys()) {
+			if (jwk instanceof RSAKey && jwk.getKeyID() != null
+					&& (jwk.getKeyUse() == null || KeyUse.SIGNATURE.equals(jwk.getKeyUse()))) {
+				keysById.putIfAbsent(jwk.getKeyID(), ((RSAKey) jwk).toRSAPublicKey());
+			}
+		}
+		long cacheTimeSeconds = fetched.getCacheTimeSeconds() > 0
+				? Longs.constrainToRange(fetched.getCacheTimeSeconds(), MIN_CACHE_TIME_SECONDS, MAX_CACHE_TIME_SECONDS)
+				: DEFAULT_CACHE_TIME_SECONDS;
+		logger.atInfo().log("Fetched %d keys from %s, cached for %d seconds", keysById.size(), jwksUri, cacheTimeSeconds);
+		return new KeySet(ImmutableMap.copyOf(keysById), fetchedAtNanos,
+				fetchedAtNanos + TimeUnit.SECONDS.toNanos(cacheTimeSeconds));
+	}
+	
+	private static final class KeySet {
+		
+		private final ImmutableMap<String, RSAPublicKey> keysById;
+		private final long fetchedAtNanos;
+		private final long expiresAtNanos;
+		
+		private KeySet(ImmutableMap<String, RSAPublicKey> keysById, long fetchedAtNanos, long expiresAtNanos) {
+			this.keysById = keysById;
+			this.fetchedAtNanos = fetchedAtNanos;
+			this.expiresAtNanos = expiresAtNanos;
+		}
+		
+		private KeySet retryLater(long retryAtNanos) {
+			return new KeySet(keysById, fetchedAtNanos, retryAtNanos);
+		}
+	}
+}
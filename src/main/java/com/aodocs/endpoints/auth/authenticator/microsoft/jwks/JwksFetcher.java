@@ -0,0 +1,55 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.auth.authenticator.microsoft.jwks;
+
+import java.io.IOException;
+import java.text.ParseException;
+
+import com.nimbusds.jose.jwk.JWKSet;
+
+/**
+ * Fetches a JSON Web Key Set, along with the time it can be cached.
+ */
+interface JwksFetcher {
+	
+	FetchedKeySet fetch(String jwksUri) throws IOException, ParseException;
+	
+	final class FetchedKeySet {
+		
+		private final JWKSet keySet;
+		private final long cacheTimeSeconds;
+		
+		FetchedKeySet(JWKSet keySet, long cacheTimeSeconds) {
+			this.keySet = keySet;
+			this.cacheTimeSeconds = cacheTimeSeconds;
+		}
+		
+		JWKSet getKeySet() {
+			return keySet;
+		}
+		
+		/**
+		 * @return the cache time advertised by the server, 0 if unknown
+		 */
+		long getCacheTimeSeconds() {
+			return cacheTimeSeconds;
+		}
+	}
+}
@@ -19,49 +19,76 @@
  */
 package com.aodocs.endpoints.auth.authenticator.microsoft.jwks;
 
-import java.net.URL;
 import java.security.PublicKey;
-import java.util.logging.Logger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
+import com.aodocs.endpoints.util.RefreshScheduler;
 import com.google.api.client.json.webtoken.JsonWebSignature;
 import com.google.api.server.spi.response.ServiceUnavailableException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
 import com.nimbusds.jose.JWSAlgorithm;
-import com.nimbusds.jose.jwk.JWK;
-import com.nimbusds.jose.jwk.JWKSet;
-import com.nimbusds.jose.jwk.RSAKey;
 
+/**
+ * Provides the public keys used to verify token signatures.
+ * The keys are cached per JWKS URI, see {@link JwksCache} for the refresh policy.
+ */
 public class PublicKeyProvider {
 	
-	private static final Logger sLogger = Logger.getLogger(PublicKeyProvider.class.getName());
+	//this needs to be static to share the keys between all the instances
+	private static final ConcurrentMap<String, JwksCache> SHARED_CACHES = new ConcurrentHashMap<>();
+	
+	private final ConcurrentMap<String, JwksCache> caches;
+	private final JwksFetcher fetcher;
+	private final Ticker ticker;
+	private final Executor refreshExecutor;
+	
+	public PublicKeyProvider() {
+		this(SHARED_CACHES, new HttpJwksFetcher(), Ticker.systemTicker(), RefreshScheduler.getShared());
+	}
+	
+	@VisibleForTesting
+	PublicKeyProvider(JwksFetcher fetcher, Ticker ticker, Executor refreshExecutor) {
+		this(new ConcurrentHashMap<>(), fetcher, ticker, refreshExecutor);
+	}
+	
+	private PublicKeyProvider(ConcurrentMap<String, JwksCache> caches, JwksFetcher fetcher, Ticker ticker, Executor refreshExecutor) {
+		this.caches = caches;
+		this.fetcher = fetcher;
+		this.ticker = ticker;
+		this.refreshExecutor = refreshExecutor;
+	}
 	
 	public PublicKey getPublicKey(String jwksUri, JsonWebSignature.Header header) throws ServiceUnavailableException {
 		try {
-			URL jwkSetURL = new URL(jwksUri);
-			
-			JWKSet jwkSet = JWKSet.load(jwkSetURL);
-			
 			JWSAlgorithm algorithm = JWSAlgorithm.parse(header.getAlgorithm());
-			if (algorithm.equals(JWSAlgorithm.RS256)) {
-				RSAKey rsaKey = null;
-				for (JWK jwk : jwkSet.getKeys()) {
-					if (jwk.getKeyID().equals(header.getKeyId())) {
-						rsaKey = (RSAKey) jwk;
-						break;
-					}
-				}
-				if (rsaKey == null) {
-					throw new IllegalArgumentException("Cannot locate publicKey for algorithm: " + header.getAlgorithm());
-				}
-				
-				sLogger.info("Public key: " + rsaKey.toRSAPublicKey());
-				
-				return rsaKey.toRSAPublicKey();
-			} else {
+			if (!algorithm.equals(JWSAlgorithm.RS256)) {
 				throw new IllegalArgumentException("Unsupported algorithm: " + header.getAlgorithm());
 			}
+			PublicKey publicKey = getCache(jwksUri).getKey(header.getKeyId());
+			if (publicKey == null) {
+				throw new IllegalArgumentException("Cannot locate publicKey for key id: " + header.getKeyId());
+			}
+			return publicKey;
 		} catch (Exception e) {
 			throw new ServiceUnavailableException("Failed to obtain public key for signature validation", e);
 		}
 	}
 	
+	/**
+	 * Returns the key only if it is already cached, never fetches the key set.
+	 *
+	 * @return the cached key, or null if the key is unknown (or was rotated out)
+	 */
+	public PublicKey getCachedPublicKey(String jwksUri, String keyId) {
+		JwksCache cache = caches.get(jwksUri);
+		return cache == null || keyId == null ? null : cache.getCachedKey(keyId);
+	}
+	
+	private JwksCache getCache(String jwksUri) {
+		return caches.computeIfAbsent(jwksUri, uri -> new JwksCache(uri, fetcher, ticker, refreshExecutor));
+	}
+	
 }
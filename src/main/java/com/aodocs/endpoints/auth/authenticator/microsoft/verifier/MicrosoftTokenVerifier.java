@@ -23,38 +23,116 @@ import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.security.PublicKey;
 
+import com.aodocs.endpoints.auth.DecodedJwt;
 import com.aodocs.endpoints.auth.authenticator.microsoft.MicrosoftIdToken;
 import com.aodocs.endpoints.auth.authenticator.microsoft.jwks.PublicKeyProvider;
 import com.aodocs.endpoints.auth.authenticator.microsoft.util.UrlFormatter;
 import com.aodocs.endpoints.auth.authenticator.microsoft.SupportedVersion;
+import com.aodocs.endpoints.util.cache.VerifiedTokenCache;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.server.spi.ServiceException;
 import com.google.api.server.spi.response.ServiceUnavailableException;
+import com.google.common.cache.CacheStats;
 
 public class MicrosoftTokenVerifier {
 	
 	public static final long DEFAULT_TIME_SKEW_SECONDS = 300;
 	
+	public static final int DEFAULT_MAX_CACHED_TOKENS = 10_000;
+	
 	private final JsonFactory jsonFactory;
 	private final MicrosoftOpenIDConfigurationDocumentProvider configurationProvider;
 	private final PublicKeyProvider publicKeyProvider;
 	
+	/**
+	 * Already verified tokens, null when caching is disabled
+	 */
+	private final VerifiedTokenCache<MicrosoftIdToken> verifiedTokens;
+	
 	public MicrosoftTokenVerifier(JsonFactory jsonFactory, MicrosoftOpenIDConfigurationDocumentProvider configurationProvider, PublicKeyProvider publicKeyProvider) {
+		this(jsonFactory, configurationProvider, publicKeyProvider, DEFAULT_MAX_CACHED_TOKENS);
+	}
+	
+	/**
+	 * @param maxCachedTokens maximum number of verified tokens kept in memory, 0 to disable the cache
+	 */
+	public MicrosoftTokenVerifier(JsonFactory jsonFactory, MicrosoftOpenIDConfigurationDocumentProvider configurationProvider, PublicKeyProvider publicKeyProvider,
+			int maxCachedTokens) {
 		this.jsonFactory = jsonFactory;
 		this.configurationProvider = configurationProvider;
 		this.publicKeyProvider = publicKeyProvider;
+		this.verifiedTokens = maxCachedTokens > 0 ? new VerifiedTokenCache<>(maxCachedTokens) : null;
+	}
+	
+	/**
+	 * @return the token if it was already verified and is still valid, null otherwise. Does not parse the token.
+	 */
+	public MicrosoftIdToken getVerifiedToken(String token) {
+		return getCachedToken(token);
 	}
 	
 	public MicrosoftIdToken verify(String token) throws GeneralSecurityException, IOException, ServiceException {
-		MicrosoftIdToken idToken = MicrosoftIdToken.parse(jsonFactory, token);
-		return verify(idToken) ? idToken : null;
+		MicrosoftIdToken cachedToken = getCachedToken(token);
+		if (cachedToken != null) {
+			return cachedToken;
+		}
+		return verifyAndCache(token, MicrosoftIdToken.parse(jsonFactory, token));
+	}
+	
+	/**
+	 * Same as {@link #verify(String)}, for a token already decoded for the request.
+	 */
+	public MicrosoftIdToken verify(DecodedJwt decodedJwt) throws GeneralSecurityException, IOException, ServiceException {
+		MicrosoftIdToken cachedToken = getCachedToken(decodedJwt.getToken());
+		if (cachedToken != null) {
+			return cachedToken;
+		}
+		return verifyAndCache(decodedJwt.getToken(), MicrosoftIdToken.parse(decodedJwt));
+	}
+	
+	private MicrosoftIdToken getCachedToken(String token) {
+		return verifiedTokens != null ? verifiedTokens.getIfValid(token) : null;
 	}
 	
-	private boolean verify(MicrosoftIdToken idToken) throws ServiceException, GeneralSecurityException {
+	private MicrosoftIdToken verifyAndCache(String token, MicrosoftIdToken idToken) throws GeneralSecurityException, ServiceException {
+		MicrosoftOpenIdConfigurationDocument discoveryDocument = getConfigurationDocument(idToken);
+		if (!verify(idToken, discoveryDocument)) {
+			return null;
+		}
+		if (verifiedTokens != null) {
+			cacheVerifiedToken(token, idToken, discoveryDocument.getJwks_uri());
+		}
+		return idToken;
+	}
+	
+	/**
+	 * @return hit, miss and eviction counts of the verified tokens cache
+	 */
+	public CacheStats getVerifiedTokenCacheStats() {
+		return verifiedTokens != null ? verifiedTokens.stats() : new CacheStats(0, 0, 0, 0, 0, 0);
+	}
+	
+	/**
+	 * The token is cached until its expiration time minus the allowed skew, and as long as its signing key is published.
+	 */
+	private void cacheVerifiedToken(String token, MicrosoftIdToken idToken, String jwksUri) {
+		Long expirationTimeSeconds = idToken.getPayload().getExpirationTimeSeconds();
+		if (expirationTimeSeconds == null) {
+			return;
+		}
+		String keyId = idToken.getHeader().getKeyId();
+		verifiedTokens.put(token, idToken, (expirationTimeSeconds - DEFAULT_TIME_SKEW_SECONDS) * 1000,
+				() -> publicKeyProvider.getCachedPublicKey(jwksUri, keyId) != null);
+	}
+	
+	private MicrosoftOpenIdConfigurationDocument getConfigurationDocument(MicrosoftIdToken idToken) throws ServiceException {
 		String version = idToken.getPayload().getVersion();
 		String tenantId = idToken.getPayload().getTenantId();
-		MicrosoftOpenIdConfigurationDocument discoveryDocument = configurationProvider.getConfigurationDocument(SupportedVersion.of(version), tenantId);
-		
+		return configurationProvider.getConfigurationDocument(SupportedVersion.of(version), tenantId);
+	}
+	
+	private boolean verify(MicrosoftIdToken idToken, MicrosoftOpenIdConfigurationDocument discoveryDocument) throws ServiceException, GeneralSecurityException {
+		String tenantId = idToken.getPayload().getTenantId();
 		return verifyVersion(idToken) &&
 				verifyIssuer(idToken, getExpectedIssuer(discoveryDocument, tenantId)) &&
 				verifyTime(idToken) &&
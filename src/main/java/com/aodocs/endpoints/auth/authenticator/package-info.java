@@ -23,6 +23,7 @@
  * - AllowedProjectsAuthenticator: allows all web client ids from a list of project
  * - ProjectClientIdsAuthenticator: allows all client ids (including service accounts)
  * - Conjunct/Disjunct/NegateAuthenticator: combines multiple authenticators with and / or / not logic
+ * - IssuerRoutingAuthenticator: sends each token to the authenticator of its issuer (opt-in, not used by default)
  * - Path/VerbBasedAuthenticator: applies a different authenticator based on the API rest path or HTTP verb
  * - ProjectRolesAuthenticator and Project[Owner/Member]OnlyAuthenticator: authorizes users based on their role in the project
  * - Jwt/Oauth2OnlyAuthenticator: restricts the type of allowed authentication
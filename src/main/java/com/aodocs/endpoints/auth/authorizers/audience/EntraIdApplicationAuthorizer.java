@@ -57,13 +57,12 @@ public class EntraIdApplicationAuthorizer extends AbstractAuthorizer {
 		if (AuthType.MS_OAUTH2 != authInfo.getAuthType()) {
 			return AuthorizationResult.notAuthorized();
 		}
-		List<String> allowedAppIds = appIdSupplier.get();
 		List<String> audience = authInfo.getAudience();
 		if (audience == null || audience.isEmpty()) {
 			return AuthorizationResult.notAuthorized();
 		}
 		
-		logger.atFine().log("Class=%s, Audience=%s, Allowed=%s", getClass(), audience.get(0), allowedAppIds);
-		return new AuthorizationResult(allowedAppIds.contains(audience.get(0)));
+		logger.atFine().log("Class=%s, Audience=%s, Allowed=%s", getClass(), audience.get(0), appIdSupplier.get());
+		return new AuthorizationResult(appIdSupplier.contains(audience.get(0)));
 	}
 }
\ No newline at end of file
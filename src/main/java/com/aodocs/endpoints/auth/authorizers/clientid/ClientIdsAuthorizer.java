@@ -19,8 +19,6 @@
  */
 package com.aodocs.endpoints.auth.authorizers.clientid;
 
-import java.util.List;
-
 import javax.servlet.http.HttpServletRequest;
 
 import lombok.Getter;
@@ -56,8 +54,7 @@ public final class ClientIdsAuthorizer extends AbstractAuthorizer {
 			return AuthorizationResult.notAuthorized();
 		}
 		
-		List<String> allowedClientIds = clientIdSupplier.get();
-		logger.atFine().log("Class=%s, ClientId=%s, Allowed=%s", getClass(), clientId, allowedClientIds);
-		return new AuthorizationResult(clientIdSupplier.get().contains(clientId));
+		logger.atFine().log("Class=%s, ClientId=%s, Allowed=%s", getClass(), clientId, clientIdSupplier.get());
+		return new AuthorizationResult(clientIdSupplier.contains(clientId));
 	}
 }
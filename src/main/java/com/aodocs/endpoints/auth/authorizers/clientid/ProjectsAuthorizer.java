@@ -48,7 +48,7 @@ public final class ProjectsAuthorizer extends AbstractAuthorizer {
         }
     
         String projectNumber = ProjectConfigProvider.extractProjectNumber(clientId);
-        return new AuthorizationResult(projectNumber != null && projectNumberSupplier.get().contains(projectNumber));
+        return new AuthorizationResult(projectNumber != null && projectNumberSupplier.contains(projectNumber));
     }
 
 }
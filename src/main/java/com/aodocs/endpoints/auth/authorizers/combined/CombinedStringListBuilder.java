@@ -32,6 +32,9 @@ import com.google.common.base.Joiner;
  */
 class CombinedStringListBuilder {
 
+    //deny lists are checked on every request, and almost never match
+    private static final double BLACKLIST_BLOOM_FILTER_FPP = 0.01;
+
     /**
      * Combines a static list from the classpath (deploy time) and GCS (runtime)
      */
@@ -74,7 +77,7 @@ class CombinedStringListBuilder {
     }
 
     StringListSupplier blacklist(String id) {
-        return new CombinedStringListSupplier(id, false);
+        return new CombinedStringListSupplier(id, false).withBloomFilter(BLACKLIST_BLOOM_FILTER_FPP);
     }
 
 }
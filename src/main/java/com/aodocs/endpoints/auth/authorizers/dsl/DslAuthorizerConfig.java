@@ -43,6 +43,7 @@ import com.aodocs.endpoints.storage.ClasspathStringListSupplier;
 import com.aodocs.endpoints.storage.CloudStorageStringListSupplier;
 import com.aodocs.endpoints.storage.DatastoreStringListSupplier;
 import com.aodocs.endpoints.storage.ExplicitStringListSupplier;
+import com.aodocs.endpoints.storage.FileStringListSupplier;
 import com.aodocs.endpoints.storage.MergingStringListSupplier;
 import com.aodocs.endpoints.storage.StringListSupplier;
 import com.fasterxml.jackson.core.JsonGenerator;
@@ -119,6 +120,7 @@ public interface DslAuthorizerConfig {
             .put("classpathResource", ClasspathStringListSupplier.class)
             .put("datastoreEntity", DatastoreStringListSupplier.class)
             .put("cloudStorageUrl", CloudStorageStringListSupplier.class)
+            .put("filePath", FileStringListSupplier.class)
             .build();
 
     DslDeserializer<StringListSupplier> STRING_SUPPLIER_DESERIALIZER
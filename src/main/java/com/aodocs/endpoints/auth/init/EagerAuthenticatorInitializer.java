@@ -33,18 +33,25 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
- * Scans the classpath for API classes, and initializes all custom authenticators
+ * Scans the classpath for API classes, and initializes all custom authenticators.
+ * The string lists they use are then loaded concurrently, see {@link SupplierWarmUp}, waiting at most
+ * {@value #WARM_UP_TIMEOUT_PARAMETER} seconds (30 by default) before the instance serves requests.
  */
 @Log
 public class EagerAuthenticatorInitializer implements ServletContextListener {
 
+    public static final String WARM_UP_TIMEOUT_PARAMETER = "supplierWarmUpTimeoutSeconds";
+    private static final long DEFAULT_WARM_UP_TIMEOUT_SECONDS = 30;
+
     @Override
     public void contextInitialized(ServletContextEvent sce) {
         Reflections reflections = new Reflections(sce.getServletContext().getInitParameter("apiPackagePrefix"),
@@ -56,16 +63,23 @@ public class EagerAuthenticatorInitializer implements ServletContextListener {
                             getAuthenticators(reflections.getTypesAnnotatedWith(Api.class), Api.class)),
                             getAuthenticators(reflections.getTypesAnnotatedWith(ApiClass.class), ApiClass.class))
                             .collect(Collectors.toSet());
-            long authenticatorCount = uniqueAuthenticatorClasses.stream()
+            List<Authenticator> authenticators = uniqueAuthenticatorClasses.stream()
 		            .map(Auth::instantiateAuthenticator)
                     .filter(Objects::nonNull)
-                    .count();
-            log.log(Level.INFO, "Initialized " + authenticatorCount + " authenticators");
+                    .collect(Collectors.toList());
+            log.log(Level.INFO, "Initialized " + authenticators.size() + " authenticators");
+            SupplierWarmUp.warmUp(SupplierWarmUp.discover(authenticators),
+                    TimeUnit.SECONDS.toMillis(getWarmUpTimeoutSeconds(sce)));
         } catch (Exception e) {
             log.log(Level.INFO, "Cannot eagerly initialize authenticators", e);
         }
     }
 
+    private static long getWarmUpTimeoutSeconds(ServletContextEvent sce) {
+        String timeout = sce.getServletContext().getInitParameter(WARM_UP_TIMEOUT_PARAMETER);
+        return timeout != null ? Long.parseLong(timeout) : DEFAULT_WARM_UP_TIMEOUT_SECONDS;
+    }
+
     private Stream<Class<? extends Authenticator>> getAuthenticators(
             Set<? extends AnnotatedElement> annotatedElements, final Class<? extends Annotation> annotationClass) {
 
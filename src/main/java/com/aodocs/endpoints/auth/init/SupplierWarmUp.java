@@ -0,0 +1,191 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.auth.init;
+
+import com.aodocs.endpoints.storage.StringListSupplier;
+import com.aodocs.endpoints.util.RefreshScheduler;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import lombok.extern.java.Log;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+
+/**
+ * Loads concurrently all the {@link StringListSupplier}s reachable from authenticators, before serving requests.
+ * Suppliers are discovered by walking the fields of the authenticators (including the ones inherited from this
+ * library), then of the objects of this library, collections, maps and arrays they hold. The walk does not go
+ * through the values of the suppliers, only their nested suppliers.
+ * Loads run on the {@link RefreshScheduler}, so that loads that time out can complete in the background.
+ */
+@Log
+final class SupplierWarmUp {
+
+    private static final String LIBRARY_PACKAGE = "com.aodocs.endpoints.";
+
+    private SupplierWarmUp() {
+    }
+
+    /**
+     * @param roots the objects to start from
+     * @return the suppliers reachable from the roots, in discovery order
+     */
+    static Set<StringListSupplier> discover(Collection<?> roots) {
+        Set<StringListSupplier> suppliers = new LinkedHashSet<>();
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Object> toVisit = new ArrayDeque<>(roots);
+        while (!toVisit.isEmpty()) {
+            Object current = toVisit.pop();
+            if (!visited.add(current)) {
+                continue;
+            }
+            if (current instanceof StringListSupplier) {
+                suppliers.add((StringListSupplier) current);
+                //only nested suppliers, not the loaded values
+                addFields(toVisit, current, true);
+            } else if (current instanceof Collection) {
+                addAll(toVisit, (Collection<?>) current);
+            } else if (current instanceof Map) {
+                addAll(toVisit, ((Map<?, ?>) current).values());
+            } else if (current.getClass().isArray() && !current.getClass().getComponentType().isPrimitive()) {
+                for (int i = 0; i < Array.getLength(current); i++) {
+                    addIfNotNull(toVisit, Array.get(current, i));
+                }
+            } else {
+                //roots, or objects of this library
+                addFields(toVisit, current, false);
+            }
+        }
+        return suppliers;
+    }
+
+    private static void addFields(Deque<Object> toVisit, Object object, boolean suppliersOnly) {
+        for (Class<?> type = object.getClass(); type != null && !type.getName().startsWith("java.");
+             type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    Object value = field.get(object);
+                    if (!suppliersOnly) {
+                        addIfNotNull(toVisit, value);
+                    } else if (value instanceof StringListSupplier) {
+                        toVisit.push(value);
+                    } else if (value instanceof Collection) {
+                        ((Collection<?>) value).stream().filter(StringListSupplier.class::isInstance).forEach(toVisit::push);
+                    } else if (value instanceof StringListSupplier[]) {
+                        for (StringListSupplier supplier : (StringListSupplier[]) value) {
+                            addIfNotNull(toVisit, supplier);
+                        }
+                    }
+                } catch (IllegalAccessException | RuntimeException e) {
+                    log.log(Level.FINE, "Cannot read " + field, e);
+                }
+            }
+        }
+    }
+
+    private static void addAll(Deque<Object> toVisit, Collection<?> values) {
+        values.forEach(value -> addIfNotNull(toVisit, value));
+    }
+
+    private static void addIfNotNull(Deque<Object> toVisit, Object value) {
+        if (value != null && isWalked(value)) {
+            toVisit.push(value);
+        }
+    }
+
+    private static boolean isWalked(Object value) {
+        return value instanceof StringListSupplier || value instanceof Collection || value instanceof Map
+                || value.getClass().isArray() || value.getClass().getName().startsWith(LIBRARY_PACKAGE);
+    }
+
+    /**
+     * Loads the suppliers concurrently, and logs the load time of each one.
+     *
+     * @param timeoutMillis the maximum time to wait for the slowest supplier
+     * @return the load time of each supplier loaded in time, in milliseconds
+     */
+    static Map<StringListSupplier, Long> warmUp(Collection<StringListSupplier> suppliers, long timeoutMillis) {
+        if (suppliers.isEmpty()) {
+            return ImmutableMap.of();
+        }
+        Map<StringListSupplier, CompletableFuture<Long>> loads = new LinkedHashMap<>();
+        for (StringListSupplier supplier : suppliers) {
+            loads.put(supplier, CompletableFuture.supplyAsync(() -> {
+                Stopwatch stopwatch = Stopwatch.createStarted();
+                supplier.get();
+                return stopwatch.elapsed(TimeUnit.MILLISECONDS);
+            }, RefreshScheduler.getShared()));
+        }
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try {
+            CompletableFuture.allOf(loads.values().toArray(new CompletableFuture[0])).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warning("Supplier warm-up timed out after " + timeoutMillis + "ms");
+        } catch (Exception e) {
+            //failures are reported for each supplier below
+        }
+        ImmutableMap.Builder<StringListSupplier, Long> loadTimes = ImmutableMap.builder();
+        loads.forEach((supplier, load) -> {
+            if (!load.isDone()) {
+                log.warning("Not loaded in time: " + describe(supplier));
+            } else if (load.isCompletedExceptionally()) {
+                log.log(Level.WARNING, "Cannot load " + describe(supplier), getFailure(load));
+            } else {
+                long millis = load.join();
+                loadTimes.put(supplier, millis);
+                log.info("Loaded " + describe(supplier) + " in " + millis + "ms");
+            }
+        });
+        log.info("Warmed up " + suppliers.size() + " suppliers in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + "ms");
+        return loadTimes.build();
+    }
+
+    private static Throwable getFailure(CompletableFuture<?> future) {
+        try {
+            future.join();
+            return null;
+        } catch (RuntimeException e) {
+            return e.getCause() != null ? e.getCause() : e;
+        }
+    }
+
+    private static String describe(StringListSupplier supplier) {
+        return supplier.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(supplier));
+    }
+
+}
@@ -20,7 +20,11 @@
 package com.aodocs.endpoints.context;
 
 import com.aodocs.endpoints.util.AsyncRefreshMemoizingSupplier;
+import com.aodocs.endpoints.util.RefreshPolicy;
+import com.aodocs.endpoints.util.cache.BinaryCodecs;
 import com.aodocs.endpoints.util.cache.ObjectCache;
+import com.aodocs.endpoints.util.cache.SnapshotStore;
+import com.aodocs.endpoints.util.cache.VersionedCodec;
 import com.google.api.client.googleapis.util.Utils;
 import com.google.api.services.iam.v1.Iam;
 import com.google.api.services.iam.v1.IamScopes;
@@ -36,28 +40,71 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
 
+import lombok.EqualsAndHashCode;
 import lombok.NonNull;
 import lombok.SneakyThrows;
 import lombok.Value;
 import lombok.extern.java.Log;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
- * Fetches project roles and update them regularly
+ * Fetches project roles and update them regularly.
+ * When a {@link SnapshotStore} is enabled, the project and its config are read from the last snapshots on startup.
  */
 @Log
 public class ProjectConfigProvider {
 	
 	//TODO make this configurable
     private static final int TTL_IN_SECONDS = 60 * 10;
+    //IAM changes are picked up faster after a change, and at most every TTL_IN_SECONDS otherwise
+    private static final int MIN_TTL_IN_SECONDS = 60 * 2;
+    //shared between instances, must not outlive the shortest refresh interval or refreshes would only re-read it
+    private static final int SHARED_CACHE_TTL_IN_SECONDS = MIN_TTL_IN_SECONDS;
+
+	private static final String PROJECT_SNAPSHOT_PREFIX = "project:";
+	private static final String CONFIG_SNAPSHOT_PREFIX = "projectConfig:";
+	private static final SnapshotStore.Codec<Project> PROJECT_CODEC = new SnapshotStore.Codec<Project>() {
+		@Override
+		public void write(Project value, DataOutput out) throws IOException {
+			byte[] bytes = value.toByteArray();
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		@Override
+		public Project read(DataInput in) throws IOException {
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			return Project.parseFrom(bytes);
+		}
+	};
+
+	private static final VersionedCodec<ImmutableMap<Role, ImmutableSet<Identity>>> IAM_BINDINGS_CODEC =
+			VersionedCodec.of("iamBindings", 1, BinaryCodecs.IAM_BINDINGS);
+	private static final VersionedCodec<ImmutableMap<String, String>> SERVICE_ACCOUNT_CLIENT_IDS_CODEC =
+			VersionedCodec.of("serviceAccountClientIds", 1, BinaryCodecs.STRING_MAP);
+	private static final SnapshotStore.Codec<ProjectConfig> PROJECT_CONFIG_CODEC = new SnapshotStore.Codec<ProjectConfig>() {
+		@Override
+		public void write(ProjectConfig value, DataOutput out) throws IOException {
+			BinaryCodecs.IAM_BINDINGS.write(value.getRoleBindings(), out);
+			BinaryCodecs.STRING_MAP.write(ImmutableMap.copyOf(value.getServiceAccountClientIds()), out);
+			out.writeLong(value.getRefreshedAt().toEpochMilli());
+		}
+
+		@Override
+		public ProjectConfig read(DataInput in) throws IOException {
+			return new ProjectConfig(BinaryCodecs.IAM_BINDINGS.read(in),
+					ImmutableBiMap.copyOf(BinaryCodecs.STRING_MAP.read(in)), Instant.ofEpochMilli(in.readLong()));
+		}
+	};
 
     private static final Pattern CLIENT_ID_PATTERN = Pattern.compile("(\\d+)(-\\w+)?.apps.googleusercontent.com");
 	public static final String PROJECTS_PREFIX = "projects/";
@@ -82,7 +129,23 @@ public class ProjectConfigProvider {
          */
         ImmutableBiMap<String, String> serviceAccountClientIds;
 
-        Instant refreshedAt = Instant.now();
+        /**
+         * When this content was loaded, refreshes returning the same content keep it
+         */
+        @EqualsAndHashCode.Exclude
+        Instant refreshedAt;
+
+        public ProjectConfig(ImmutableMap<Role, ImmutableSet<Identity>> roleBindings,
+                             ImmutableBiMap<String, String> serviceAccountClientIds) {
+            this(roleBindings, serviceAccountClientIds, Instant.now());
+        }
+
+        ProjectConfig(ImmutableMap<Role, ImmutableSet<Identity>> roleBindings,
+                      ImmutableBiMap<String, String> serviceAccountClientIds, Instant refreshedAt) {
+            this.roleBindings = roleBindings;
+            this.serviceAccountClientIds = serviceAccountClientIds;
+            this.refreshedAt = refreshedAt;
+        }
 
 	    /**
 	     * Returns the roles for the provided email address.
@@ -122,8 +185,7 @@ public class ProjectConfigProvider {
 	private final Project project;
 
     //used as a singleton cache for auto refresh, key is only used for the memcache
-    private final AsyncRefreshMemoizingSupplier<ProjectConfig> mutableConfigCache =
-            AsyncRefreshMemoizingSupplier.create(TTL_IN_SECONDS, this::getProjectConfig);
+    private final AsyncRefreshMemoizingSupplier<ProjectConfig> mutableConfigCache;
 
     private static ProjectConfigProvider INSTANCE;
 
@@ -141,16 +203,29 @@ public class ProjectConfigProvider {
     @VisibleForTesting
 	protected ProjectConfigProvider(String applicationId) {
 		this.projectName = PROJECTS_PREFIX + applicationId;
+		this.project = SnapshotStore.getDefault()
+				.flatMap(store -> store.read(PROJECT_SNAPSHOT_PREFIX + projectName, PROJECT_CODEC))
+				.map(SnapshotStore.Snapshot::getValue)
+				.orElseGet(this::fetchProject);
+		this.mutableConfigCache = AsyncRefreshMemoizingSupplier.create(
+				RefreshPolicy.adaptive(MIN_TTL_IN_SECONDS, TTL_IN_SECONDS).withJitter(RefreshPolicy.DEFAULT_JITTER),
+				this::getProjectConfig, CONFIG_SNAPSHOT_PREFIX + projectName, PROJECT_CONFIG_CODEC);
+	    log.info("Project number for '" + projectName + "' is " + getProjectNumber());
+    }
+
+	private Project fetchProject() {
+		Project result;
 		try (ProjectsClient client = getProjectsClient()) {
-			this.project = client.getProject(projectName);
+			result = client.getProject(projectName);
 		}
-	    if (project == null) {
+	    if (result == null) {
 	    	throw new IllegalStateException(
 					"The 'Cloud Resource Manager' API is probably not enabled in this project, " +
 							"please check in the GCP console");
 		}
-	    log.info("Project number for '" + projectName + "' is " + getProjectNumber());
-    }
+		SnapshotStore.getDefault().ifPresent(store -> store.write(PROJECT_SNAPSHOT_PREFIX + projectName, result, PROJECT_CODEC));
+		return result;
+	}
 	
     @SneakyThrows(IOException.class)
     @VisibleForTesting
@@ -187,35 +262,35 @@ public class ProjectConfigProvider {
 
     //TODO implement retries
     private ProjectConfig getProjectConfig() {
-	    ImmutableMap<Role, ImmutableSet<Identity>> roleBindings = ImmutableMap.copyOf(
-			    Maps.transformValues(getIamBindingsCached(projectName), ImmutableSet::copyOf));
-	    ImmutableBiMap.Builder<String, String> serviceAccountClientIds = ImmutableBiMap.builder();
-	    for (ServiceAccount serviceAccount : listServiceAccountsCached()) {
-	        serviceAccountClientIds.put(serviceAccount.getEmail(), serviceAccount.getOauth2ClientId());
-        }
-	    ProjectConfig result = new ProjectConfig(roleBindings, serviceAccountClientIds.build());
+	    ProjectConfig result = new ProjectConfig(getIamBindingsCached(projectName),
+			    ImmutableBiMap.copyOf(getServiceAccountClientIdsCached()));
         log.info("Loaded project config: " + result);
         return result;
     }
 
-    private ImmutableMap<Role, Set<Identity>> getIamBindingsCached(String key) {
+    private ImmutableMap<Role, ImmutableSet<Identity>> getIamBindingsCached(String key) {
     	//Policy object can't be serialized, but we only need the bindings
-	    return ObjectCache.get().getCachedSerializable(key, "iamBindings",
-			    input -> getIamBindings(), TTL_IN_SECONDS);
+	    return ObjectCache.get().getCachedBinary(key, IAM_BINDINGS_CODEC,
+			    input -> getIamBindings(), SHARED_CACHE_TTL_IN_SECONDS);
     }
 	
-	private ImmutableMap<Role, Set<Identity>> getIamBindings() {
+	private ImmutableMap<Role, ImmutableSet<Identity>> getIamBindings() {
 		try (ProjectsClient projectsClient = getProjectsClient()) {
 			return projectsClient.getIamPolicy(projectName).getBindingsList().stream().collect(ImmutableMap.toImmutableMap(
-					binding -> Role.of(binding.getRole()), binding -> binding.getMembersList().stream().map(Identity::valueOf).collect(Collectors.toSet())
+					binding -> Role.of(binding.getRole()), binding -> binding.getMembersList().stream().map(Identity::valueOf).collect(ImmutableSet.toImmutableSet())
 			));
 		}			
 	}
 	
-	private List<ServiceAccount> listServiceAccountsCached() {
-        return ObjectCache.get()
-		        .getCachedJson(projectName, ListServiceAccountsResponse.class, input -> listServiceAccounts(), TTL_IN_SECONDS)
-		        .getAccounts();
+	//only the client ids are cached, the full service accounts can get close to the memcache size limit
+	private ImmutableMap<String, String> getServiceAccountClientIdsCached() {
+        return ObjectCache.get().getCachedBinary(projectName, SERVICE_ACCOUNT_CLIENT_IDS_CODEC, input -> {
+	        ImmutableMap.Builder<String, String> serviceAccountClientIds = ImmutableMap.builder();
+	        for (ServiceAccount serviceAccount : listServiceAccounts().getAccounts()) {
+		        serviceAccountClientIds.put(serviceAccount.getEmail(), serviceAccount.getOauth2ClientId());
+	        }
+	        return serviceAccountClientIds.build();
+        }, SHARED_CACHE_TTL_IN_SECONDS);
     }
 
 	@SneakyThrows
@@ -20,33 +20,93 @@
 package com.aodocs.endpoints.storage;
 
 import com.aodocs.endpoints.util.AsyncRefreshMemoizingSupplier;
+import com.aodocs.endpoints.util.RefreshPolicy;
+import com.aodocs.endpoints.util.cache.SnapshotStore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Suppliers;
 
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Provides a string list with caching, and refreshes asynchronously to avoid pauses.
+ * The list is refreshed every {@code ttlInSeconds}, shortened by a random {@code refreshJitter} ratio.
+ * When {@code minTtlInSeconds} is set, the interval adapts between both TTLs: it grows while the list
+ * is unchanged and goes back to the minimum after a change.
+ * Suppliers providing a {@link #snapshotKey()} start from their last snapshot when a {@link SnapshotStore} is enabled.
  */
 public abstract class AsyncRefreshCachingStringListSupplier extends StringListSupplier {
 
     public static final int DEFAULT_EXPIRATION = 600;
 
-    private final AsyncRefreshMemoizingSupplier<List<String>> cache;
+    //created on first use, so that properties set by deserialization are taken into account
+    private final Supplier<AsyncRefreshMemoizingSupplier<List<String>>> cache =
+            Suppliers.memoize(this::createCache);
     //used for serialization only
     @JsonProperty
     private final int ttlInSeconds;
+    @JsonProperty
+    private final Integer minTtlInSeconds;
+    @JsonProperty
+    private final Double refreshJitter;
 
     protected AsyncRefreshCachingStringListSupplier(Integer ttlInSeconds) {
+        this(ttlInSeconds, null, null);
+    }
+
+    protected AsyncRefreshCachingStringListSupplier(Integer ttlInSeconds, Integer minTtlInSeconds, Double refreshJitter) {
         this.ttlInSeconds = MoreObjects.firstNonNull(ttlInSeconds, DEFAULT_EXPIRATION);
-        this.cache = AsyncRefreshMemoizingSupplier.create(this.ttlInSeconds, this::getUncached);
+        this.minTtlInSeconds = minTtlInSeconds;
+        this.refreshJitter = refreshJitter;
+        getRefreshPolicy(); //validates the bounds
     }
 
     @Override
     protected List<String> getRaw() {
-        return cache.get();
+        return cache.get().get();
+    }
+
+    final int getTtlInSeconds() {
+        return ttlInSeconds;
+    }
+
+    RefreshPolicy getRefreshPolicy() {
+        RefreshPolicy policy = minTtlInSeconds != null
+                ? RefreshPolicy.adaptive(minTtlInSeconds, ttlInSeconds)
+                : RefreshPolicy.fixed(ttlInSeconds);
+        return policy.withJitter(MoreObjects.firstNonNull(refreshJitter, RefreshPolicy.DEFAULT_JITTER));
     }
 
     protected abstract List<String> getUncached();
 
+    /**
+     * @return a key identifying the source of the list across instances, or null to never persist it
+     */
+    protected String snapshotKey() {
+        return null;
+    }
+
+    /**
+     * @return the codec of the snapshots
+     */
+    protected SnapshotStore.Codec<List<String>> snapshotCodec() {
+        return SnapshotStore.STRING_LIST;
+    }
+
+    private AsyncRefreshMemoizingSupplier<List<String>> createCache() {
+        String snapshotKey = snapshotKey();
+        if (snapshotKey == null) {
+            return AsyncRefreshMemoizingSupplier.create(getRefreshPolicy(), this::load);
+        }
+        return AsyncRefreshMemoizingSupplier.create(getRefreshPolicy(), this::load, snapshotKey, snapshotCodec());
+    }
+
+    //runs on the refresh thread, so that requests get the cleaned list and its set already built
+    private List<String> load() {
+        List<String> raw = getUncached();
+        prepareSnapshot(raw);
+        return raw;
+    }
+
 }
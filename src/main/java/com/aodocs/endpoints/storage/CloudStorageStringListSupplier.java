@@ -19,44 +19,76 @@
  */
 package com.aodocs.endpoints.storage;
 
+import com.aodocs.endpoints.util.cache.SnapshotStore;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.cloud.storage.contrib.nio.CloudStorageFileAttributes;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
+import lombok.Value;
 import lombok.extern.java.Log;
 
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 /**
  * Loads a string list from a file in GCS.
+ * On refresh, the object metadata is read first, and the object is only downloaded again when it changed.
+ * An unchanged object supplies the same list instance, so nothing is rebuilt downstream.
+ * With {@code compact}, the object is streamed into a {@link CompactStringList}, for very large lists
+ * whose order does not matter.
  */
 @Log
 @JsonInclude(JsonInclude.Include.NON_DEFAULT)
 public class CloudStorageStringListSupplier extends AsyncRefreshCachingStringListSupplier {
 
+    private static final SnapshotStore.Codec<List<String>> COMPACT_CODEC = new SnapshotStore.Codec<List<String>>() {
+        @Override
+        public void write(List<String> value, DataOutput out) throws IOException {
+            SnapshotStore.STRING_LIST.write(value, out);
+        }
+
+        @Override
+        public List<String> read(DataInput in) throws IOException {
+            return CompactStringList.copyOf(SnapshotStore.STRING_LIST.read(in));
+        }
+    };
+
     //used for serialization only
     @JsonProperty
     private final String cloudStorageUrl;
     @JsonProperty
     private final boolean failOnMissing;
+    @JsonProperty
+    private final boolean compact;
+
+    private volatile Loaded loaded;
+    private final AtomicLong skippedRefreshes = new AtomicLong();
+    private final AtomicLong fullRefreshes = new AtomicLong();
 
     //used to define defaults for serialization
     private CloudStorageStringListSupplier() {
         super(null);
         this.cloudStorageUrl = null;
         this.failOnMissing = true;
+        this.compact = false;
     }
 
     public CloudStorageStringListSupplier(String cloudStorageUrl) {
-        this(cloudStorageUrl, null, true);
+        this(cloudStorageUrl, null, true, false);
     }
 
     public CloudStorageStringListSupplier(String cloudStorageUrl, int ttlInSeconds) {
@@ -64,16 +96,21 @@ public class CloudStorageStringListSupplier extends AsyncRefreshCachingStringLis
     }
 
     public CloudStorageStringListSupplier(String cloudStorageUrl, int ttlInSeconds, boolean failOnMissing) {
-        this(cloudStorageUrl, (Integer) ttlInSeconds, (Boolean) failOnMissing);
+        this(cloudStorageUrl, (Integer) ttlInSeconds, (Boolean) failOnMissing, false);
+    }
+
+    public CloudStorageStringListSupplier(String cloudStorageUrl, int ttlInSeconds, boolean failOnMissing, boolean compact) {
+        this(cloudStorageUrl, (Integer) ttlInSeconds, (Boolean) failOnMissing, compact);
     }
 
-    private CloudStorageStringListSupplier(String cloudStorageUrl, Integer ttlInSeconds, Boolean failOnMissing) {
+    private CloudStorageStringListSupplier(String cloudStorageUrl, Integer ttlInSeconds, Boolean failOnMissing, boolean compact) {
         super(ttlInSeconds);
         Preconditions.checkNotNull(cloudStorageUrl);
         Preconditions.checkArgument(cloudStorageUrl.matches("gs://[^/]+/.+"));
         this.cloudStorageUrl = cloudStorageUrl;
         this.failOnMissing = MoreObjects.firstNonNull(failOnMissing, true);
-        getUncached(); //validates failOnMissing
+        this.compact = compact;
+        getRaw(); //validates failOnMissing, unless loaded from a snapshot
     }
 
     @Override
@@ -89,9 +126,74 @@ public class CloudStorageStringListSupplier extends AsyncRefreshCachingStringLis
         }
     }
 
+    @Override
+    protected String snapshotKey() {
+        return "gcs:" + cloudStorageUrl + (compact ? ":compact" : "");
+    }
+
+    @Override
+    protected SnapshotStore.Codec<List<String>> snapshotCodec() {
+        return compact ? COMPACT_CODEC : super.snapshotCodec();
+    }
+
     private List<String> getWithException() throws IOException {
         Path path = Paths.get(URI.create(cloudStorageUrl));
-        return Files.readAllLines(path, StandardCharsets.UTF_8);
+        ObjectVersion version = ObjectVersion.of(Files.readAttributes(path, CloudStorageFileAttributes.class));
+        Loaded previous = loaded;
+        if (previous != null && previous.getVersion().equals(version)) {
+            skippedRefreshes.incrementAndGet();
+            return previous.getLines();
+        }
+        //if the object changes before being read, the next refresh sees a new version and reads it again
+        List<String> lines = compact ? readCompact(path)
+                : Collections.unmodifiableList(Files.readAllLines(path, StandardCharsets.UTF_8));
+        fullRefreshes.incrementAndGet();
+        loaded = new Loaded(version, lines);
+        return lines;
+    }
+
+    private static CompactStringList readCompact(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return CompactStringList.readCleaned(reader);
+        }
+    }
+
+    /**
+     * @return the number of refreshes that found the object unchanged, and did not download it
+     */
+    @JsonIgnore
+    public long getSkippedRefreshCount() {
+        return skippedRefreshes.get();
+    }
+
+    /**
+     * @return the number of refreshes that downloaded the object
+     */
+    @JsonIgnore
+    public long getFullRefreshCount() {
+        return fullRefreshes.get();
+    }
+
+    /**
+     * Identifies an object version from its metadata: the file key holds the blob id, and the etag changes with the content.
+     */
+    @Value
+    private static class ObjectVersion {
+        Object fileKey;
+        String etag;
+        FileTime lastModified;
+        long size;
+
+        static ObjectVersion of(CloudStorageFileAttributes attributes) {
+            return new ObjectVersion(attributes.fileKey(), attributes.etag().orElse(null),
+                    attributes.lastModifiedTime(), attributes.size());
+        }
+    }
+
+    @Value
+    private static class Loaded {
+        ObjectVersion version;
+        List<String> lines;
     }
 
 }
@@ -0,0 +1,330 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.storage;
+
+import com.google.common.base.Preconditions;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * An immutable, sorted and deduplicated list of strings, stored as a single UTF-8 byte array.
+ * It takes a fraction of the memory of a list of {@link String}, and membership checks use a binary search.
+ * Elements are decoded on access, so iterating is slower than on a regular list.
+ *
+ * Strings are sorted by their UTF-8 bytes, which is the code point order.
+ */
+public final class CompactStringList extends AbstractList<String> implements RandomAccess {
+
+    private static final CompactStringList EMPTY = new CompactStringList(new byte[0], new int[]{0});
+
+    /**
+     * Reads the lines, cleans them as {@link StringListSupplier} does, and builds the list without keeping the lines
+     * @param reader the reader, not closed
+     * @return the cleaned lines
+     * @throws IOException if the reader fails
+     */
+    public static CompactStringList readCleaned(BufferedReader reader) throws IOException {
+        Builder builder = new Builder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            builder.add(StringListSupplier.cleanLine(line));
+        }
+        return builder.build();
+    }
+
+    public static CompactStringList copyOf(Iterable<String> strings) {
+        if (strings instanceof CompactStringList) {
+            return (CompactStringList) strings;
+        }
+        Builder builder = new Builder();
+        for (String string : strings) {
+            builder.add(Preconditions.checkNotNull(string));
+        }
+        return builder.build();
+    }
+
+    //bytes of element i are in [offsets[i], offsets[i + 1])
+    private final byte[] bytes;
+    private final int[] offsets;
+    private int hashCode;
+
+    private CompactStringList(byte[] bytes, int[] offsets) {
+        this.bytes = bytes;
+        this.offsets = offsets;
+    }
+
+    @Override
+    public String get(int index) {
+        Preconditions.checkElementIndex(index, size());
+        return new String(bytes, offsets[index], offsets[index + 1] - offsets[index], StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof String)) {
+            return -1;
+        }
+        byte[] key = ((String) o).getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(bytes, offsets[mid], offsets[mid + 1], key, 0, key.length);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        //elements are unique
+        return indexOf(o);
+    }
+
+    /**
+     * @return the size of the UTF-8 content, in bytes
+     */
+    public int byteSize() {
+        return bytes.length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof CompactStringList) {
+            CompactStringList other = (CompactStringList) o;
+            return Arrays.equals(offsets, other.offsets) && Arrays.equals(bytes, other.bytes);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        //racy single-check, as in String
+        int result = hashCode;
+        if (result == 0) {
+            result = super.hashCode();
+            hashCode = result;
+        }
+        return result;
+    }
+
+    private static int compare(byte[] a, int aFrom, int aTo, byte[] b, int bFrom, int bTo) {
+        int length = Math.min(aTo - aFrom, bTo - bFrom);
+        for (int i = 0; i < length; i++) {
+            int cmp = (a[aFrom + i] & 0xff) - (b[bFrom + i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return (aTo - aFrom) - (bTo - bFrom);
+    }
+
+    /**
+     * Accumulates encoded strings in a growing buffer, then sorts and deduplicates them once.
+     * Peak memory is about twice the final size, plus four ints per string.
+     */
+    static final class Builder {
+        private static final int INSERTION_SORT_THRESHOLD = 16;
+
+        private byte[] buffer = new byte[1024];
+        private int[] starts = new int[64];
+        private int count;
+        private int length;
+
+        /**
+         * @param string a string, ignored if empty
+         * @return this builder
+         */
+        Builder add(String string) {
+            if (string.isEmpty()) {
+                return this;
+            }
+            byte[] encoded = string.getBytes(StandardCharsets.UTF_8);
+            reserve(encoded.length, 1);
+            System.arraycopy(encoded, 0, buffer, length, encoded.length);
+            return append(encoded.length);
+        }
+
+        /**
+         * Adds a line of UTF-8 content, cleaned as {@link StringListSupplier#cleanLine(String)} does, without decoding it.
+         * The comment marker and whitespace are ASCII bytes, never part of a multi-byte character,
+         * so cleaning the bytes gives the same result as cleaning the string.
+         * @param source the content, its position is not changed
+         * @param from the first byte of the line
+         * @param to the end of the line, excluded
+         * @return this builder
+         */
+        Builder addCleanedLine(ByteBuffer source, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (source.get(i) == '#') {
+                    to = i;
+                    break;
+                }
+            }
+            //as String.trim
+            while (from < to && (source.get(from) & 0xff) <= ' ') {
+                from++;
+            }
+            while (to > from && (source.get(to - 1) & 0xff) <= ' ') {
+                to--;
+            }
+            if (from == to) {
+                return this;
+            }
+            reserve(to - from, 1);
+            ByteBuffer line = source.duplicate();
+            line.limit(to);
+            line.position(from);
+            line.get(buffer, length, to - from);
+            return append(to - from);
+        }
+
+        /**
+         * Adds all the strings of a list, copying their bytes without decoding them
+         * @param list a list
+         * @return this builder
+         */
+        Builder addAll(CompactStringList list) {
+            int size = list.size();
+            reserve(list.bytes.length, size);
+            System.arraycopy(list.bytes, 0, buffer, length, list.bytes.length);
+            for (int i = 0; i < size; i++) {
+                starts[count++] = length + list.offsets[i];
+            }
+            length += list.bytes.length;
+            starts[count] = length;
+            return this;
+        }
+
+        private void reserve(int size, int strings) {
+            if (length + size > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + size));
+            }
+            //one extra slot for the end of the last string
+            if (count + strings + 1 > starts.length) {
+                starts = Arrays.copyOf(starts, Math.max(starts.length * 2, count + strings + 1));
+            }
+        }
+
+        private Builder append(int size) {
+            starts[count++] = length;
+            length += size;
+            starts[count] = length;
+            return this;
+        }
+
+        CompactStringList build() {
+            if (count == 0) {
+                return EMPTY;
+            }
+            //sorts the indexes of the strings, kept in a primitive array
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            sort(order, new int[count], 0, count);
+
+            byte[] bytes = new byte[length];
+            int[] offsets = new int[count + 1];
+            int size = 0;
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                int index = order[i];
+                int from = starts[index];
+                int to = starts[index + 1];
+                if (size > 0 && compare(bytes, offsets[size - 1], position, buffer, from, to) == 0) {
+                    continue;
+                }
+                System.arraycopy(buffer, from, bytes, position, to - from);
+                offsets[size++] = position;
+                position += to - from;
+            }
+            offsets[size] = position;
+            return new CompactStringList(
+                    position == bytes.length ? bytes : Arrays.copyOf(bytes, position),
+                    size == count ? offsets : Arrays.copyOf(offsets, size + 1));
+        }
+
+        /**
+         * Merge sort of the indexes in [from, to), using the same range of scratch.
+         * Sorted runs, as in sorted files or merged lists, are detected and not merged again.
+         */
+        private void sort(int[] order, int[] scratch, int from, int to) {
+            if (to - from <= INSERTION_SORT_THRESHOLD) {
+                for (int i = from + 1; i < to; i++) {
+                    int index = order[i];
+                    int j = i;
+                    while (j > from && compareStrings(order[j - 1], index) > 0) {
+                        order[j] = order[j - 1];
+                        j--;
+                    }
+                    order[j] = index;
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            sort(order, scratch, from, middle);
+            sort(order, scratch, middle, to);
+            if (compareStrings(order[middle - 1], order[middle]) <= 0) {
+                return;
+            }
+            System.arraycopy(order, from, scratch, from, to - from);
+            int left = from;
+            int right = middle;
+            for (int i = from; i < to; i++) {
+                if (right == to || (left < middle && compareStrings(scratch[left], scratch[right]) <= 0)) {
+                    order[i] = scratch[left++];
+                } else {
+                    order[i] = scratch[right++];
+                }
+            }
+        }
+
+        private int compareStrings(int x, int y) {
+            return compare(buffer, starts[x], starts[x + 1], buffer, starts[y], starts[y + 1]);
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.storage;
+
+import com.aodocs.endpoints.util.RefreshScheduler;
+import com.google.cloud.datastore.Datastore;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes together the {@link DatastoreStringListSupplier}s sharing a Datastore client and a TTL.
+ * The first member to refresh starts a round, that runs the queries of all members concurrently.
+ * The other members then use the result of this round when they refresh shortly after, instead of querying.
+ * Members join the group on their first refresh, and are not kept alive by the group or its rounds.
+ */
+final class DatastoreRefreshGroup {
+
+    //groups by TTL, for each Datastore client still in use
+    private static final LoadingCache<Datastore, ConcurrentMap<Integer, DatastoreRefreshGroup>> GROUPS =
+            CacheBuilder.newBuilder().weakKeys().build(CacheLoader.from(() -> new ConcurrentHashMap<>()));
+
+    static DatastoreRefreshGroup get(Datastore datastore, int ttlInSeconds) {
+        return GROUPS.getUnchecked(datastore).computeIfAbsent(ttlInSeconds,
+                key -> new DatastoreRefreshGroup(ttlInSeconds, RefreshScheduler.getShared(), Ticker.systemTicker()));
+    }
+
+    private final Set<DatastoreStringListSupplier> members = Collections.newSetFromMap(new WeakHashMap<>());
+    //results of a round are used by members refreshing within this delay, a fifth of the TTL
+    private final long maxRoundAgeNanos;
+    private final Executor executor;
+    private final Ticker ticker;
+    private Round round;
+
+    DatastoreRefreshGroup(int ttlInSeconds, Executor executor, Ticker ticker) {
+        this.maxRoundAgeNanos = TimeUnit.SECONDS.toNanos(ttlInSeconds) / 5;
+        this.executor = executor;
+        this.ticker = ticker;
+    }
+
+    /**
+     * Registers the member if needed, once fully constructed, so that it is only queried by rounds afterwards.
+     *
+     * @param member a member of the group
+     * @return the ids of the member, from the current round if it was not used yet, or from a new round
+     */
+    List<String> load(DatastoreStringListSupplier member) {
+        Round current;
+        synchronized (this) {
+            members.add(member);
+            current = round;
+            if (current == null || !current.isAvailableFor(member) || ticker.read() - current.startedAtNanos > maxRoundAgeNanos) {
+                current = new Round(members, ticker.read());
+                round = current;
+                current.start(executor, member);
+            }
+            current.consumed.add(member);
+        }
+        return current.get(member);
+    }
+
+    /**
+     * Waits for the queries of the current round to complete, if any.
+     */
+    @VisibleForTesting
+    void awaitRound() {
+        Round current;
+        synchronized (this) {
+            current = round;
+        }
+        if (current != null) {
+            current.await();
+        }
+    }
+
+    private static final class Round {
+        private final long startedAtNanos;
+        //the tasks only hold weak references to the members
+        private final Map<DatastoreStringListSupplier, FutureTask<List<String>>> tasks =
+                Collections.synchronizedMap(new WeakHashMap<>());
+        private final Set<DatastoreStringListSupplier> consumed =
+                Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
+
+        private Round(Set<DatastoreStringListSupplier> members, long startedAtNanos) {
+            this.startedAtNanos = startedAtNanos;
+            for (DatastoreStringListSupplier member : members) {
+                WeakReference<DatastoreStringListSupplier> reference = new WeakReference<>(member);
+                tasks.put(member, new FutureTask<>(() -> {
+                    DatastoreStringListSupplier referent = reference.get();
+                    return referent != null ? referent.loadIds() : ImmutableList.of();
+                }));
+            }
+        }
+
+        private void start(Executor executor, DatastoreStringListSupplier caller) {
+            List<FutureTask<List<String>>> others = new ArrayList<>();
+            synchronized (tasks) {
+                //the caller runs its own query
+                tasks.forEach((member, task) -> {
+                    if (member != caller) {
+                        others.add(task);
+                    }
+                });
+            }
+            for (FutureTask<List<String>> task : others) {
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    //the member runs its query itself when it refreshes
+                }
+            }
+        }
+
+        //runs or waits for all the tasks
+        private void await() {
+            List<FutureTask<List<String>>> all;
+            synchronized (tasks) {
+                all = new ArrayList<>(tasks.values());
+            }
+            for (FutureTask<List<String>> task : all) {
+                task.run();
+                try {
+                    task.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    //reported to the member
+                }
+            }
+        }
+
+        private boolean isAvailableFor(DatastoreStringListSupplier member) {
+            return tasks.containsKey(member) && !consumed.contains(member);
+        }
+
+        private List<String> get(DatastoreStringListSupplier member) {
+            FutureTask<List<String>> task = tasks.get(member);
+            //does nothing if already started, so a round never waits for a queued task
+            task.run();
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                Throwables.throwIfUnchecked(e.getCause());
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+}
@@ -23,29 +23,51 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.cloud.Timestamp;
 import com.google.cloud.datastore.*;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Suppliers;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
+import com.google.datastore.v1.QueryResultBatch;
 import lombok.Builder;
 import lombok.Getter;
+import lombok.extern.java.Log;
 
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
 /**
  * Loads a string list from the ids of a kind of entity in the namespace.
+ *
+ * By default, a single query returns at most {@code limit} ids (100 if not set).
+ * With a {@code pageSize}, ids are read page by page with query cursors, up to {@code limit} if set.
+ *
+ * With an {@code updatedProperty}, the list is loaded incrementally: after the first load, a refresh only reads
+ * the entities whose timestamp property is later than the last one seen, and merges them in.
+ * Entities without this property are ignored. Entities are removed from the list when their boolean
+ * {@code deletedProperty} is true, deleting an entity is not detected in this mode.
+ *
+ * Suppliers created without a client share a single one. Suppliers sharing a client and a TTL are refreshed
+ * together, see {@link DatastoreRefreshGroup}.
  */
+@Log
 @JsonInclude(JsonInclude.Include.NON_DEFAULT)
 public class DatastoreStringListSupplier extends AsyncRefreshCachingStringListSupplier {
 
-    private static Supplier<Datastore> defaultSupplier() {
-        return Suppliers.memoize(() -> DatastoreOptions.getDefaultInstance().getService());
-    }
+    private static final int DEFAULT_LIMIT = 100;
+    //entities written with a clock slightly behind are still read by the next refresh
+    private static final long INCREMENTAL_OVERLAP_MICROSECONDS = TimeUnit.MINUTES.toMicros(1);
+
+    private static final Supplier<Datastore> SHARED_DATASTORE =
+            Suppliers.memoize(() -> DatastoreOptions.getDefaultInstance().getService());
 
     private final Datastore datastore;
+    private final DatastoreRefreshGroup group;
     @JsonIgnore
     @Getter
     private final KeyQuery query;
@@ -57,27 +79,159 @@ public class DatastoreStringListSupplier extends AsyncRefreshCachingStringListSu
     @JsonProperty("datastoreEntity")
     private final String kind;
 
+    @JsonProperty
+    private final Integer limit;
+    @JsonProperty
+    private final Integer pageSize;
+    @JsonProperty
+    private final String updatedProperty;
+    @JsonProperty
+    private final String deletedProperty;
+
+    //state of the incremental mode, only used by refreshes
+    private volatile Incremental incremental;
+
     @JsonCreator
     DatastoreStringListSupplier(@JsonProperty("datastoreEntity") String kind, @JsonProperty String namespace,
-            @JsonProperty Integer limit, @JsonProperty Integer ttlInSeconds) {
-        this(kind, namespace, limit, ttlInSeconds, DatastoreOptions.getDefaultInstance().getService());
+            @JsonProperty Integer limit, @JsonProperty Integer ttlInSeconds,
+            @JsonProperty Integer minTtlInSeconds, @JsonProperty Double refreshJitter,
+            @JsonProperty Integer pageSize, @JsonProperty String updatedProperty, @JsonProperty String deletedProperty) {
+        this(kind, namespace, limit, ttlInSeconds, minTtlInSeconds, refreshJitter,
+                pageSize, updatedProperty, deletedProperty, null);
     }
 
 
     @Builder
-    DatastoreStringListSupplier(String kind, String namespace, Integer limit, Integer ttlInSeconds, Datastore datastore) {
-        super(ttlInSeconds);
+    DatastoreStringListSupplier(String kind, String namespace, Integer limit, Integer ttlInSeconds,
+            Integer minTtlInSeconds, Double refreshJitter,
+            Integer pageSize, String updatedProperty, String deletedProperty, Datastore datastore) {
+        super(ttlInSeconds, minTtlInSeconds, refreshJitter);
+        Preconditions.checkArgument(pageSize == null || pageSize > 0, "pageSize must be positive");
+        Preconditions.checkArgument(deletedProperty == null || updatedProperty != null,
+                "deletedProperty requires an updatedProperty");
         this.kind = Preconditions.checkNotNull(kind);
         this.namespace = namespace;
-        this.datastore = datastore;
-        this.query = Query.newKeyQueryBuilder().setKind(kind).setNamespace(namespace)
-                .setLimit(Optional.ofNullable(limit).orElse(100)).build();
+        this.limit = limit;
+        this.pageSize = pageSize;
+        this.updatedProperty = updatedProperty;
+        this.deletedProperty = deletedProperty;
+        this.datastore = datastore != null ? datastore : SHARED_DATASTORE.get();
+        this.group = DatastoreRefreshGroup.get(this.datastore, getTtlInSeconds());
+        KeyQuery.Builder builder = Query.newKeyQueryBuilder().setKind(kind).setNamespace(namespace);
+        if (pageSize == null) {
+            builder.setLimit(Optional.ofNullable(limit).orElse(DEFAULT_LIMIT));
+        }
+        this.query = builder.build();
     }
 
     @Override
     protected List<String> getUncached() {
+        return group.load(this);
+    }
+
+    @Override
+    protected String snapshotKey() {
+        return "datastore:" + datastore.getOptions().getProjectId() + "/" + namespace + "/" + kind
+                + "?limit=" + limit + "&pageSize=" + pageSize
+                + "&updatedProperty=" + updatedProperty + "&deletedProperty=" + deletedProperty;
+    }
+
+    /**
+     * Runs the queries, called by the refresh group
+     */
+    List<String> loadIds() {
+        if (updatedProperty != null) {
+            return getIncremental();
+        }
+        ImmutableList.Builder<String> ids = ImmutableList.builder();
+        if (pageSize != null) {
+            runPaged(query.toBuilder(), key -> ids.add(getId(key)));
+            return ids.build();
+        }
         QueryResults<Key> results = datastore.run(query);
-        return Lists.newArrayList(results).stream()
-                .map(input -> input.getNameOrId().toString()).collect(Collectors.toList());
+        int count = 0;
+        while (results.hasNext()) {
+            ids.add(getId(results.next()));
+            count++;
+        }
+        if (count == query.getLimit()) {
+            log.warning("Loaded " + count + " ids from " + kind + ", the list may be truncated, set a pageSize to load all of them");
+        }
+        return ids.build();
+    }
+
+    private List<String> getIncremental() {
+        Incremental previous = incremental;
+        EntityQuery.Builder builder = Query.newEntityQueryBuilder().setKind(kind).setNamespace(namespace)
+                .setOrderBy(StructuredQuery.OrderBy.asc(updatedProperty));
+        if (previous != null) {
+            builder.setFilter(StructuredQuery.PropertyFilter.ge(updatedProperty, previous.since()));
+        }
+        Set<String> ids = previous != null ? new LinkedHashSet<>(previous.ids) : new LinkedHashSet<>();
+        Timestamp[] lastUpdated = {previous != null ? previous.lastUpdated : null};
+        boolean[] changed = {previous == null};
+        runPaged(builder, entity -> {
+            String id = getId(entity.getKey());
+            boolean deleted = deletedProperty != null && entity.contains(deletedProperty)
+                    && entity.getBoolean(deletedProperty);
+            changed[0] |= deleted ? ids.remove(id) : ids.add(id);
+            Timestamp updated = entity.getTimestamp(updatedProperty);
+            if (lastUpdated[0] == null || updated.compareTo(lastUpdated[0]) > 0) {
+                lastUpdated[0] = updated;
+            }
+        });
+        //an unchanged list keeps its instance, so nothing is rebuilt
+        ImmutableList<String> result = changed[0] ? ImmutableList.copyOf(ids) : previous.ids;
+        incremental = new Incremental(result, lastUpdated[0]);
+        return result;
+    }
+
+    /**
+     * Runs the query by pages of {@code pageSize}, or in a single page, until {@code limit} results are read.
+     */
+    private <V> void runPaged(StructuredQuery.Builder<V> builder, Consumer<V> consumer) {
+        int remaining = Optional.ofNullable(limit).orElse(Integer.MAX_VALUE);
+        int size = Optional.ofNullable(pageSize).orElse(Integer.MAX_VALUE);
+        Cursor cursor = null;
+        while (remaining > 0) {
+            builder.setLimit(Math.min(size, remaining));
+            if (cursor != null) {
+                builder.setStartCursor(cursor);
+            }
+            QueryResults<V> results = datastore.run(builder.build());
+            int count = 0;
+            while (results.hasNext()) {
+                consumer.accept(results.next());
+                count++;
+            }
+            remaining -= count;
+            if (count == 0 || results.getMoreResults() == QueryResultBatch.MoreResultsType.NO_MORE_RESULTS) {
+                return;
+            }
+            cursor = results.getCursorAfter();
+        }
+    }
+
+    private static String getId(Key key) {
+        return key.getNameOrId().toString();
+    }
+
+    private static final class Incremental {
+        private final ImmutableList<String> ids;
+        private final Timestamp lastUpdated;
+
+        private Incremental(ImmutableList<String> ids, Timestamp lastUpdated) {
+            this.ids = ids;
+            this.lastUpdated = lastUpdated;
+        }
+
+        private Timestamp since() {
+            if (lastUpdated == null) {
+                return Timestamp.MIN_VALUE;
+            }
+            long micros = Math.max(lastUpdated.getSeconds() * 1_000_000 + lastUpdated.getNanos() / 1000
+                    - INCREMENTAL_OVERLAP_MICROSECONDS, Timestamp.MIN_VALUE.getSeconds() * 1_000_000);
+            return Timestamp.ofTimeMicroseconds(micros);
+        }
     }
 }
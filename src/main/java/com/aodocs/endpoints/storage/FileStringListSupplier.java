@@ -0,0 +1,193 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.storage;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import lombok.Value;
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Loads a string list from a local file, for example mounted from a config volume.
+ * The file is reloaded as soon as it changes, once writes have stopped for {@code debounceMillis},
+ * and the new list replaces the previous one atomically. If the file cannot be read, the previous list is kept.
+ * <p>
+ * With {@code memoryMapped}, the file is read through a memory mapping into a {@link CompactStringList}:
+ * the bytes of each cleaned line are copied from the mapping into the list builder, without decoding lines
+ * to {@link String}. The heap peak is about twice the size of the cleaned content, while the builder sorts it;
+ * the file itself is never read on the heap.
+ * <p>
+ * Relies on {@link java.nio.file.WatchService}, not available on App Engine standard.
+ */
+@Log
+@JsonInclude(JsonInclude.Include.NON_DEFAULT)
+public class FileStringListSupplier extends StringListSupplier implements Closeable {
+
+    public static final int DEFAULT_DEBOUNCE_MILLIS = 500;
+
+    //used for serialization only
+    @JsonProperty
+    private final String filePath;
+    @JsonProperty
+    private final int debounceMillis;
+    @JsonProperty
+    private final boolean memoryMapped;
+
+    private final Path path;
+    private final FileWatcher.Registration registration;
+    private volatile Loaded loaded;
+
+    //used to define defaults for serialization
+    private FileStringListSupplier() {
+        this.filePath = null;
+        this.debounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+        this.memoryMapped = false;
+        this.path = null;
+        this.registration = null;
+    }
+
+    public FileStringListSupplier(String filePath) {
+        this(filePath, null, false);
+    }
+
+    @JsonCreator
+    public FileStringListSupplier(@JsonProperty("filePath") String filePath, @JsonProperty("debounceMillis") Integer debounceMillis,
+                                  @JsonProperty("memoryMapped") boolean memoryMapped) {
+        this.filePath = Preconditions.checkNotNull(filePath);
+        this.debounceMillis = MoreObjects.firstNonNull(debounceMillis, DEFAULT_DEBOUNCE_MILLIS);
+        Preconditions.checkArgument(this.debounceMillis >= 0, "debounceMillis must not be negative");
+        this.memoryMapped = memoryMapped;
+        this.path = Paths.get(filePath);
+        try {
+            //watched first, so a change made during the first load is not missed
+            //only held weakly by the watcher, so that a supplier discarded without being closed stops being watched
+            this.registration = FileWatcher.getShared().register(path, this.debounceMillis, this,
+                    FileStringListSupplier::reload);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot watch " + filePath, e);
+        }
+        try {
+            loadIfChanged();
+        } catch (IOException e) {
+            registration.close();
+            throw new IllegalArgumentException("Cannot load " + filePath, e);
+        }
+    }
+
+    @Override
+    protected List<String> getRaw() {
+        return loaded.getLines();
+    }
+
+    /**
+     * Stops watching the file, the last loaded list is still supplied
+     */
+    @Override
+    public void close() {
+        registration.close();
+    }
+
+    private void reload() {
+        try {
+            if (loadIfChanged()) {
+                log.info("Reloaded " + filePath + ", " + loaded.getLines().size() + " lines");
+            }
+        } catch (IOException e) {
+            //can happen while the file is being replaced, a later event reloads it
+            log.log(Level.WARNING, "Cannot reload " + filePath + ", keeping the previous list", e);
+        }
+    }
+
+    /**
+     * Called by the constructor and the watcher, which can run at the same time on the first load
+     * @return true if the file was loaded
+     */
+    private synchronized boolean loadIfChanged() throws IOException {
+        FileVersion version = readVersion();
+        if (loaded != null && version.equals(loaded.getVersion())) {
+            return false;
+        }
+        Loaded reloaded = load(version);
+        prepareSnapshot(reloaded.getLines());
+        loaded = reloaded;
+        return true;
+    }
+
+    private FileVersion readVersion() throws IOException {
+        //follows symbolic links, to see the target of a swapped link
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return new FileVersion(attributes.fileKey(), attributes.lastModifiedTime(), attributes.size());
+    }
+
+    private Loaded load(FileVersion version) throws IOException {
+        List<String> lines = memoryMapped ? readMapped(path)
+                : Collections.unmodifiableList(Files.readAllLines(path, StandardCharsets.UTF_8));
+        return new Loaded(version, lines);
+    }
+
+    static CompactStringList readMapped(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Preconditions.checkArgument(channel.size() <= Integer.MAX_VALUE, "File too large to map: " + path);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CompactStringList.Builder builder = new CompactStringList.Builder();
+            int start = 0;
+            for (int i = 0; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    builder.addCleanedLine(buffer, start, i);
+                    start = i + 1;
+                }
+            }
+            builder.addCleanedLine(buffer, start, buffer.limit());
+            return builder.build();
+        }
+    }
+
+    @Value
+    private static class FileVersion {
+        Object fileKey;
+        FileTime lastModified;
+        long size;
+    }
+
+    @Value
+    private static class Loaded {
+        FileVersion version;
+        List<String> lines;
+    }
+
+}
@@ -0,0 +1,227 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.storage;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Suppliers;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Watches directories of the default file system with a single {@link WatchService} and thread,
+ * and notifies the registrations of a directory after any change in it, once writes have stopped for their debounce delay.
+ * Registrations must check themselves if their file changed: symbolic link swaps (as done by Kubernetes for mounted
+ * config maps) do not report the name of the file.
+ * Registrations only hold their owner weakly, and are closed once it is garbage collected. A directory stops being
+ * watched when its last registration is closed.
+ */
+@Log
+final class FileWatcher {
+
+    private static final Supplier<FileWatcher> SHARED = Suppliers.memoize(FileWatcher::new);
+    //delay after which registrations of collected owners are closed, when no change wakes up the watcher
+    private static final long EXPUNGE_INTERVAL_SECONDS = 60;
+
+    static FileWatcher getShared() {
+        return SHARED.get();
+    }
+
+    private final WatchService watchService;
+    private final ScheduledExecutorService debouncer;
+    //guarded by this
+    private final Map<Path, WatchedDirectory> directories = new HashMap<>();
+    private final ReferenceQueue<Object> collectedOwners = new ReferenceQueue<>();
+
+    private FileWatcher() {
+        try {
+            this.watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("file-watcher-%d").setDaemon(true).build();
+        this.debouncer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        threadFactory.newThread(this::watch).start();
+    }
+
+    /**
+     * @param file the file to watch
+     * @param debounceMillis delay without change before notifying
+     * @param owner held weakly, the registration is closed once it is garbage collected
+     * @param onChange called with the owner on the debouncer thread, never concurrently; must not hold the owner
+     * @return the registration, to close when the file is no longer watched
+     */
+    <T> Registration register(Path file, long debounceMillis, T owner, Consumer<? super T> onChange) throws IOException {
+        expungeCollectedOwners();
+        Path directory = file.toAbsolutePath().getParent();
+        synchronized (this) {
+            WatchedDirectory watched = directories.get(directory);
+            if (watched == null) {
+                watched = new WatchedDirectory(directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE));
+                directories.put(directory, watched);
+            }
+            Registration registration = new Registration(directory, debounceMillis, owner, onChange);
+            watched.registrations.add(registration);
+            return registration;
+        }
+    }
+
+    @VisibleForTesting
+    synchronized boolean isWatched(Path directory) {
+        return directories.containsKey(directory.toAbsolutePath());
+    }
+
+    private synchronized void unregister(Registration registration) {
+        WatchedDirectory watched = directories.get(registration.directory);
+        if (watched != null && watched.registrations.remove(registration) && watched.registrations.isEmpty()) {
+            watched.key.cancel();
+            directories.remove(registration.directory);
+        }
+    }
+
+    @VisibleForTesting
+    void expungeCollectedOwners() {
+        Reference<?> collected;
+        while ((collected = collectedOwners.poll()) != null) {
+            Registration registration = ((OwnerReference) collected).registration;
+            log.fine("Closing the registration of a collected owner in " + registration.directory);
+            registration.close();
+        }
+    }
+
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.poll(EXPUNGE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            expungeCollectedOwners();
+            if (key == null) {
+                continue;
+            }
+            //overflow events included: registrations check their file anyway
+            key.pollEvents();
+            List<Registration> watching;
+            synchronized (this) {
+                WatchedDirectory watched = directories.get((Path) key.watchable());
+                watching = watched == null || watched.key != key
+                        ? Collections.emptyList() : new ArrayList<>(watched.registrations);
+            }
+            //notified without holding the lock, closing a registration takes it
+            watching.forEach(Registration::changed);
+            key.reset();
+        }
+    }
+
+    private static final class WatchedDirectory {
+        private final WatchKey key;
+        private final Set<Registration> registrations = new HashSet<>();
+
+        private WatchedDirectory(WatchKey key) {
+            this.key = key;
+        }
+    }
+
+    private static final class OwnerReference extends WeakReference<Object> {
+        private final Registration registration;
+
+        private OwnerReference(Object owner, ReferenceQueue<Object> queue, Registration registration) {
+            super(owner, queue);
+            this.registration = registration;
+        }
+    }
+
+    final class Registration implements Closeable {
+        private final Path directory;
+        private final long debounceMillis;
+        private final OwnerReference owner;
+        private final Consumer<Object> onChange;
+        private ScheduledFuture<?> pending;
+
+        @SuppressWarnings("unchecked")
+        private <T> Registration(Path directory, long debounceMillis, T owner, Consumer<? super T> onChange) {
+            this.directory = directory;
+            this.debounceMillis = debounceMillis;
+            this.owner = new OwnerReference(owner, collectedOwners, this);
+            this.onChange = (Consumer<Object>) onChange;
+        }
+
+        private synchronized void changed() {
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            pending = debouncer.schedule(this::notifyChange, debounceMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void notifyChange() {
+            Object current = owner.get();
+            if (current == null) {
+                close();
+                return;
+            }
+            try {
+                onChange.accept(current);
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Cannot reload after a change in " + directory, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (pending != null) {
+                    pending.cancel(false);
+                }
+            }
+            unregister(this);
+        }
+    }
+
+}
@@ -24,29 +24,84 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.collect.ImmutableList;
 import lombok.NonNull;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.function.Supplier;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 /**
  * Merges multiple list suppliers into one. Can be useful to load from a "static" list of values
  * (for example from the Classpath) and a dynamic one (Cloud Storage or Datastore).
+ * Duplicate values are removed. The merged list is kept, and only merged again when one of the lists changes.
+ * When every list is a {@link CompactStringList}, the merged list is one too, sorted, and built without decoding values.
  */
 public class MergingStringListSupplier extends StringListSupplier {
 
     @JsonProperty("merge")
     private final ImmutableList<StringListSupplier> suppliers;
 
+    private volatile Merged merged;
+
     @JsonCreator
     public MergingStringListSupplier(@NonNull StringListSupplier... suppliers) {
         this.suppliers = ImmutableList.copyOf(suppliers);
     }
 
     protected List<String> getRaw() {
-        return suppliers.stream()
-                .map(Supplier::get)
-                .flatMap(Collection::stream)
-                .collect(Collectors.toList());
+        Merged current = merged;
+        if (current != null && current.isUpToDate(suppliers)) {
+            return current.values;
+        }
+        synchronized (this) {
+            current = merged;
+            if (current == null || !current.isUpToDate(suppliers)) {
+                current = merge();
+                merged = current;
+            }
+            return current.values;
+        }
+    }
+
+    private Merged merge() {
+        long[] versions = new long[suppliers.size()];
+        List<List<String>> lists = new ArrayList<>(versions.length);
+        boolean compact = true;
+        for (int i = 0; i < versions.length; i++) {
+            StringListSupplier supplier = suppliers.get(i);
+            //read the version first, a concurrent change is then detected on the next call
+            versions[i] = supplier.snapshotVersion();
+            List<String> list = supplier.get();
+            lists.add(list);
+            compact &= list instanceof CompactStringList;
+        }
+        if (compact) {
+            CompactStringList.Builder builder = new CompactStringList.Builder();
+            for (List<String> list : lists) {
+                builder.addAll((CompactStringList) list);
+            }
+            return new Merged(versions, builder.build());
+        }
+        Set<String> values = new LinkedHashSet<>();
+        lists.forEach(values::addAll);
+        return new Merged(versions, ImmutableList.copyOf(values));
+    }
+
+    private static final class Merged {
+        private final long[] versions;
+        private final List<String> values;
+
+        private Merged(long[] versions, List<String> values) {
+            this.versions = versions;
+            this.values = values;
+        }
+
+        private boolean isUpToDate(List<StringListSupplier> suppliers) {
+            for (int i = 0; i < versions.length; i++) {
+                if (suppliers.get(i).snapshotVersion() != versions[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 }
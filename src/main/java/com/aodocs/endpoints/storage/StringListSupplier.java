@@ -19,23 +19,134 @@
  */
 package com.aodocs.endpoints.storage;
 
-import java.util.Collections;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonSetter;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
 /**
  * Common abstraction for String list suppliers, that cleans up before supplying the list
  * - comments are removed
  * - empty / blank lines are removed
+ * The cleaned list is computed once per raw list, and supplied as an immutable snapshot, built by the loading
+ * thread when the implementation calls {@link #prepareSnapshot(List)}, on first use otherwise.
+ * Membership checks should use {@link #contains(String)}, backed by a hash set built with the snapshot.
+ * A raw {@link CompactStringList} is considered already cleaned: it is supplied as is, and searched directly.
+ * With a {@code bloomFilterFpp}, membership checks first consult a Bloom filter built with the snapshot, so that
+ * the mostly negative checks against large deny lists do not touch the exact set.
  */
 public abstract class StringListSupplier implements Supplier<List<String>> {
 
+    private volatile Snapshot snapshot;
+    //built by the loading thread, and supplied once getRaw() returns its raw list
+    private volatile Snapshot prepared;
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private volatile Double bloomFilterFpp;
+
     @Override
     public final List<String> get() {
-        return clean(getRaw());
+        return getSnapshot().cleaned;
+    }
+
+    /**
+     * @return true if the cleaned list contains the value, in constant time
+     */
+    public final boolean contains(String value) {
+        return value != null && getSnapshot().contains(value);
+    }
+
+    /**
+     * Enables a Bloom filter in front of membership checks, for large lists mostly checked for absent values.
+     *
+     * @param falsePositiveRate the expected rate of checks going through the filter for an absent value
+     * @return this supplier
+     */
+    public final StringListSupplier withBloomFilter(double falsePositiveRate) {
+        Preconditions.checkArgument(falsePositiveRate > 0 && falsePositiveRate < 1,
+                "false positive rate must be in (0, 1)");
+        this.bloomFilterFpp = falsePositiveRate;
+        return this;
     }
 
+    //used for deserialization only, validated as withBloomFilter
+    @JsonSetter("bloomFilterFpp")
+    private void setBloomFilterFpp(Double falsePositiveRate) {
+        if (falsePositiveRate != null) {
+            withBloomFilter(falsePositiveRate);
+        }
+    }
+
+    /**
+     * For a {@link CompactStringList}, this copies the whole list: prefer {@link #contains(String)} or {@link #get()}.
+     *
+     * @return the cleaned values as an immutable set
+     */
+    public final ImmutableSet<String> asSet() {
+        return getSnapshot().getSet();
+    }
+
+    /**
+     * @return a number incremented each time the cleaned list changes, to detect changes without comparing lists
+     */
+    public final long snapshotVersion() {
+        return getSnapshot().version;
+    }
+
+    private Snapshot getSnapshot() {
+        List<String> raw = getRaw();
+        Double fpp = bloomFilterFpp;
+        Snapshot current = snapshot;
+        if (current != null && current.isFor(raw, fpp)) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            if (current != null && current.isFor(raw, fpp)) {
+                return current;
+            }
+            Snapshot next = prepared;
+            if (next == null || !next.isFor(raw, fpp)) {
+                next = createSnapshot(raw, fpp, current);
+            }
+            snapshot = next;
+            return next;
+        }
+    }
+
+    /**
+     * Builds the snapshot of a raw list before it is supplied by {@link #getRaw()}, so that requests do not
+     * build it. Meant to be called by the thread loading the list.
+     * A list equal to the current one is ignored, as the previous instance is expected to be kept.
+     *
+     * @param raw the list that {@link #getRaw()} is about to return
+     */
+    protected final synchronized void prepareSnapshot(List<String> raw) {
+        Snapshot current = snapshot;
+        if (current == null || !Objects.equals(current.raw, raw)) {
+            prepared = createSnapshot(raw, bloomFilterFpp, current);
+        }
+    }
+
+    private static Snapshot createSnapshot(List<String> raw, Double fpp, Snapshot current) {
+        long version = current == null ? 1 : current.raw == raw ? current.version : current.version + 1;
+        return new Snapshot(raw, clean(raw), fpp, version);
+    }
+
+    /**
+     * The cleaned list is only computed again when this method returns a different instance,
+     * so implementations must not modify a list once returned.
+     *
+     * @return the lines to clean
+     */
     protected abstract List<String> getRaw();
 
     /**
@@ -43,16 +154,72 @@ public abstract class StringListSupplier implements Supplier<List<String>> {
      * @param lines the lines
      * @return the cleaned lines
      */
-    private List<String> clean(List<String> lines) {
+    private static List<String> clean(List<String> lines) {
         if (lines == null) {
-            return Collections.emptyList();
+            return ImmutableList.of();
+        }
+        if (lines instanceof CompactStringList) {
+            return lines;
         }
         
-        return lines.stream().map(input -> {
-            int commentIndex = input.indexOf("#");
-            String noComment = commentIndex != -1 ? input.substring(0, commentIndex) : input;
-            return noComment.trim();
-        }).filter(input -> !input.isEmpty()).collect(Collectors.toList());
+        return lines.stream().map(StringListSupplier::cleanLine)
+                .filter(input -> !input.isEmpty()).collect(ImmutableList.toImmutableList());
+    }
+
+    /**
+     * @param line a line
+     * @return the line without comment and trimmed, empty if nothing remains
+     */
+    static String cleanLine(String line) {
+        int commentIndex = line.indexOf('#');
+        String noComment = commentIndex != -1 ? line.substring(0, commentIndex) : line;
+        return noComment.trim();
+    }
+
+    /**
+     * Immutable once built: the set and the Bloom filter are built with the cleaned list.
+     */
+    private static final class Snapshot {
+        private final List<String> raw;
+        private final List<String> cleaned;
+        private final long version;
+        private final Double bloomFilterFpp;
+        //null for a CompactStringList, which is searched directly
+        private final ImmutableSet<String> set;
+        private final BloomFilter<CharSequence> filter;
+
+        private Snapshot(List<String> raw, List<String> cleaned, Double bloomFilterFpp, long version) {
+            this.raw = raw;
+            this.cleaned = cleaned;
+            this.version = version;
+            this.bloomFilterFpp = bloomFilterFpp;
+            this.set = cleaned instanceof CompactStringList ? null : ImmutableSet.copyOf(cleaned);
+            this.filter = bloomFilterFpp != null ? createFilter(cleaned, bloomFilterFpp) : null;
+        }
+
+        private boolean isFor(List<String> raw, Double bloomFilterFpp) {
+            return this.raw == raw && Objects.equals(this.bloomFilterFpp, bloomFilterFpp);
+        }
+
+        private boolean contains(String value) {
+            if (filter != null && !filter.mightContain(value)) {
+                return false;
+            }
+            return set != null ? set.contains(value) : cleaned.contains(value);
+        }
+
+        private ImmutableSet<String> getSet() {
+            return set != null ? set : ImmutableSet.copyOf(cleaned);
+        }
+
+        private static BloomFilter<CharSequence> createFilter(List<String> values, double fpp) {
+            BloomFilter<CharSequence> filter = BloomFilter.create(Funnels.unencodedCharsFunnel(),
+                    Math.max(values.size(), 1), fpp);
+            for (String value : values) {
+                filter.put(value);
+            }
+            return filter;
+        }
     }
 
 }
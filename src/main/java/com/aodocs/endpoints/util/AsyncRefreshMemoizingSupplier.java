@@ -19,41 +19,65 @@
  */
 package com.aodocs.endpoints.util;
 
-import com.aodocs.endpoints.context.AppengineHelper;
+import com.aodocs.endpoints.util.cache.SnapshotStore;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Ticker;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.util.concurrent.MoreExecutors;
 
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 /**
  * A supplier with memoization. On memoized value expiration, the new value is refreshed acynchronously.
+ * Refreshes run on the process-wide {@link RefreshScheduler}, and a refresh is never started twice concurrently
+ * for the same supplier.
+ * The refresh interval is defined by a {@link RefreshPolicy}: content is compared with {@link Object#equals(Object)}
+ * to adapt the interval, so values should implement it.
+ * With a {@link SnapshotStore}, the first value is read from the last snapshot if available, and refreshed at once
+ * in the background; loaded values are then written back to the store. A snapshot value is served only until it
+ * reaches the store's maximum staleness: past that, if no refresh succeeded, the next call loads a value synchronously.
  *
  * This supplier does not work on frontend instances of appengine due to usage of background thread to refresh the cache.
  */
 public class AsyncRefreshMemoizingSupplier<T> implements Supplier<T> {
 
 
+    /**
+     * @return a supplier refreshed every TTL, shortened by {@link RefreshPolicy#DEFAULT_JITTER}
+     */
     public static <T> AsyncRefreshMemoizingSupplier<T> create(int ttlInSeconds, final Supplier<T> supplier) {
-        if (AppengineHelper.isRunningOnAppengineStandard())  {
-            return new AsyncRefreshMemoizingSupplier<T>(ttlInSeconds, supplier, MoreExecutors.platformThreadFactory());
-        }
-        return new AsyncRefreshMemoizingSupplier<T>(ttlInSeconds, supplier, Executors.defaultThreadFactory());
+        return create(RefreshPolicy.fixed(ttlInSeconds).withJitter(RefreshPolicy.DEFAULT_JITTER), supplier);
+    }
+
+    public static <T> AsyncRefreshMemoizingSupplier<T> create(RefreshPolicy policy, final Supplier<T> supplier) {
+        return new AsyncRefreshMemoizingSupplier<T>(policy, supplier, RefreshScheduler.getShared(), Ticker.systemTicker());
+    }
+
+    /**
+     * @param snapshotKey identifies the value in the default {@link SnapshotStore}, used only if it is enabled
+     * @param codec writes and reads the value
+     */
+    public static <T> AsyncRefreshMemoizingSupplier<T> create(RefreshPolicy policy, final Supplier<T> supplier,
+                                                              String snapshotKey, SnapshotStore.Codec<T> codec) {
+        return new AsyncRefreshMemoizingSupplier<T>(policy, supplier, RefreshScheduler.getShared(), Ticker.systemTicker(),
+                SnapshotStore.getDefault().map(store -> new Persistence<>(store, snapshotKey, codec)).orElse(null));
     }
 
-    private final LoadingCache<String, T> cache;
+    private final RefreshPolicy policy;
+    private final Supplier<T> supplier;
+    private final RefreshScheduler scheduler;
+    private final Ticker ticker;
+    private final Persistence<T> persistence;
+
+    private volatile Entry<T> entry;
 
     /**
      *
      * @param ttlInSeconds time to live
      * @param supplier the value supplier
+     * @param threadFactory used by a scheduler dedicated to this supplier
      */
     AsyncRefreshMemoizingSupplier(int ttlInSeconds, final Supplier<T> supplier, ThreadFactory threadFactory) {
         this(ttlInSeconds, supplier, threadFactory, null);
@@ -61,32 +85,136 @@ public class AsyncRefreshMemoizingSupplier<T> implements Supplier<T> {
 
     @VisibleForTesting
     AsyncRefreshMemoizingSupplier(int ttlInSeconds, final Supplier<T> supplier, ThreadFactory threadFactory, Ticker ticker) {
-        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+        this(RefreshPolicy.fixed(ttlInSeconds), supplier, new RefreshScheduler(threadFactory, 1, 1),
+                ticker != null ? ticker : Ticker.systemTicker());
+    }
 
-        if (ticker != null) {
-            builder.ticker(ticker);
-        }
+    @VisibleForTesting
+    AsyncRefreshMemoizingSupplier(RefreshPolicy policy, final Supplier<T> supplier, RefreshScheduler scheduler, Ticker ticker) {
+        this(policy, supplier, scheduler, ticker, null);
+    }
 
-        Executor singleThreadedExecutor = runnable -> threadFactory.newThread(runnable).start();
-        this.cache = builder
-                .initialCapacity(1)
-                .refreshAfterWrite(ttlInSeconds, TimeUnit.SECONDS)
-                .build(
-                    CacheLoader.asyncReloading(
-                        new CacheLoader<String, T>() {
-                            @Override
-                            public T load(String key) {
-                                return supplier.get();
-                            }
-                        },
-                        singleThreadedExecutor
-                    )
-                );
+    @VisibleForTesting
+    AsyncRefreshMemoizingSupplier(RefreshPolicy policy, final Supplier<T> supplier, RefreshScheduler scheduler, Ticker ticker,
+                                  Persistence<T> persistence) {
+        this.policy = policy;
+        this.supplier = supplier;
+        this.scheduler = scheduler;
+        this.ticker = ticker;
+        this.persistence = persistence;
     }
 
     @Override
     public T get() {
-        return cache.getUnchecked("");
+        Entry<T> current = entry;
+        if (current == null || current.isStale(ticker.read())) {
+            return load();
+        }
+        if (ticker.read() - current.loadedAtNanos >= current.refreshAfterNanos) {
+            //the old value is returned until the refresh completes
+            scheduler.submit(this, this::refresh);
+        }
+        return current.value;
+    }
+
+    /**
+     * Loads the first value, or replaces a snapshot value too stale to be served, blocking the caller.
+     */
+    private synchronized T load() {
+        Entry<T> current = entry;
+        if (current == null || current.isStale(ticker.read())) {
+            long intervalNanos = policy.initialIntervalNanos();
+            Optional<SnapshotStore.Snapshot<T>> snapshot = current == null && persistence != null
+                    ? persistence.read() : Optional.empty();
+            if (snapshot.isPresent()) {
+                //due for refresh right away, and served only until it gets too stale
+                current = new Entry<>(snapshot.get().getValue(), ticker.read(), intervalNanos, 0,
+                        TimeUnit.MILLISECONDS.toNanos(persistence.getRemainingMillis()));
+                entry = current;
+                scheduler.submit(this, this::refresh);
+                return current.value;
+            }
+            //failures are thrown to the caller, rather than serving a stale snapshot
+            T value = supplier.get();
+            current = new Entry<>(value, ticker.read(), intervalNanos, policy.jittered(intervalNanos));
+            entry = current;
+            if (persistence != null) {
+                persistence.write(value);
+            }
+        }
+        return current.value;
+    }
+
+    private void refresh() {
+        Entry<T> previous = entry;
+        T value = supplier.get();
+        boolean changed = !Objects.equals(previous.value, value);
+        long intervalNanos = policy.nextIntervalNanos(previous.intervalNanos, changed);
+        //unchanged content keeps the previous instance, so identity-based caches downstream stay valid
+        entry = new Entry<>(changed ? value : previous.value, ticker.read(), intervalNanos, policy.jittered(intervalNanos));
+        if (persistence != null && (changed || persistence.isOld())) {
+            persistence.write(value);
+        }
+    }
+
+    /**
+     * Where the value is persisted, and when it was last written.
+     */
+    static final class Persistence<T> {
+        private final SnapshotStore store;
+        private final String key;
+        private final SnapshotStore.Codec<T> codec;
+        private volatile long writtenAtMillis;
+
+        Persistence(SnapshotStore store, String key, SnapshotStore.Codec<T> codec) {
+            this.store = store;
+            this.key = key;
+            this.codec = codec;
+        }
+
+        private Optional<SnapshotStore.Snapshot<T>> read() {
+            Optional<SnapshotStore.Snapshot<T>> snapshot = store.read(key, codec);
+            snapshot.ifPresent(value -> writtenAtMillis = value.getWrittenAtMillis());
+            return snapshot;
+        }
+
+        private void write(T value) {
+            store.write(key, value, codec).ifPresent(time -> writtenAtMillis = time);
+        }
+
+        private boolean isOld() {
+            return store.isDueForRewrite(writtenAtMillis);
+        }
+
+        private long getRemainingMillis() {
+            return store.getRemainingMillis(writtenAtMillis);
+        }
+    }
+
+    private static final class Entry<T> {
+        private final T value;
+        private final long loadedAtNanos;
+        //the interval chosen by the policy, and the same interval after jitter
+        private final long intervalNanos;
+        private final long refreshAfterNanos;
+        //how long a value read from a snapshot can be served, unlimited for loaded values
+        private final long staleAfterNanos;
+
+        private Entry(T value, long loadedAtNanos, long intervalNanos, long refreshAfterNanos) {
+            this(value, loadedAtNanos, intervalNanos, refreshAfterNanos, Long.MAX_VALUE);
+        }
+
+        private Entry(T value, long loadedAtNanos, long intervalNanos, long refreshAfterNanos, long staleAfterNanos) {
+            this.value = value;
+            this.loadedAtNanos = loadedAtNanos;
+            this.intervalNanos = intervalNanos;
+            this.refreshAfterNanos = refreshAfterNanos;
+            this.staleAfterNanos = staleAfterNanos;
+        }
+
+        private boolean isStale(long nowNanos) {
+            return nowNanos - loadedAtNanos >= staleAfterNanos;
+        }
     }
 
 }
@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Defines when an {@link AsyncRefreshMemoizingSupplier} refreshes its value.
+ *
+ * A fixed policy refreshes after its TTL. An adaptive policy starts at its minimum interval, doubles it after
+ * each refresh that returned the same content, up to its maximum, and goes back to the minimum after a change.
+ *
+ * Jitter shortens each interval by a random ratio, so instances started together do not refresh together.
+ * The maximum interval is never exceeded, it stays a bound on propagation delay.
+ */
+public final class RefreshPolicy {
+
+    public static final double DEFAULT_JITTER = 0.1;
+
+    public static RefreshPolicy fixed(int ttlInSeconds) {
+        return new RefreshPolicy(ttlInSeconds, ttlInSeconds, 0);
+    }
+
+    public static RefreshPolicy adaptive(int minTtlInSeconds, int maxTtlInSeconds) {
+        Preconditions.checkArgument(minTtlInSeconds > 0, "minimum TTL of an adaptive policy must be positive");
+        return new RefreshPolicy(minTtlInSeconds, maxTtlInSeconds, 0);
+    }
+
+    private final long minNanos;
+    private final long maxNanos;
+    private final double jitter;
+
+    private RefreshPolicy(int minTtlInSeconds, int maxTtlInSeconds, double jitter) {
+        Preconditions.checkArgument(minTtlInSeconds >= 0, "minimum TTL must be positive");
+        Preconditions.checkArgument(minTtlInSeconds <= maxTtlInSeconds, "minimum TTL must not exceed the maximum");
+        Preconditions.checkArgument(jitter >= 0 && jitter < 1, "jitter must be in [0, 1)");
+        this.minNanos = TimeUnit.SECONDS.toNanos(minTtlInSeconds);
+        this.maxNanos = TimeUnit.SECONDS.toNanos(maxTtlInSeconds);
+        this.jitter = jitter;
+    }
+
+    /**
+     * @param jitter the maximum ratio removed from each interval, in [0, 1)
+     * @return a copy of this policy with the given jitter
+     */
+    public RefreshPolicy withJitter(double jitter) {
+        return new RefreshPolicy((int) TimeUnit.NANOSECONDS.toSeconds(minNanos),
+                (int) TimeUnit.NANOSECONDS.toSeconds(maxNanos), jitter);
+    }
+
+    public boolean isAdaptive() {
+        return minNanos != maxNanos;
+    }
+
+    /**
+     * @return the interval after the first load
+     */
+    long initialIntervalNanos() {
+        return minNanos;
+    }
+
+    /**
+     * @param previousIntervalNanos the interval before the refresh
+     * @param changed whether the refresh returned different content
+     * @return the interval after the refresh, before jitter
+     */
+    long nextIntervalNanos(long previousIntervalNanos, boolean changed) {
+        if (changed) {
+            return minNanos;
+        }
+        return previousIntervalNanos >= maxNanos / 2 ? maxNanos : Math.max(minNanos, previousIntervalNanos * 2);
+    }
+
+    /**
+     * @param intervalNanos the interval
+     * @return the interval shortened by a random part of the jitter
+     */
+    long jittered(long intervalNanos) {
+        return jittered(intervalNanos, ThreadLocalRandom.current().nextDouble());
+    }
+
+    long jittered(long intervalNanos, double random) {
+        return intervalNanos - (long) (intervalNanos * jitter * random);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("minSeconds", TimeUnit.NANOSECONDS.toSeconds(minNanos))
+                .add("maxSeconds", TimeUnit.NANOSECONDS.toSeconds(maxNanos))
+                .add("jitter", jitter)
+                .toString();
+    }
+
+}
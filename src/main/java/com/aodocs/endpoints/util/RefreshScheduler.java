@@ -0,0 +1,171 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util;
+
+import com.aodocs.endpoints.context.AppengineHelper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.java.Log;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Runs the background refreshes of the caches on a bounded pool of threads, shared by the whole process.
+ * <p>
+ * Refreshes submitted with a key are coalesced: while a refresh for a key is queued or running,
+ * other refreshes for the same key are dropped.
+ * On App Engine standard, each refresh runs on its own thread created with {@link MoreExecutors#platformThreadFactory()},
+ * as these threads can't outlive the request that created them and must not be reused for other refreshes.
+ */
+@Log
+public final class RefreshScheduler implements Executor {
+
+    static final int MAX_THREADS = 4;
+
+    private static final long KEEP_ALIVE_MILLIS = 60_000;
+
+    private static final class SharedHolder {
+        private static final RefreshScheduler INSTANCE = AppengineHelper.isRunningOnAppengineStandard()
+                ? new RefreshScheduler(MoreExecutors.platformThreadFactory())
+                : new RefreshScheduler(new ThreadFactoryBuilder().setNameFormat("async-refresh-%d").setDaemon(true).build(),
+                        MAX_THREADS, KEEP_ALIVE_MILLIS);
+    }
+
+    /**
+     * @return the scheduler shared by all the caches of the process
+     */
+    public static RefreshScheduler getShared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    private final ThreadFactory threadFactory;
+    //null when each refresh runs on its own thread
+    private final ThreadPoolExecutor executor;
+    private final Set<Object> pendingKeys = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    @VisibleForTesting
+    RefreshScheduler(ThreadFactory threadFactory, int maxThreads, long keepAliveMillis) {
+        this.threadFactory = threadFactory;
+        this.executor = new ThreadPoolExecutor(maxThreads, maxThreads, keepAliveMillis, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs each refresh on a new thread, without pooling.
+     */
+    @VisibleForTesting
+    RefreshScheduler(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+        this.executor = null;
+    }
+
+    /**
+     * Schedules the refresh, unless a refresh with the same key is already queued or running.
+     *
+     * @param key     identifies the refreshed value, usually the cache itself
+     * @param refresh the refresh to run
+     * @return true if the refresh was scheduled, false if it was coalesced with a pending one
+     */
+    public boolean submit(Object key, Runnable refresh) {
+        if (!pendingKeys.add(key)) {
+            return false;
+        }
+        try {
+            start(() -> run(refresh, key));
+            return true;
+        } catch (RejectedExecutionException e) {
+            pendingKeys.remove(key);
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the refresh on the pool, without coalescing.
+     */
+    @Override
+    public void execute(Runnable refresh) {
+        start(() -> run(refresh, null));
+    }
+
+    /**
+     * @return true if a refresh with this key is queued or running
+     */
+    public boolean isPending(Object key) {
+        return pendingKeys.contains(key);
+    }
+
+    /**
+     * @return the number of refreshes currently running
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the number of refreshes waiting for a thread
+     */
+    public int getQueuedCount() {
+        return executor != null ? executor.getQueue().size() : 0;
+    }
+
+    private void start(Runnable task) {
+        if (executor != null) {
+            executor.execute(task);
+            return;
+        }
+        try {
+            Thread thread = threadFactory.newThread(task);
+            if (thread == null) {
+                throw new RejectedExecutionException("No thread available for the refresh");
+            }
+            thread.start();
+        } catch (RuntimeException e) {
+            throw e instanceof RejectedExecutionException ? e : new RejectedExecutionException("Cannot start the refresh", e);
+        }
+    }
+
+    private void run(Runnable refresh, Object key) {
+        inFlight.incrementAndGet();
+        try {
+            refresh.run();
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Exception thrown during refresh", e);
+        } finally {
+            //also reached if the thread is stopped, so that the key can be refreshed again
+            //released before the gauge, so that a new refresh can be submitted as soon as none is in flight
+            if (key != null) {
+                pendingKeys.remove(key);
+            }
+            inFlight.decrementAndGet();
+        }
+    }
+}
@@ -19,21 +19,52 @@
  */
 package com.aodocs.endpoints.util.cache;
 
+import com.google.api.client.util.Clock;
 import com.google.appengine.api.memcache.Expiration;
 import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
 import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.annotations.VisibleForTesting;
+import lombok.SneakyThrows;
 import lombok.extern.java.Log;
 
 import java.io.Serializable;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.logging.Level;
 
 /**
  * Object cache implementation using AppEngine's memcache.
+ * <p>
+ * Values are stored with a soft expiration, and kept in memcache for a grace period after it. A single instance
+ * (holding a lease key in memcache) recomputes an expired value, the others keep serving the stale one in the
+ * meantime, or wait for a while if there is no value at all.
  */
 @Log
 class AppEngineMemcacheObjectCache implements ObjectCache {
 
+    static final String LEASE_PREFIX = "lease:";
+    static final int MAX_STALE_IN_SECONDS = 300;
+    static final long DEFAULT_LEASE_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    static final long DEFAULT_MAX_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(2);
+    private static final long INITIAL_BACKOFF_MILLIS = 25;
+
+    private final Clock clock;
+    private final long leaseMillis;
+    private final long maxWaitMillis;
+
+    AppEngineMemcacheObjectCache() {
+        this(Clock.SYSTEM, DEFAULT_LEASE_MILLIS, DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    @VisibleForTesting
+    AppEngineMemcacheObjectCache(Clock clock, long leaseMillis, long maxWaitMillis) {
+        this.clock = clock;
+        this.leaseMillis = leaseMillis;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
     @Override
     public <T> T getCachedJson(
             String key, Class<T> valueClass,
@@ -41,13 +72,10 @@ class AppEngineMemcacheObjectCache implements ObjectCache {
             int expirationInSeconds) {
         try {
             MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService(valueClass.getCanonicalName());
-            String json = (String) memcacheService.get(key);
-            if (json != null) {
-                return JSON_FACTORY.createJsonParser(json).parse(valueClass);
-            }
-            T value = valueFunction.apply(key);
-            memcacheService.put(key, JSON_FACTORY.toString(value), Expiration.byDeltaSeconds(expirationInSeconds));
-            return value;
+            return get(memcacheService, key, valueFunction, expirationInSeconds,
+                    AppEngineMemcacheObjectCache::toJson, payload -> Optional.ofNullable(parseJson((String) payload, valueClass)));
+        } catch (ValueFunctionException e) {
+            throw e.getCause();
         } catch (Exception e) {
             log.log(Level.SEVERE,"Error when fetching " + valueClass.getName() + "/" + key + " from memcache", e);
             return valueFunction.apply(key);
@@ -55,23 +83,181 @@ class AppEngineMemcacheObjectCache implements ObjectCache {
     }
 
     @Override
+    public <T> T getJson(String key, Class<T> valueClass) {
+        try {
+            Object cached = MemcacheServiceFactory.getMemcacheService(valueClass.getCanonicalName()).get(key);
+            if (cached instanceof CachedValue) {
+                cached = ((CachedValue) cached).payload;
+            }
+            return cached != null ? parseJson((String) cached, valueClass) : null;
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Error when reading " + valueClass.getName() + "/" + key + " from memcache", e);
+            return null;
+        }
+    }
+
+    @Override
+    public <T> void putJson(String key, Class<T> valueClass, T value, int expirationInSeconds) {
+        try {
+            boolean expires = expirationInSeconds > 0;
+            MemcacheServiceFactory.getMemcacheService(valueClass.getCanonicalName()).put(key,
+                    new CachedValue(toJson(value), expires
+                            ? clock.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expirationInSeconds) : Long.MAX_VALUE),
+                    expires ? Expiration.byDeltaSeconds(expirationInSeconds) : null);
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Error when storing " + valueClass.getName() + "/" + key + " in memcache", e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
     public <T extends Serializable> T getCachedSerializable(
             String key, String namespace,
             Function<String, T> valueFunction,
             int  expirationInSeconds) {
         try {
             MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService(namespace);
-            T value = (T) memcacheService.get(key);
-            if (value != null) {
-                return value;
-            }
-            value = valueFunction.apply(key);
-            memcacheService.put(key, value, Expiration.byDeltaSeconds(expirationInSeconds));
-            return value;
+            return get(memcacheService, key, valueFunction, expirationInSeconds,
+                    value -> value, payload -> Optional.ofNullable((T) payload));
+        } catch (ValueFunctionException e) {
+            throw e.getCause();
         } catch (Exception e) {
             log.log(Level.SEVERE, "Error when fetching " + namespace + "/" + key + " from memcache", e);
             return valueFunction.apply(key);
         }
     }
 
+    @Override
+    public <T> T getCachedBinary(
+            String key, VersionedCodec<T> codec,
+            Function<String, T> valueFunction,
+            int expirationInSeconds) {
+        try {
+            MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService(codec.getNamespace());
+            return get(memcacheService, key, valueFunction, expirationInSeconds,
+                    codec::encode, payload -> payload instanceof byte[] ? codec.decode((byte[]) payload) : Optional.empty());
+        } catch (ValueFunctionException e) {
+            throw e.getCause();
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Error when fetching " + codec.getNamespace() + "/" + key + " from memcache", e);
+            return valueFunction.apply(key);
+        }
+    }
+
+    /**
+     * @param decoder returns empty when the cached payload cannot be decoded, it is then loaded again and replaced
+     */
+    private <T> T get(MemcacheService memcacheService, String key, Function<String, T> valueFunction,
+                      int expirationInSeconds, Function<T, Serializable> encoder, Function<Object, Optional<T>> decoder) {
+        Object cached = memcacheService.get(key);
+        if (cached instanceof CachedValue) {
+            CachedValue cachedValue = (CachedValue) cached;
+            Optional<T> decoded = decoder.apply(cachedValue.payload);
+            if (decoded.isPresent()) {
+                if (!cachedValue.isStale(clock.currentTimeMillis()) || !tryLease(memcacheService, key)) {
+                    return decoded.get();
+                }
+                return load(memcacheService, key, valueFunction, expirationInSeconds, encoder, true);
+            }
+        } else if (cached != null) {
+            //stored without expiration metadata by a previous version
+            Optional<T> decoded = decoder.apply(cached);
+            if (decoded.isPresent()) {
+                return decoded.get();
+            }
+        }
+        //missing or undecodable
+        if (tryLease(memcacheService, key)) {
+            return load(memcacheService, key, valueFunction, expirationInSeconds, encoder, true);
+        }
+        //another instance is loading the value, wait for it
+        long waited = 0;
+        for (long backoff = INITIAL_BACKOFF_MILLIS; waited < maxWaitMillis; backoff *= 2) {
+            long sleep = Math.min(backoff, maxWaitMillis - waited);
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            waited += sleep;
+            cached = memcacheService.get(key);
+            if (cached instanceof CachedValue) {
+                Optional<T> decoded = decoder.apply(((CachedValue) cached).payload);
+                if (decoded.isPresent()) {
+                    return decoded.get();
+                }
+            }
+        }
+        log.warning("Value " + key + " not loaded by the lease holder after " + waited + "ms, loading it");
+        return load(memcacheService, key, valueFunction, expirationInSeconds, encoder, false);
+    }
+
+    private <T> T load(MemcacheService memcacheService, String key, Function<String, T> valueFunction,
+                       int expirationInSeconds, Function<T, Serializable> encoder, boolean leased) {
+        T value;
+        try {
+            value = ValueFunctionException.apply(valueFunction, key);
+            //the value is returned even if it cannot be stored, the value function must not be called again
+            try {
+                long softExpiration = expirationInSeconds > 0
+                        ? clock.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expirationInSeconds) : Long.MAX_VALUE;
+                Expiration expiration = expirationInSeconds > 0
+                        ? Expiration.byDeltaSeconds(expirationInSeconds + Math.min(expirationInSeconds, MAX_STALE_IN_SECONDS))
+                        : null;
+                memcacheService.put(key, new CachedValue(encoder.apply(value), softExpiration), expiration);
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Cannot store " + key + " in memcache", e);
+            }
+        } finally {
+            if (leased) {
+                releaseLease(memcacheService, key);
+            }
+        }
+        return value;
+    }
+
+    //the other instances would otherwise wait for the lease to expire
+    private static void releaseLease(MemcacheService memcacheService, String key) {
+        try {
+            memcacheService.delete(LEASE_PREFIX + key);
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Cannot release " + LEASE_PREFIX + key, e);
+        }
+    }
+
+    private boolean tryLease(MemcacheService memcacheService, String key) {
+        return memcacheService.put(LEASE_PREFIX + key, clock.currentTimeMillis(),
+                Expiration.byDeltaMillis((int) leaseMillis), SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    }
+
+    @SneakyThrows
+    private static String toJson(Object value) {
+        return JSON_FACTORY.toString(value);
+    }
+
+    @SneakyThrows
+    private static <T> T parseJson(String json, Class<T> valueClass) {
+        return JSON_FACTORY.createJsonParser(json).parse(valueClass);
+    }
+
+    /**
+     * A value (JSON or serializable) with the time after which it should be recomputed.
+     */
+    static final class CachedValue implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Serializable payload;
+        private final long softExpirationMillis;
+
+        CachedValue(Serializable payload, long softExpirationMillis) {
+            this.payload = payload;
+            this.softExpirationMillis = softExpirationMillis;
+        }
+
+        boolean isStale(long nowMillis) {
+            return nowMillis >= softExpirationMillis;
+        }
+    }
+
 }
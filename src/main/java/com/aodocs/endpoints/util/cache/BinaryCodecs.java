@@ -0,0 +1,166 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util.cache;
+
+import com.google.cloud.Identity;
+import com.google.cloud.Role;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary codecs for cached values, using variable-length integers for sizes and UTF-8 for strings.
+ */
+public final class BinaryCodecs {
+
+    private BinaryCodecs() {
+    }
+
+    /**
+     * A list of strings, as a count followed by length-prefixed UTF-8 strings.
+     */
+    public static final SnapshotStore.Codec<List<String>> STRING_LIST = new SnapshotStore.Codec<List<String>>() {
+        @Override
+        public void write(List<String> value, DataOutput out) throws IOException {
+            writeVarInt(value.size(), out);
+            for (String string : value) {
+                writeString(string, out);
+            }
+        }
+
+        @Override
+        public List<String> read(DataInput in) throws IOException {
+            int size = readSize(in);
+            ImmutableList.Builder<String> builder = ImmutableList.builderWithExpectedSize(size);
+            for (int i = 0; i < size; i++) {
+                builder.add(readString(in));
+            }
+            return builder.build();
+        }
+    };
+
+    /**
+     * A map of strings, as a count followed by keys and values.
+     */
+    public static final SnapshotStore.Codec<ImmutableMap<String, String>> STRING_MAP = new SnapshotStore.Codec<ImmutableMap<String, String>>() {
+        @Override
+        public void write(ImmutableMap<String, String> value, DataOutput out) throws IOException {
+            writeVarInt(value.size(), out);
+            for (Map.Entry<String, String> entry : value.entrySet()) {
+                writeString(entry.getKey(), out);
+                writeString(entry.getValue(), out);
+            }
+        }
+
+        @Override
+        public ImmutableMap<String, String> read(DataInput in) throws IOException {
+            int size = readSize(in);
+            ImmutableMap.Builder<String, String> builder = ImmutableMap.builderWithExpectedSize(size);
+            for (int i = 0; i < size; i++) {
+                builder.put(readString(in), readString(in));
+            }
+            return builder.build();
+        }
+    };
+
+    /**
+     * IAM role bindings, as a count followed by each role and its members.
+     */
+    public static final SnapshotStore.Codec<ImmutableMap<Role, ImmutableSet<Identity>>> IAM_BINDINGS = new SnapshotStore.Codec<ImmutableMap<Role, ImmutableSet<Identity>>>() {
+        @Override
+        public void write(ImmutableMap<Role, ImmutableSet<Identity>> value, DataOutput out) throws IOException {
+            writeVarInt(value.size(), out);
+            for (Map.Entry<Role, ImmutableSet<Identity>> entry : value.entrySet()) {
+                writeString(entry.getKey().getValue(), out);
+                writeVarInt(entry.getValue().size(), out);
+                for (Identity identity : entry.getValue()) {
+                    writeString(identity.strValue(), out);
+                }
+            }
+        }
+
+        @Override
+        public ImmutableMap<Role, ImmutableSet<Identity>> read(DataInput in) throws IOException {
+            int size = readSize(in);
+            ImmutableMap.Builder<Role, ImmutableSet<Identity>> builder = ImmutableMap.builderWithExpectedSize(size);
+            for (int i = 0; i < size; i++) {
+                Role role = Role.of(readString(in));
+                int memberCount = readSize(in);
+                ImmutableSet.Builder<Identity> members = ImmutableSet.builderWithExpectedSize(memberCount);
+                for (int j = 0; j < memberCount; j++) {
+                    members.add(Identity.valueOf(readString(in)));
+                }
+                builder.put(role, members.build());
+            }
+            return builder.build();
+        }
+    };
+
+    /**
+     * Writes a non-negative integer on 1 to 5 bytes, 7 bits at a time.
+     */
+    public static void writeVarInt(int value, DataOutput out) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(DataInput in) throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    public static void writeString(String value, DataOutput out) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length, out);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[readSize(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int readSize(DataInput in) throws IOException {
+        int size = readVarInt(in);
+        if (size < 0) {
+            throw new IOException("Invalid size " + size);
+        }
+        return size;
+    }
+
+}
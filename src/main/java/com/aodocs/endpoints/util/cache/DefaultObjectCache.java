@@ -0,0 +1,83 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util.cache;
+
+import com.aodocs.endpoints.context.AppengineHelper;
+import lombok.extern.java.Log;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+import java.util.logging.Level;
+
+/**
+ * Holder of the process-wide {@link ObjectCache}, created on first use.
+ * <p>
+ * The implementation is selected with the {@value #PROPERTY} system property: {@code memory}, {@code memcache},
+ * {@code redis} (see {@link RedisObjectCache}) or the name of an {@link ObjectCache} class with a no-arg constructor.
+ * Without it, the first {@link ObjectCache} registered with {@link ServiceLoader} is used, otherwise memcache on
+ * AppEngine standard and the instance memory elsewhere. Shared caches are fronted by a short-lived instance memory
+ * cache (see {@link LayeredObjectCache}).
+ */
+@Log
+final class DefaultObjectCache {
+
+	static final String PROPERTY = "endpoints.objectCache";
+
+	static final ObjectCache INSTANCE = create(System.getProperty(PROPERTY));
+
+	private DefaultObjectCache() {
+	}
+
+	static ObjectCache create(String name) {
+		if (name != null) {
+			try {
+				return create(name, Thread.currentThread().getContextClassLoader());
+			} catch (Exception e) {
+				log.log(Level.SEVERE, "Cannot create object cache " + name + ", using the default one", e);
+			}
+		} else {
+			Iterator<ObjectCache> registered = ServiceLoader.load(ObjectCache.class).iterator();
+			if (registered.hasNext()) {
+				ObjectCache result = registered.next();
+				log.info("Using registered object cache " + result.getClass().getName());
+				return result;
+			}
+		}
+		if (AppengineHelper.isRunningOnAppengineStandard()) {
+			return new LayeredObjectCache(new AppEngineMemcacheObjectCache());
+		}
+		return InstanceMemoryObjectCache.SHARED;
+	}
+
+	private static ObjectCache create(String name, ClassLoader classLoader) throws ReflectiveOperationException {
+		switch (name) {
+			case "memory":
+				return InstanceMemoryObjectCache.SHARED;
+			case "memcache":
+				return new LayeredObjectCache(new AppEngineMemcacheObjectCache());
+			case "redis":
+				return new LayeredObjectCache(RedisObjectCache.fromSystemProperties());
+			default:
+				return Class.forName(name, true, classLoader).asSubclass(ObjectCache.class)
+						.getDeclaredConstructor().newInstance();
+		}
+	}
+
+}
@@ -19,47 +19,292 @@
  */
 package com.aodocs.endpoints.util.cache;
 
+import com.google.cloud.Identity;
+import com.google.cloud.Role;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import lombok.extern.java.Log;
 import org.apache.commons.lang3.SerializationUtils;
 
 import java.io.Serializable;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.logging.Level;
 
+/**
+ * Object cache implementation in the instance memory, bounded by the approximate size of the entries.
+ * <p>
+ * Each entry expires after its own expiration delay (never if not positive). Values are stored as JSON or
+ * serialized bytes, and decoded on each hit so that callers get their own copy. Deeply immutable serializable
+ * values (immutable collections of strings, numbers, roles, identities...) are stored and returned as is,
+ * never encoded: their weight is estimated from their structure.
+ */
 @Log
 class InstanceMemoryObjectCache implements ObjectCache {
 
-	private static final Cache<String, String> JSON_CACHE = CacheBuilder.newBuilder()
-			.weigher((Weigher<String, String>) (key, value) -> key.length() + value.length())
-			.maximumWeight(0x40000000L).build();
-	private static final Cache<String, byte[]> SERIALIZED_CACHE = CacheBuilder.newBuilder()
-			.weigher((Weigher<String, byte[]>) (key, value) -> key.length() + value.length)
-			.maximumWeight(0x40000000L).build();
+	static final long DEFAULT_MAXIMUM_WEIGHT = 64L * 1024 * 1024;
+
+	private static final ImmutableSet<Class<?>> IMMUTABLE_CLASSES = ImmutableSet.of(
+			String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class,
+			Float.class, Double.class, Instant.class, Role.class, Identity.class);
+
+	//rough sizes used to weigh immutable values, which are kept as is
+	private static final int OBJECT_OVERHEAD = 16;
+	private static final int REFERENCE_SIZE = 8;
+
+	static final InstanceMemoryObjectCache SHARED = new InstanceMemoryObjectCache(DEFAULT_MAXIMUM_WEIGHT, Ticker.systemTicker());
+
+	private final Cache<String, Entry> cache;
+	private final Ticker ticker;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder loadSuccesses = new LongAdder();
+	private final LongAdder loadFailures = new LongAdder();
+	private final LongAdder totalLoadNanos = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	@VisibleForTesting
+	InstanceMemoryObjectCache(long maximumWeight, Ticker ticker) {
+		this.ticker = ticker;
+		this.cache = CacheBuilder.newBuilder()
+				.weigher((Weigher<String, Entry>) (key, entry) -> key.length() * 2 + entry.weight)
+				.maximumWeight(maximumWeight)
+				.<String, Entry>removalListener(notification -> {
+					if (notification.wasEvicted()) {
+						evictions.increment();
+					}
+				})
+				.build();
+	}
 
 	@Override
 	public <T> T getCachedJson(String key, Class<T> valueClass, Function<String, T> valueFunction, int expirationInSeconds) {
 		try {
-			final String cachedOrNew = JSON_CACHE.get(key, () -> JSON_FACTORY.toString(valueFunction.apply(key)));
-			return JSON_FACTORY.createJsonParser(cachedOrNew).parse(valueClass);
+			String json = (String) get("json:" + valueClass.getName() + "/" + key, expirationInSeconds, () -> {
+				String value = JSON_FACTORY.toString(ValueFunctionException.apply(valueFunction, key));
+				return new Entry(value, value.length() * 2);
+			});
+			return JSON_FACTORY.createJsonParser(json).parse(valueClass);
 		} catch (Exception e) {
+			rethrowValueFunctionFailure(e);
 			log.log(Level.SEVERE,"Error when fetching " + valueClass.getName() + "/" + key + " from instance cache", e);
 			return valueFunction.apply(key);
 		}
 	}
 
 	@Override
+	public <T> T getJson(String key, Class<T> valueClass) {
+		Entry entry = cache.getIfPresent("json:" + valueClass.getName() + "/" + key);
+		if (entry == null || entry.isExpired(ticker.read())) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		try {
+			return JSON_FACTORY.createJsonParser((String) entry.payload).parse(valueClass);
+		} catch (Exception e) {
+			log.log(Level.SEVERE, "Error when reading " + valueClass.getName() + "/" + key + " from instance cache", e);
+			return null;
+		}
+	}
+
+	@Override
+	public <T> void putJson(String key, Class<T> valueClass, T value, int expirationInSeconds) {
+		try {
+			String json = JSON_FACTORY.toString(value);
+			Entry entry = new Entry(json, json.length() * 2);
+			entry.expiresAtNanos = getExpiresAtNanos(expirationInSeconds);
+			cache.put("json:" + valueClass.getName() + "/" + key, entry);
+		} catch (Exception e) {
+			log.log(Level.SEVERE, "Error when storing " + valueClass.getName() + "/" + key + " in instance cache", e);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
 	public <T extends Serializable> T getCachedSerializable(String key, String namespace, Function<String, T> valueFunction, int expirationInSeconds) {
 		String fullKey = namespace + "/" + key;
 		try {
-			final byte[] cachedOrNew = SERIALIZED_CACHE.get(fullKey, () -> SerializationUtils.serialize(valueFunction.apply(key)));
-			return SerializationUtils.deserialize(cachedOrNew);
+			Object cached = get("serializable:" + fullKey, expirationInSeconds, () -> {
+				T value = ValueFunctionException.apply(valueFunction, key);
+				int weight = estimateImmutableWeight(value);
+				if (weight >= 0) {
+					return new Entry(value, weight);
+				}
+				byte[] bytes = SerializationUtils.serialize(value);
+				return new Entry(bytes, bytes.length);
+			});
+			return cached instanceof byte[] ? SerializationUtils.deserialize((byte[]) cached) : (T) cached;
+		} catch (Exception e) {
+			rethrowValueFunctionFailure(e);
+			log.log(Level.SEVERE, "Error when fetching " + fullKey + " from instance cache", e);
+			return valueFunction.apply(key);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T getCachedBinary(String key, VersionedCodec<T> codec, Function<String, T> valueFunction, int expirationInSeconds) {
+		String fullKey = codec.getNamespace() + "/" + key;
+		try {
+			Object cached = get("binary:" + fullKey, expirationInSeconds, () -> {
+				T value = ValueFunctionException.apply(valueFunction, key);
+				int weight = estimateImmutableWeight(value);
+				if (weight >= 0) {
+					return new Entry(value, weight);
+				}
+				byte[] bytes = codec.encode(value);
+				return new Entry(bytes, bytes.length);
+			});
+			if (cached instanceof byte[]) {
+				return codec.decode((byte[]) cached).orElseGet(() -> valueFunction.apply(key));
+			}
+			return (T) cached;
 		} catch (Exception e) {
+			rethrowValueFunctionFailure(e);
 			log.log(Level.SEVERE, "Error when fetching " + fullKey + " from instance cache", e);
 			return valueFunction.apply(key);
 		}
 	}
 
+	/**
+	 * @return hit, miss and load counts and time (evictions include entries dropped because expired)
+	 */
+	CacheStats stats() {
+		return new CacheStats(hits.sum(), misses.sum(), loadSuccesses.sum(), loadFailures.sum(),
+				totalLoadNanos.sum(), evictions.sum());
+	}
+
+	private Object get(String cacheKey, int expirationInSeconds, Callable<Entry> loader) throws Exception {
+		Entry entry = cache.getIfPresent(cacheKey);
+		if (entry != null && !entry.isExpired(ticker.read())) {
+			hits.increment();
+			return entry.payload;
+		}
+		if (entry != null && cache.asMap().remove(cacheKey, entry)) {
+			evictions.increment();
+		}
+		misses.increment();
+		//concurrent loads of the same key wait for a single one
+		return cache.get(cacheKey, () -> load(loader, expirationInSeconds)).payload;
+	}
+
+	private Entry load(Callable<Entry> loader, int expirationInSeconds) throws Exception {
+		long start = ticker.read();
+		try {
+			Entry entry = loader.call();
+			entry.expiresAtNanos = getExpiresAtNanos(expirationInSeconds);
+			loadSuccesses.increment();
+			return entry;
+		} catch (Exception e) {
+			loadFailures.increment();
+			throw e;
+		} finally {
+			totalLoadNanos.add(ticker.read() - start);
+		}
+	}
+
+	private long getExpiresAtNanos(int expirationInSeconds) {
+		return expirationInSeconds > 0 ? ticker.read() + TimeUnit.SECONDS.toNanos(expirationInSeconds) : Long.MAX_VALUE;
+	}
+
+	//the value function is not called again when it failed, callers handle its exceptions
+	private static void rethrowValueFunctionFailure(Exception e) {
+		Throwable cause = e instanceof UncheckedExecutionException ? e.getCause() : e;
+		if (cause instanceof ValueFunctionException) {
+			throw ((ValueFunctionException) cause).getCause();
+		}
+	}
+
+	/**
+	 * @return true if the value, and all the values it holds, cannot be modified
+	 */
+	@VisibleForTesting
+	static boolean isDeeplyImmutable(Object value) {
+		return estimateImmutableWeight(value) >= 0;
+	}
+
+	/**
+	 * Estimates the memory held by a deeply immutable value from its structure, without encoding it.
+	 *
+	 * @return the approximate size in bytes, or -1 if the value, or a value it holds, can be modified
+	 */
+	@VisibleForTesting
+	static int estimateImmutableWeight(Object value) {
+		long weight = estimateWeight(value);
+		return weight < 0 ? -1 : (int) Math.min(weight, Integer.MAX_VALUE);
+	}
+
+	private static long estimateWeight(Object value) {
+		if (value == null || value instanceof Enum) {
+			return 0;
+		}
+		if (value instanceof String) {
+			return OBJECT_OVERHEAD + ((String) value).length() * 2L;
+		}
+		if (value instanceof Role) {
+			return OBJECT_OVERHEAD + estimateWeight(((Role) value).getValue());
+		}
+		if (value instanceof Identity) {
+			return OBJECT_OVERHEAD + estimateWeight(((Identity) value).getValue());
+		}
+		if (IMMUTABLE_CLASSES.contains(value.getClass())) {
+			return OBJECT_OVERHEAD;
+		}
+		if (value instanceof ImmutableCollection) {
+			long weight = OBJECT_OVERHEAD;
+			for (Object element : (ImmutableCollection<?>) value) {
+				long elementWeight = estimateWeight(element);
+				if (elementWeight < 0) {
+					return -1;
+				}
+				weight += REFERENCE_SIZE + elementWeight;
+			}
+			return weight;
+		}
+		if (value instanceof ImmutableMap) {
+			long weight = OBJECT_OVERHEAD;
+			for (Map.Entry<?, ?> entry : ((ImmutableMap<?, ?>) value).entrySet()) {
+				long keyWeight = estimateWeight(entry.getKey());
+				long valueWeight = estimateWeight(entry.getValue());
+				if (keyWeight < 0 || valueWeight < 0) {
+					return -1;
+				}
+				weight += OBJECT_OVERHEAD + keyWeight + valueWeight;
+			}
+			return weight;
+		}
+		return -1;
+	}
+
+	private static final class Entry {
+		//a JSON string, serialized bytes, or a deeply immutable value
+		private final Object payload;
+		private final int weight;
+		//set once loaded, before the entry is visible to other threads
+		private long expiresAtNanos;
+
+		private Entry(Object payload, int weight) {
+			this.payload = payload;
+			this.weight = weight;
+		}
+
+		private boolean isExpired(long nowNanos) {
+			return expiresAtNanos != Long.MAX_VALUE && nowNanos - expiresAtNanos >= 0;
+		}
+	}
+
 }
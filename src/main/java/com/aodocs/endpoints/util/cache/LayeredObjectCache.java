@@ -0,0 +1,96 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util.cache;
+
+import com.google.common.base.Ticker;
+
+import java.io.Serializable;
+import java.util.function.Function;
+
+/**
+ * Object cache keeping recently used values in the instance memory, in front of a shared cache.
+ * <p>
+ * Values are kept in memory for a short time (at most the requested expiration), so that the shared cache is
+ * only queried once per key and period by the instance. Concurrent loads of the same key wait for a single one.
+ */
+class LayeredObjectCache implements ObjectCache {
+
+	static final long DEFAULT_L1_MAXIMUM_WEIGHT = 8L * 1024 * 1024;
+	static final int DEFAULT_L1_EXPIRATION_IN_SECONDS = 30;
+
+	private final InstanceMemoryObjectCache l1;
+	private final ObjectCache l2;
+	private final int l1ExpirationInSeconds;
+
+	LayeredObjectCache(ObjectCache l2) {
+		this(new InstanceMemoryObjectCache(DEFAULT_L1_MAXIMUM_WEIGHT, Ticker.systemTicker()),
+				l2, DEFAULT_L1_EXPIRATION_IN_SECONDS);
+	}
+
+	LayeredObjectCache(InstanceMemoryObjectCache l1, ObjectCache l2, int l1ExpirationInSeconds) {
+		this.l1 = l1;
+		this.l2 = l2;
+		this.l1ExpirationInSeconds = l1ExpirationInSeconds;
+	}
+
+	@Override
+	public <T> T getCachedJson(String key, Class<T> valueClass, Function<String, T> valueFunction, int expirationInSeconds) {
+		return l1.getCachedJson(key, valueClass,
+				input -> l2.getCachedJson(input, valueClass, valueFunction, expirationInSeconds),
+				getL1Expiration(expirationInSeconds));
+	}
+
+	@Override
+	public <T extends Serializable> T getCachedSerializable(String key, String namespace, Function<String, T> valueFunction, int expirationInSeconds) {
+		return l1.getCachedSerializable(key, namespace,
+				input -> l2.getCachedSerializable(input, namespace, valueFunction, expirationInSeconds),
+				getL1Expiration(expirationInSeconds));
+	}
+
+	@Override
+	public <T> T getJson(String key, Class<T> valueClass) {
+		T value = l1.getJson(key, valueClass);
+		if (value == null) {
+			value = l2.getJson(key, valueClass);
+			if (value != null) {
+				l1.putJson(key, valueClass, value, l1ExpirationInSeconds);
+			}
+		}
+		return value;
+	}
+
+	@Override
+	public <T> void putJson(String key, Class<T> valueClass, T value, int expirationInSeconds) {
+		l2.putJson(key, valueClass, value, expirationInSeconds);
+		l1.putJson(key, valueClass, value, getL1Expiration(expirationInSeconds));
+	}
+
+	@Override
+	public <T> T getCachedBinary(String key, VersionedCodec<T> codec, Function<String, T> valueFunction, int expirationInSeconds) {
+		return l1.getCachedBinary(key, codec,
+				input -> l2.getCachedBinary(input, codec, valueFunction, expirationInSeconds),
+				getL1Expiration(expirationInSeconds));
+	}
+
+	private int getL1Expiration(int expirationInSeconds) {
+		return expirationInSeconds > 0 ? Math.min(expirationInSeconds, l1ExpirationInSeconds) : l1ExpirationInSeconds;
+	}
+
+}
@@ -19,16 +19,16 @@
  */
 package com.aodocs.endpoints.util.cache;
 
-import com.aodocs.endpoints.context.AppengineHelper;
 import com.google.api.client.googleapis.util.Utils;
 import com.google.api.client.json.JsonFactory;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 
 /**
  * A cache for JSON serializable or serializable objects.
- * The cache operation MUST clone the objects (not reuse instances).
+ * The cache operation MUST clone the objects (not reuse instances), unless they are deeply immutable.
  */
 public interface ObjectCache {
 
@@ -44,11 +44,43 @@ public interface ObjectCache {
 			Function<String, T> valueFunction,
 			int  expirationInSeconds);
 
-	static ObjectCache get() {
-		if (AppengineHelper.isRunningOnAppengineStandard()) {
-			return new AppEngineMemcacheObjectCache();
+	/**
+	 * @return the value stored by {@link #getCachedJson} or {@link #putJson}, or null if absent or not readable
+	 */
+	<T> T getJson(String key, Class<T> valueClass);
+
+	/**
+	 * Stores the value, replacing the cached one if any, for values whose expiration is only known once loaded.
+	 */
+	<T> void putJson(String key, Class<T> valueClass, T value, int expirationInSeconds);
+
+	/**
+	 * Caches the value encoded by the codec, under a namespace specific to the codec version.
+	 * By default, the encoded bytes are cached as a serializable value.
+	 */
+	default <T> T getCachedBinary(
+			String key, VersionedCodec<T> codec,
+			Function<String, T> valueFunction,
+			int expirationInSeconds) {
+		AtomicReference<T> loaded = new AtomicReference<>();
+		byte[] bytes = getCachedSerializable(key, codec.getNamespace(), input -> {
+			T value = valueFunction.apply(input);
+			loaded.set(value);
+			return codec.encode(value);
+		}, expirationInSeconds);
+		if (loaded.get() != null) {
+			return loaded.get();
 		}
-		return new InstanceMemoryObjectCache();
+		return codec.decode(bytes).orElseGet(() -> valueFunction.apply(key));
+	}
+
+	/**
+	 * @return the process-wide cache: memcache behind a short-lived instance memory cache on AppEngine standard,
+	 * the instance memory cache elsewhere, unless another implementation is selected with the
+	 * {@code endpoints.objectCache} system property or registered with {@link java.util.ServiceLoader}
+	 */
+	static ObjectCache get() {
+		return DefaultObjectCache.INSTANCE;
 	}
 
 }
@@ -0,0 +1,273 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util.cache;
+
+import com.google.common.base.Preconditions;
+import lombok.extern.java.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Minimal client for the Redis protocol (RESP2), with a pool of connections and pipelining.
+ * <p>
+ * Replies are decoded as {@link String} (simple strings), {@link Long} (integers), {@code byte[]} or null (bulk
+ * strings) and {@link List} (arrays). Error replies are thrown as {@link IOException}, once all the replies of a
+ * pipeline have been read.
+ */
+@Log
+final class RedisClient implements Closeable {
+
+    private final String host;
+    private final int port;
+    private final String password;
+    private final int timeoutMillis;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+    private volatile boolean closed;
+
+    RedisClient(String host, int port, String password, int poolSize, int timeoutMillis) {
+        Preconditions.checkArgument(poolSize > 0, "poolSize must be positive");
+        this.host = host;
+        this.port = port;
+        this.password = password;
+        this.timeoutMillis = timeoutMillis;
+        this.permits = new Semaphore(poolSize);
+    }
+
+    static byte[][] command(Object... arguments) {
+        byte[][] result = new byte[arguments.length][];
+        for (int i = 0; i < arguments.length; i++) {
+            Object argument = arguments[i];
+            result[i] = argument instanceof byte[] ? (byte[]) argument
+                    : String.valueOf(argument).getBytes(StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+
+    Object execute(byte[]... command) throws IOException {
+        return pipeline(Collections.singletonList(command)).get(0);
+    }
+
+    /**
+     * Sends all the commands before reading their replies.
+     */
+    List<Object> pipeline(List<byte[][]> commands) throws IOException {
+        Connection connection = borrow();
+        boolean reusable = false;
+        try {
+            for (byte[][] command : commands) {
+                writeCommand(connection.output, command);
+            }
+            connection.output.flush();
+            List<Object> replies = new ArrayList<>(commands.size());
+            IOException error = null;
+            for (int i = 0; i < commands.size(); i++) {
+                try {
+                    replies.add(readReply(connection.input));
+                } catch (ErrorReplyException e) {
+                    replies.add(null);
+                    error = e;
+                }
+            }
+            reusable = true;
+            if (error != null) {
+                throw error;
+            }
+            return replies;
+        } finally {
+            release(connection, reusable);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    private Connection borrow() throws IOException {
+        if (closed) {
+            throw new IOException("Client closed");
+        }
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("No connection available to " + host + ":" + port);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection", e);
+        }
+        Connection connection = idle.pollFirst();
+        if (connection != null) {
+            return connection;
+        }
+        try {
+            return connect();
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void release(Connection connection, boolean reusable) {
+        if (reusable && !closed) {
+            idle.offerFirst(connection);
+        } else {
+            connection.close();
+        }
+        permits.release();
+    }
+
+    private Connection connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            socket.setTcpNoDelay(true);
+            Connection connection = new Connection(socket);
+            if (password != null) {
+                writeCommand(connection.output, command("AUTH", password));
+                connection.output.flush();
+                readReply(connection.input);
+            }
+            return connection;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    static void writeCommand(OutputStream output, byte[][] command) throws IOException {
+        output.write(('*' + Integer.toString(command.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        for (byte[] argument : command) {
+            output.write(('$' + Integer.toString(argument.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            output.write(argument);
+            output.write('\r');
+            output.write('\n');
+        }
+    }
+
+    static Object readReply(InputStream input) throws IOException {
+        int type = input.read();
+        String line = readLine(input);
+        switch (type) {
+            case '+':
+                return line;
+            case '-':
+                throw new ErrorReplyException(line);
+            case ':':
+                return Long.parseLong(line);
+            case '$': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                byte[] result = new byte[length];
+                int read = 0;
+                while (read < length) {
+                    int count = input.read(result, read, length - read);
+                    if (count < 0) {
+                        throw new EOFException();
+                    }
+                    read += count;
+                }
+                readLine(input);
+                return result;
+            }
+            case '*': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                List<Object> result = new ArrayList<>(length);
+                for (int i = 0; i < length; i++) {
+                    result.add(readReply(input));
+                }
+                return result;
+            }
+            case -1:
+                throw new EOFException();
+            default:
+                throw new IOException("Unexpected reply type " + (char) type);
+        }
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(16);
+        int c;
+        while ((c = input.read()) != '\r') {
+            if (c < 0) {
+                throw new EOFException();
+            }
+            line.write(c);
+        }
+        if (input.read() != '\n') {
+            throw new IOException("Malformed reply");
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    static final class ErrorReplyException extends IOException {
+        ErrorReplyException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class Connection {
+        private final Socket socket;
+        private final InputStream input;
+        private final OutputStream output;
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.input = new BufferedInputStream(socket.getInputStream());
+            this.output = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.log(Level.FINE, "Error when closing connection", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util.cache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import lombok.SneakyThrows;
+import lombok.extern.java.Log;
+import org.apache.commons.lang3.SerializationUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+/**
+ * Object cache implementation using a Redis server (for instance Memorystore), configured with system properties:
+ * <ul>
+ * <li>{@value #HOST_PROPERTY} (default: the REDISHOST environment variable, then localhost)</li>
+ * <li>{@value #PORT_PROPERTY} (default: the REDISPORT environment variable, then 6379)</li>
+ * <li>{@value #PASSWORD_PROPERTY} (optional AUTH string)</li>
+ * <li>{@value #POOL_SIZE_PROPERTY} (default: 8 connections)</li>
+ * </ul>
+ * As with memcache, a single instance (holding a lease key) loads a missing value, the others wait for it for a while.
+ */
+@Log
+class RedisObjectCache implements ObjectCache, Closeable {
+
+    static final String HOST_PROPERTY = "endpoints.objectCache.redis.host";
+    static final String PORT_PROPERTY = "endpoints.objectCache.redis.port";
+    static final String PASSWORD_PROPERTY = "endpoints.objectCache.redis.password";
+    static final String POOL_SIZE_PROPERTY = "endpoints.objectCache.redis.poolSize";
+
+    static final String KEY_PREFIX = "endpoints:";
+    static final String LEASE_PREFIX = "lease:";
+    private static final int TIMEOUT_MILLIS = 2000;
+    private static final long LEASE_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final long INITIAL_BACKOFF_MILLIS = 25;
+
+    private final RedisClient client;
+    private final long maxWaitMillis;
+
+    @VisibleForTesting
+    RedisObjectCache(RedisClient client, long maxWaitMillis) {
+        this.client = client;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    static RedisObjectCache fromSystemProperties() {
+        String host = System.getProperty(HOST_PROPERTY, System.getenv().getOrDefault("REDISHOST", "localhost"));
+        int port = Integer.parseInt(System.getProperty(PORT_PROPERTY, System.getenv().getOrDefault("REDISPORT", "6379")));
+        int poolSize = Integer.getInteger(POOL_SIZE_PROPERTY, 8);
+        log.info("Using Redis object cache on " + host + ":" + port);
+        return new RedisObjectCache(
+                new RedisClient(host, port, System.getProperty(PASSWORD_PROPERTY), poolSize, TIMEOUT_MILLIS),
+                TIMEOUT_MILLIS);
+    }
+
+    @Override
+    public <T> T getCachedJson(String key, Class<T> valueClass, Function<String, T> valueFunction, int expirationInSeconds) {
+        try {
+            return get(KEY_PREFIX + valueClass.getCanonicalName() + ":" + key, key, valueFunction, expirationInSeconds,
+                    value -> toJson(value).getBytes(StandardCharsets.UTF_8),
+                    bytes -> parseJson(new String(bytes, StandardCharsets.UTF_8), valueClass));
+        } catch (ValueFunctionException e) {
+            throw e.getCause();
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Error when fetching " + valueClass.getName() + "/" + key + " from Redis", e);
+            return valueFunction.apply(key);
+        }
+    }
+
+    @Override
+    public <T> T getJson(String key, Class<T> valueClass) {
+        try {
+            byte[] cached = (byte[]) client.execute(
+                    RedisClient.command("GET", KEY_PREFIX + valueClass.getCanonicalName() + ":" + key));
+            return cached != null ? parseJson(new String(cached, StandardCharsets.UTF_8), valueClass) : null;
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Error when reading " + valueClass.getName() + "/" + key + " from Redis", e);
+            return null;
+        }
+    }
+
+    @Override
+    public <T> void putJson(String key, Class<T> valueClass, T value, int expirationInSeconds) {
+        try {
+            String redisKey = KEY_PREFIX + valueClass.getCanonicalName() + ":" + key;
+            byte[] json = toJson(value).getBytes(StandardCharsets.UTF_8);
+            client.execute(expirationInSeconds > 0
+                    ? RedisClient.command("SET", redisKey, json, "EX", expirationInSeconds)
+                    : RedisClient.command("SET", redisKey, json));
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Error when storing " + valueClass.getName() + "/" + key + " in Redis", e);
+        }
+    }
+
+    @Override
+    public <T extends Serializable> T getCachedSerializable(String key, String namespace, Function<String, T> valueFunction, int expirationInSeconds) {
+        try {
+            return get(KEY_PREFIX + namespace + ":" + key, key, valueFunction, expirationInSeconds,
+                    SerializationUtils::serialize, SerializationUtils::deserialize);
+        } catch (ValueFunctionException e) {
+            throw e.getCause();
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Error when fetching " + namespace + "/" + key + " from Redis", e);
+            return valueFunction.apply(key);
+        }
+    }
+
+    @Override
+    public <T> T getCachedBinary(String key, VersionedCodec<T> codec, Function<String, T> valueFunction, int expirationInSeconds) {
+        try {
+            return get(KEY_PREFIX + codec.getNamespace() + ":" + key, key, valueFunction, expirationInSeconds,
+                    codec::encode, bytes -> decode(codec, bytes));
+        } catch (ValueFunctionException e) {
+            throw e.getCause();
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Error when fetching " + codec.getNamespace() + "/" + key + " from Redis", e);
+            return valueFunction.apply(key);
+        }
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+
+    private <T> T get(String redisKey, String key, Function<String, T> valueFunction, int expirationInSeconds,
+                      Function<T, byte[]> encoder, Function<byte[], T> decoder) throws IOException {
+        byte[] cached = (byte[]) client.execute(RedisClient.command("GET", redisKey));
+        if (cached != null) {
+            return decoder.apply(cached);
+        }
+        //take the lease and check again in a single round trip
+        String leaseKey = LEASE_PREFIX + redisKey;
+        List<Object> replies = client.pipeline(ImmutableList.of(
+                RedisClient.command("SET", leaseKey, "1", "NX", "PX", LEASE_MILLIS),
+                RedisClient.command("GET", redisKey)));
+        boolean leased = "OK".equals(replies.get(0));
+        cached = (byte[]) replies.get(1);
+        if (cached != null) {
+            if (leased) {
+                client.execute(RedisClient.command("DEL", leaseKey));
+            }
+            return decoder.apply(cached);
+        }
+        if (!leased) {
+            //another instance is loading the value, wait for it
+            long waited = 0;
+            for (long backoff = INITIAL_BACKOFF_MILLIS; waited < maxWaitMillis; backoff *= 2) {
+                long sleep = Math.min(backoff, maxWaitMillis - waited);
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                waited += sleep;
+                cached = (byte[]) client.execute(RedisClient.command("GET", redisKey));
+                if (cached != null) {
+                    return decoder.apply(cached);
+                }
+            }
+            log.warning("Value " + redisKey + " not loaded by the lease holder after " + waited + "ms, loading it");
+        }
+        T value;
+        boolean loaded = false;
+        try {
+            value = ValueFunctionException.apply(valueFunction, key);
+            loaded = true;
+        } finally {
+            if (!loaded && leased) {
+                releaseLease(leaseKey);
+            }
+        }
+        //the value is returned even if it cannot be stored, the value function must not be called again
+        try {
+            byte[][] set = expirationInSeconds > 0
+                    ? RedisClient.command("SET", redisKey, encoder.apply(value), "EX", expirationInSeconds)
+                    : RedisClient.command("SET", redisKey, encoder.apply(value));
+            client.pipeline(leased ? ImmutableList.of(set, RedisClient.command("DEL", leaseKey)) : ImmutableList.of(set));
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.WARNING, "Cannot store " + redisKey + " in Redis", e);
+            if (leased) {
+                releaseLease(leaseKey);
+            }
+        }
+        return value;
+    }
+
+    //the other instances would otherwise wait for the lease to expire
+    private void releaseLease(String leaseKey) {
+        try {
+            client.execute(RedisClient.command("DEL", leaseKey));
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Cannot release " + leaseKey, e);
+        }
+    }
+
+    @SneakyThrows
+    private static <T> T decode(VersionedCodec<T> codec, byte[] bytes) {
+        return codec.decode(bytes).orElseThrow(() -> new IOException("Cannot decode cached " + codec.getName()));
+    }
+
+    @SneakyThrows
+    private static String toJson(Object value) {
+        return JSON_FACTORY.toString(value);
+    }
+
+    @SneakyThrows
+    private static <T> T parseJson(String json, Class<T> valueClass) {
+        return JSON_FACTORY.createJsonParser(json).parse(valueClass);
+    }
+
+}
@@ -0,0 +1,193 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util.cache;
+
+import com.google.api.client.util.Clock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Suppliers;
+import com.google.common.hash.Hashing;
+import lombok.Value;
+import lombok.extern.java.Log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persists the last good value of cached suppliers to local disk, so that a new instance can serve them immediately.
+ * <p>
+ * Disabled unless the {@value #DIRECTORY_PROPERTY} system property names a writable directory.
+ * Snapshots older than {@value #MAX_STALENESS_PROPERTY} seconds (one day by default) are ignored.
+ * Each snapshot is a gzipped file holding a header (format, key, write time) and the value written by its {@link Codec}.
+ * Errors are logged and never thrown: the store is only an optimization.
+ */
+@Log
+public final class SnapshotStore {
+
+    public static final String DIRECTORY_PROPERTY = "endpoints.snapshot.dir";
+    public static final String MAX_STALENESS_PROPERTY = "endpoints.snapshot.maxStalenessSeconds";
+    public static final long DEFAULT_MAX_STALENESS_SECONDS = TimeUnit.DAYS.toSeconds(1);
+
+    private static final int MAGIC = 0x454e4453;
+    //2: variable-length sizes in STRING_LIST
+    private static final int FORMAT_VERSION = 2;
+
+    private static final Supplier<Optional<SnapshotStore>> DEFAULT = Suppliers.memoize(() -> {
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory == null) {
+            return Optional.empty();
+        }
+        long maxStalenessSeconds = Long.getLong(MAX_STALENESS_PROPERTY, DEFAULT_MAX_STALENESS_SECONDS);
+        return Optional.of(new SnapshotStore(Paths.get(directory), TimeUnit.SECONDS.toMillis(maxStalenessSeconds), Clock.SYSTEM));
+    });
+
+    /**
+     * @return the store configured by system properties, if enabled
+     */
+    public static Optional<SnapshotStore> getDefault() {
+        return DEFAULT.get();
+    }
+
+    /**
+     * Writes and reads a type of value.
+     */
+    public interface Codec<T> {
+        void write(T value, DataOutput out) throws IOException;
+
+        T read(DataInput in) throws IOException;
+    }
+
+    /**
+     * Stores a list of strings as a count followed by length-prefixed UTF-8 strings.
+     */
+    public static final Codec<List<String>> STRING_LIST = BinaryCodecs.STRING_LIST;
+
+    @Value
+    public static class Snapshot<T> {
+        T value;
+        long writtenAtMillis;
+    }
+
+    private final Path directory;
+    private final long maxStalenessMillis;
+    private final Clock clock;
+
+    @VisibleForTesting
+    public SnapshotStore(Path directory, long maxStalenessMillis, Clock clock) {
+        this.directory = directory;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * An unchanged value should be written again before it gets too stale to be used.
+     *
+     * @param writtenAtMillis when the snapshot was written
+     * @return true once a quarter of the maximum staleness has passed
+     */
+    public boolean isDueForRewrite(long writtenAtMillis) {
+        return clock.currentTimeMillis() - writtenAtMillis > maxStalenessMillis / 4;
+    }
+
+    /**
+     * A value read from a snapshot should not be served past the maximum staleness, even if it cannot be refreshed.
+     *
+     * @param writtenAtMillis when the snapshot was written
+     * @return the time left before the snapshot gets too stale to be used, negative once it is
+     */
+    public long getRemainingMillis(long writtenAtMillis) {
+        return maxStalenessMillis - (clock.currentTimeMillis() - writtenAtMillis);
+    }
+
+    /**
+     * @return the snapshot, empty if absent, unreadable, or older than the maximum staleness
+     */
+    public <T> Optional<Snapshot<T>> read(String key, Codec<T> codec) {
+        Path path = getPath(key);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF())) {
+                log.warning("Ignoring snapshot " + path + " with an unexpected header");
+                return Optional.empty();
+            }
+            long writtenAtMillis = in.readLong();
+            long age = clock.currentTimeMillis() - writtenAtMillis;
+            if (age > maxStalenessMillis) {
+                log.info("Ignoring snapshot of " + key + ", written " + TimeUnit.MILLISECONDS.toSeconds(age) + "s ago");
+                return Optional.empty();
+            }
+            return Optional.of(new Snapshot<>(codec.read(in), writtenAtMillis));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.WARNING, "Cannot read snapshot of " + key, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file, then moves it in place, so readers never see a partial snapshot.
+     *
+     * @return the write time, or empty if the snapshot could not be written
+     */
+    public <T> Optional<Long> write(String key, T value, Codec<T> codec) {
+        Path path = getPath(key);
+        Path temporary = null;
+        try {
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+            long writtenAtMillis = clock.currentTimeMillis();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temporary))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(key);
+                out.writeLong(writtenAtMillis);
+                codec.write(value, out);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return Optional.of(writtenAtMillis);
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.WARNING, "Cannot write snapshot of " + key, e);
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {
+                    //nothing more to do
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    private Path getPath(String key) {
+        return directory.resolve(Hashing.sha256().hashString(key, StandardCharsets.UTF_8) + ".snapshot");
+    }
+
+}
@@ -0,0 +1,47 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util.cache;
+
+import java.util.function.Function;
+
+/**
+ * Wraps an exception thrown by the value function of a cache, so that it is rethrown as is, instead of being handled
+ * as a cache failure (which calls the value function again).
+ */
+final class ValueFunctionException extends RuntimeException {
+
+    private ValueFunctionException(RuntimeException cause) {
+        super(cause);
+    }
+
+    static <T> T apply(Function<String, T> valueFunction, String key) {
+        try {
+            return valueFunction.apply(key);
+        } catch (RuntimeException e) {
+            throw new ValueFunctionException(e);
+        }
+    }
+
+    @Override
+    public synchronized RuntimeException getCause() {
+        return (RuntimeException) super.getCause();
+    }
+
+}
@@ -0,0 +1,132 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util.cache;
+
+import com.google.api.client.util.Clock;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A bounded in-memory cache of already verified tokens, to skip parsing and signature verification on repeated calls.
+ * <p>
+ * Entries are keyed by a SHA-256 digest of the compact token, so the cache never holds the tokens themselves as keys.
+ * A cached value is only returned before its expiration time, and while its validity check passes
+ * (typically: the key used to verify the signature is still published).
+ */
+public class VerifiedTokenCache<T> {
+
+	/**
+	 * Upper bound for entries lifetime, tokens are usually valid for an hour.
+	 */
+	private static final long MAX_ENTRY_LIFETIME_HOURS = 24;
+
+	private final Cache<HashCode, Entry<T>> cache;
+	private final Clock clock;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public VerifiedTokenCache(long maximumSize) {
+		this(maximumSize, Clock.SYSTEM);
+	}
+
+	public VerifiedTokenCache(long maximumSize, Clock clock) {
+		this.clock = clock;
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(MAX_ENTRY_LIFETIME_HOURS, TimeUnit.HOURS)
+				.<HashCode, Entry<T>>removalListener(notification -> {
+					if (notification.wasEvicted()) {
+						evictions.increment();
+					}
+				})
+				.build();
+	}
+
+	/**
+	 * @return the cached value for this token, or null if absent, expired or invalidated
+	 */
+	public T getIfValid(String token) {
+		HashCode key = digest(token);
+		Entry<T> entry = cache.getIfPresent(key);
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		if (clock.currentTimeMillis() >= entry.expiresAtMillis || !entry.validityCheck.getAsBoolean()) {
+			cache.invalidate(key);
+			evictions.increment();
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return entry.value;
+	}
+
+	/**
+	 * @param expiresAtMillis time after which the value must not be returned anymore
+	 * @param validityCheck   evaluated on each hit, the entry is dropped when it returns false
+	 */
+	public void put(String token, T value, long expiresAtMillis, BooleanSupplier validityCheck) {
+		if (expiresAtMillis > clock.currentTimeMillis()) {
+			cache.put(digest(token), new Entry<>(value, expiresAtMillis, validityCheck));
+		}
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	/**
+	 * @return hit, miss and eviction counts (evictions include entries dropped because expired or invalidated)
+	 */
+	public CacheStats stats() {
+		return new CacheStats(hits.sum(), misses.sum(), 0, 0, 0, evictions.sum());
+	}
+
+	private static HashCode digest(String token) {
+		return Hashing.sha256().hashString(token, StandardCharsets.UTF_8);
+	}
+
+	private static final class Entry<T> {
+		private final T value;
+		private final long expiresAtMillis;
+		private final BooleanSupplier validityCheck;
+
+		private Entry(T value, long expiresAtMillis, BooleanSupplier validityCheck) {
+			this.value = value;
+			this.expiresAtMillis = expiresAtMillis;
+			this.validityCheck = validityCheck;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util.cache;
+
+import com.google.common.base.Preconditions;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes cached values to bytes with a {@link SnapshotStore.Codec}, behind a header holding the codec version.
+ * <p>
+ * Values larger than the compression threshold are deflated. Entries written with another version of the codec
+ * (for instance by an instance running the previous deployment) are not decoded, and must be loaded again.
+ */
+@Log
+public final class VersionedCodec<T> {
+
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 8 * 1024;
+
+    private static final int MAGIC = 0xBC;
+    private static final int FLAG_DEFLATED = 1;
+
+    @Getter
+    private final String name;
+    @Getter
+    private final int version;
+    private final SnapshotStore.Codec<T> codec;
+    private final int compressionThreshold;
+
+    private VersionedCodec(String name, int version, SnapshotStore.Codec<T> codec, int compressionThreshold) {
+        Preconditions.checkArgument(version >= 0, "version must not be negative");
+        this.name = name;
+        this.version = version;
+        this.codec = codec;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * @param name    identifies the type of value
+     * @param version to change with the format written by the codec
+     */
+    public static <T> VersionedCodec<T> of(String name, int version, SnapshotStore.Codec<T> codec) {
+        return new VersionedCodec<>(name, version, codec, DEFAULT_COMPRESSION_THRESHOLD);
+    }
+
+    /**
+     * @param compressionThreshold size in bytes above which values are compressed, {@link Integer#MAX_VALUE} to disable
+     */
+    public VersionedCodec<T> withCompressionThreshold(int compressionThreshold) {
+        return new VersionedCodec<>(name, version, codec, compressionThreshold);
+    }
+
+    /**
+     * @return a key prefix specific to this codec and version
+     */
+    public String getNamespace() {
+        return name + "/v" + version;
+    }
+
+    public byte[] encode(T value) {
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(payload)) {
+                codec.write(value, out);
+            }
+            boolean deflate = payload.size() > compressionThreshold;
+            ByteArrayOutputStream result = new ByteArrayOutputStream(deflate ? payload.size() / 2 : payload.size() + 8);
+            result.write(MAGIC);
+            BinaryCodecs.writeVarInt(version, new DataOutputStream(result));
+            result.write(deflate ? FLAG_DEFLATED : 0);
+            if (deflate) {
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                try (DeflaterOutputStream out = new DeflaterOutputStream(result, deflater)) {
+                    payload.writeTo(out);
+                } finally {
+                    deflater.end();
+                }
+            } else {
+                payload.writeTo(result);
+            }
+            return result.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the value, or empty if written by another version of the codec or unreadable
+     */
+    public Optional<T> decode(byte[] bytes) {
+        try {
+            ByteArrayInputStream input = new ByteArrayInputStream(bytes);
+            DataInputStream header = new DataInputStream(input);
+            if (header.readUnsignedByte() != MAGIC) {
+                log.warning("Ignoring " + name + " value with an unknown format");
+                return Optional.empty();
+            }
+            int entryVersion = BinaryCodecs.readVarInt(header);
+            if (entryVersion != version) {
+                log.info("Ignoring " + name + " value written with version " + entryVersion + " instead of " + version);
+                return Optional.empty();
+            }
+            int flags = header.readUnsignedByte();
+            InputStream payload = (flags & FLAG_DEFLATED) != 0 ? new InflaterInputStream(input) : input;
+            try (DataInputStream in = new DataInputStream(payload)) {
+                return Optional.of(codec.read(in));
+            }
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.WARNING, "Cannot decode " + name + " value", e);
+            return Optional.empty();
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
+import com.google.api.server.spi.Client;
+import com.google.common.io.Resources;
+
+public class AuthInfoTest {
+    
+    @Test
+    public void testClaims() throws IOException {
+        String encodedToken = Resources.toString(Resources.getResource("jwtClaims/payload.json-encoded.txt"), StandardCharsets.UTF_8).trim();
+        GoogleIdToken idToken = GoogleIdToken.parse(Client.getInstance().getJsonFactory(), encodedToken);
+        
+        AuthInfo.Claims claims = new AuthInfo(encodedToken, idToken).getClaims();
+        AuthInfo.Claims decodedClaims = new AuthInfo(DecodedJwt.decode(encodedToken), idToken).getClaims();
+        for (AuthInfo.Claims tokenClaims : new AuthInfo.Claims[] { claims, decodedClaims }) {
+            assertEquals(Optional.of("ao-docs-staging"), tokenClaims.get("aud"));
+            assertEquals(Optional.of("ao-docs-staging"), tokenClaims.get("/aud"));
+            assertEquals(Optional.of("password"), tokenClaims.get("firebase/sign_in_provider"));
+            assertEquals(Optional.of(false), tokenClaims.get("email_verified"));
+            assertEquals(Optional.of(1633700106L), tokenClaims.get("exp"));
+            assertEquals(Optional.empty(), tokenClaims.get("nullClaim"));
+            assertEquals(Optional.empty(), tokenClaims.get("missing"));
+            assertNull(tokenClaims.get("firebase"));
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.auth.authenticator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import com.aodocs.endpoints.auth.AuthInfo;
+import com.aodocs.endpoints.auth.CustomAttribute;
+import com.aodocs.endpoints.util.cache.ObjectCache;
+import com.google.api.client.testing.http.FixedClock;
+import com.google.api.server.spi.Constant;
+import com.google.api.server.spi.auth.GoogleAuth;
+import com.google.api.server.spi.auth.common.User;
+import com.google.api.server.spi.config.model.ApiMethodConfig;
+import com.google.api.server.spi.config.scope.AuthScopeExpressions;
+import com.google.api.server.spi.request.Attribute;
+import com.google.api.server.spi.response.ServiceUnavailableException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CachingOAuth2AuthenticatorTest {
+	
+	private static final String EMAIL_SCOPE = "https://www.googleapis.com/auth/userinfo.email";
+	private static final String TOKEN = "ya29.dummy-access-token";
+	
+	@Mock
+	protected ApiMethodConfig config;
+	
+	private final FixedClock clock = new FixedClock(1_000_000L);
+	
+	//counts the tokeninfo calls instead of calling the remote endpoint
+	private static class TestAuthenticator extends CachingOAuth2Authenticator {
+		private GoogleAuth.TokenInfo tokenInfo;
+		private int fetchCount;
+		
+		TestAuthenticator(FixedClock clock, ObjectCache sharedCache) {
+			super(100, DEFAULT_MAX_CACHE_SECONDS, sharedCache, clock);
+		}
+		
+		@Override
+		GoogleAuth.TokenInfo fetchTokenInfo(String token) {
+			fetchCount++;
+			return tokenInfo;
+		}
+	}
+	
+	//same behavior as the memcache implementation, values are stored as JSON
+	private static class MapObjectCache implements ObjectCache {
+		private final Map<String, String> values = new HashMap<>();
+		private final Map<String, Integer> expirations = new HashMap<>();
+		
+		@Override
+		public <T> T getCachedJson(String key, Class<T> valueClass, Function<String, T> valueFunction, int expirationInSeconds) {
+			try {
+				String json = values.get(key);
+				if (json != null) {
+					return JSON_FACTORY.createJsonParser(json).parse(valueClass);
+				}
+				T value = valueFunction.apply(key);
+				values.put(key, JSON_FACTORY.toString(value));
+				return value;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		@Override
+		public <T extends Serializable> T getCachedSerializable(String key, String namespace, Function<String, T> valueFunction, int expirationInSeconds) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public <T> T getJson(String key, Class<T> valueClass) {
+			try {
+				String json = values.get(key);
+				return json != null ? JSON_FACTORY.createJsonParser(json).parse(valueClass) : null;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		@Override
+		public <T> void putJson(String key, Class<T> valueClass, T value, int expirationInSeconds) {
+			try {
+				values.put(key, JSON_FACTORY.toString(value));
+				expirations.put(key, expirationInSeconds);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+	
+	@Test
+	public void testTokenInfoIsCached() throws ServiceUnavailableException {
+		when(config.getScopeExpression()).thenReturn(AuthScopeExpressions.interpret(EMAIL_SCOPE));
+		TestAuthenticator authenticator = new TestAuthenticator(clock, null);
+		authenticator.tokenInfo = createTokenInfo(3600);
+		
+		MockHttpServletRequest firstRequest = createRequest();
+		User user = authenticator.authenticate(firstRequest);
+		assertEquals("dummyuser@gmail.com", user.getEmail());
+		assertEquals("123456789", user.getId());
+		MockHttpServletRequest secondRequest = createRequest();
+		assertNotNull(authenticator.authenticate(secondRequest));
+		
+		assertEquals(1, authenticator.fetchCount);
+		assertSame(firstRequest.getAttribute(Attribute.TOKEN_INFO), secondRequest.getAttribute(Attribute.TOKEN_INFO));
+		//the scopes are split once
+		AuthInfo firstAuthInfo = (AuthInfo) firstRequest.getAttribute(CustomAttribute.AUTH_INFO);
+		AuthInfo secondAuthInfo = (AuthInfo) secondRequest.getAttribute(CustomAttribute.AUTH_INFO);
+		assertSame(firstAuthInfo.getScopes(), secondAuthInfo.getScopes());
+		assertEquals(1, authenticator.getLocalCacheStats().hitCount());
+	}
+	
+	@Test
+	public void testExpiresInIsComputedOnEachRequest() throws ServiceUnavailableException {
+		when(config.getScopeExpression()).thenReturn(AuthScopeExpressions.interpret(EMAIL_SCOPE));
+		TestAuthenticator authenticator = new TestAuthenticator(clock, null);
+		authenticator.tokenInfo = createTokenInfo(3600);
+		
+		MockHttpServletRequest firstRequest = createRequest();
+		assertNotNull(authenticator.authenticate(firstRequest));
+		assertEquals(3600L, (long) ((AuthInfo) firstRequest.getAttribute(CustomAttribute.AUTH_INFO)).getExpiresInSeconds());
+		clock.setTime(clock.currentTimeMillis() + 100_000);
+		MockHttpServletRequest secondRequest = createRequest();
+		assertNotNull(authenticator.authenticate(secondRequest));
+		assertEquals(3500L, (long) ((AuthInfo) secondRequest.getAttribute(CustomAttribute.AUTH_INFO)).getExpiresInSeconds());
+		assertEquals(1, authenticator.fetchCount);
+	}
+	
+	@Test
+	public void testTokenWithoutEmailIsRejected() throws ServiceUnavailableException {
+		TestAuthenticator authenticator = new TestAuthenticator(clock, null);
+		authenticator.tokenInfo = createTokenInfo(3600);
+		authenticator.tokenInfo.email = null;
+		assertNull(authenticator.authenticate(createRequest()));
+		authenticator.tokenInfo.email = " ";
+		clock.setTime(clock.currentTimeMillis() + CachingOAuth2Authenticator.INVALID_TOKEN_CACHE_SECONDS * 1000L);
+		assertNull(authenticator.authenticate(createRequest()));
+		assertEquals(2, authenticator.fetchCount);
+	}
+	
+	@Test
+	public void testClientIdWhitelist() throws ServiceUnavailableException {
+		when(config.getScopeExpression()).thenReturn(AuthScopeExpressions.interpret(EMAIL_SCOPE));
+		when(config.getClientIds())
+				.thenReturn(null)
+				.thenReturn(Collections.singletonList(Constant.SKIP_CLIENT_ID_CHECK))
+				.thenReturn(Collections.singletonList("other"))
+				.thenReturn(Collections.singletonList("12345"));
+		TestAuthenticator authenticator = new TestAuthenticator(clock, null);
+		authenticator.tokenInfo = createTokenInfo(3600);
+		
+		//as GoogleOAuth2Authenticator, the client id check cannot be skipped
+		assertNull(authenticator.authenticate(createWhitelistRequest()));
+		assertNull(authenticator.authenticate(createWhitelistRequest()));
+		assertNull(authenticator.authenticate(createWhitelistRequest()));
+		assertNotNull(authenticator.authenticate(createWhitelistRequest()));
+	}
+	
+	@Test
+	public void testCacheBoundedByExpiresIn() throws ServiceUnavailableException {
+		when(config.getScopeExpression()).thenReturn(AuthScopeExpressions.interpret(EMAIL_SCOPE));
+		TestAuthenticator authenticator = new TestAuthenticator(clock, null);
+		authenticator.tokenInfo = createTokenInfo(30);
+		
+		assertNotNull(authenticator.authenticate(createRequest()));
+		clock.setTime(clock.currentTimeMillis() + 29_000);
+		assertNotNull(authenticator.authenticate(createRequest()));
+		assertEquals(1, authenticator.fetchCount);
+		
+		clock.setTime(clock.currentTimeMillis() + 1_000);
+		authenticator.tokenInfo = null;
+		assertNull(authenticator.authenticate(createRequest()));
+		assertEquals(2, authenticator.fetchCount);
+	}
+	
+	@Test
+	public void testCacheBoundedByMaxCacheSeconds() throws ServiceUnavailableException {
+		when(config.getScopeExpression()).thenReturn(AuthScopeExpressions.interpret(EMAIL_SCOPE));
+		TestAuthenticator authenticator = new TestAuthenticator(clock, null);
+		authenticator.tokenInfo = createTokenInfo(3600);
+		
+		assertNotNull(authenticator.authenticate(createRequest()));
+		clock.setTime(clock.currentTimeMillis() + CachingOAuth2Authenticator.DEFAULT_MAX_CACHE_SECONDS * 1000L);
+		assertNotNull(authenticator.authenticate(createRequest()));
+		assertEquals(2, authenticator.fetchCount);
+	}
+	
+	@Test
+	public void testInvalidTokenIsCachedBriefly() throws ServiceUnavailableException {
+		TestAuthenticator authenticator = new TestAuthenticator(clock, null);
+		
+		assertNull(authenticator.authenticate(createRequest()));
+		assertNull(authenticator.authenticate(createRequest()));
+		assertEquals(1, authenticator.fetchCount);
+		
+		clock.setTime(clock.currentTimeMillis() + CachingOAuth2Authenticator.INVALID_TOKEN_CACHE_SECONDS * 1000L);
+		assertNull(authenticator.authenticate(createRequest()));
+		assertEquals(2, authenticator.fetchCount);
+	}
+	
+	@Test
+	public void testScopesAreCheckedOnEachRequest() throws ServiceUnavailableException {
+		when(config.getScopeExpression())
+				.thenReturn(AuthScopeExpressions.interpret(EMAIL_SCOPE))
+				.thenReturn(AuthScopeExpressions.interpret("https://www.googleapis.com/auth/drive"));
+		TestAuthenticator authenticator = new TestAuthenticator(clock, null);
+		authenticator.tokenInfo = createTokenInfo(3600);
+		
+		assertNotNull(authenticator.authenticate(createRequest()));
+		assertNull(authenticator.authenticate(createRequest()));
+		assertEquals(1, authenticator.fetchCount);
+	}
+	
+	@Test
+	public void testSharedCache() throws ServiceUnavailableException {
+		when(config.getScopeExpression()).thenReturn(AuthScopeExpressions.interpret(EMAIL_SCOPE));
+		MapObjectCache sharedCache = new MapObjectCache();
+		TestAuthenticator authenticator = new TestAuthenticator(clock, sharedCache);
+		authenticator.tokenInfo = createTokenInfo(3600);
+		assertNotNull(authenticator.authenticate(createRequest()));
+		assertEquals(1, sharedCache.values.size());
+		//the raw token is never used as a key
+		assertNull(sharedCache.values.get(TOKEN));
+		
+		//another instance reuses the result
+		TestAuthenticator otherAuthenticator = new TestAuthenticator(clock, sharedCache);
+		User user = otherAuthenticator.authenticate(createRequest());
+		assertEquals("dummyuser@gmail.com", user.getEmail());
+		assertEquals(0, otherAuthenticator.fetchCount);
+	}
+	
+	@Test
+	public void testSharedCacheExpiration() throws ServiceUnavailableException {
+		MapObjectCache sharedCache = new MapObjectCache();
+		TestAuthenticator authenticator = new TestAuthenticator(clock, sharedCache);
+		assertNull(authenticator.authenticate(createRequest()));
+		//invalid tokens are only shared briefly
+		assertEquals(CachingOAuth2Authenticator.INVALID_TOKEN_CACHE_SECONDS,
+				(int) sharedCache.expirations.values().iterator().next());
+		
+		//an expired shared entry is replaced, so that the next instance does not call tokeninfo again
+		clock.setTime(clock.currentTimeMillis() + CachingOAuth2Authenticator.INVALID_TOKEN_CACHE_SECONDS * 1000L);
+		when(config.getScopeExpression()).thenReturn(AuthScopeExpressions.interpret(EMAIL_SCOPE));
+		TestAuthenticator otherAuthenticator = new TestAuthenticator(clock, sharedCache);
+		otherAuthenticator.tokenInfo = createTokenInfo(30);
+		assertNotNull(otherAuthenticator.authenticate(createRequest()));
+		assertEquals(30, (int) sharedCache.expirations.values().iterator().next());
+		TestAuthenticator thirdAuthenticator = new TestAuthenticator(clock, sharedCache);
+		assertNotNull(thirdAuthenticator.authenticate(createRequest()));
+		assertEquals(0, thirdAuthenticator.fetchCount);
+	}
+	
+	@Test
+	public void testUnavailableTokenInfoIsFetchedOnce() {
+		MapObjectCache sharedCache = new MapObjectCache();
+		AtomicInteger fetchCount = new AtomicInteger();
+		CachingOAuth2Authenticator authenticator = new CachingOAuth2Authenticator(100, 600, sharedCache, clock) {
+			@Override
+			GoogleAuth.TokenInfo fetchTokenInfo(String token) throws ServiceUnavailableException {
+				fetchCount.incrementAndGet();
+				throw new ServiceUnavailableException("expected");
+			}
+		};
+		assertThrows(ServiceUnavailableException.class, () -> authenticator.authenticate(createRequest()));
+		assertEquals(1, fetchCount.get());
+		assertTrue(sharedCache.values.isEmpty());
+	}
+	
+	@Test
+	public void testJwtIsIgnored() throws ServiceUnavailableException {
+		TestAuthenticator authenticator = new TestAuthenticator(clock, null);
+		MockHttpServletRequest request = createRequest();
+		request.removeHeader("Authorization");
+		request.addHeader("Authorization", "Bearer " + GoogleIdentityPlatformAuthenticatorTest.GOOGLE_ID_TOKEN);
+		assertNull(authenticator.authenticate(request));
+		assertEquals(0, authenticator.fetchCount);
+	}
+	
+	private static GoogleAuth.TokenInfo createTokenInfo(int expiresIn) {
+		GoogleAuth.TokenInfo tokenInfo = new GoogleAuth.TokenInfo();
+		tokenInfo.email = "dummyuser@gmail.com";
+		tokenInfo.userId = "123456789";
+		tokenInfo.clientId = "12345";
+		tokenInfo.scopes = EMAIL_SCOPE;
+		tokenInfo.expiresIn = expiresIn;
+		return tokenInfo;
+	}
+	
+	private MockHttpServletRequest createWhitelistRequest() {
+		MockHttpServletRequest request = createRequest();
+		Attribute.from(request).set(Attribute.ENABLE_CLIENT_ID_WHITELIST, true);
+		return request;
+	}
+	
+	private MockHttpServletRequest createRequest() {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		Attribute.from(request).set(Attribute.API_METHOD_CONFIG, config);
+		request.addHeader("Authorization", "Bearer " + TOKEN);
+		return request;
+	}
+}
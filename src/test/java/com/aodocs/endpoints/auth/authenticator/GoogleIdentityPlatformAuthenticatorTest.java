@@ -21,6 +21,16 @@ package com.aodocs.endpoints.auth.authenticator;
 
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Collections;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -32,6 +42,9 @@ import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.mock.web.MockHttpServletRequest;
 
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdTokenVerifier;
+import com.google.api.client.googleapis.auth.oauth2.GooglePublicKeysManager;
+import com.google.api.client.json.webtoken.JsonWebSignature;
+import com.google.api.client.json.webtoken.JsonWebToken;
 import com.google.api.client.testing.http.FixedClock;
 import com.google.api.client.util.Clock;
 import com.google.api.server.spi.Client;
@@ -42,9 +55,10 @@ import com.google.api.server.spi.config.model.ApiMethodConfig;
 import com.google.api.server.spi.request.Attribute;
 
 @RunWith(MockitoJUnitRunner.class)
-@Ignore("This test can't work long term, as the Google public keys change quite often")
 public class GoogleIdentityPlatformAuthenticatorTest {
 	
+	private static final String PUBLIC_KEYS_CHANGE = "This test can't work long term, as the Google public keys change quite often";
+	
 	//the tokens below are expired, so they're fine to be in cleartext here
 	
 	public static final String FIREBASE_TOKEN = "eyJhbGciOiJSUzI1NiIsImtpZCI6ImYwNTM4MmFlMTgxYWJlNjFiOTYwYjA1Yzk3ZmE0MDljNDdhNDQ0ZTciLCJ0eXAiOiJKV1QifQ.eyJuYW1lIjoiQ2zDqW1lbnQgVGVzdCIsImlzcyI6Imh0dHBzOi8vc2VjdXJldG9rZW4uZ29vZ2xlLmNvbS9hby1kb2NzLXN0YWdpbmciLCJhdWQiOiJhby1kb2NzLXN0YWdpbmciLCJhdXRoX3RpbWUiOjE2MzIzOTA0MTAsInVzZXJfaWQiOiJ6WFpWRGlvSkExUmgxand4YzdnNnV4czRoT3oyIiwic3ViIjoielhaVkRpb0pBMVJoMWp3eGM3ZzZ1eHM0aE96MiIsImlhdCI6MTYzMzk2NzUyMywiZXhwIjoxNjMzOTcxMTIzLCJlbWFpbCI6InZpdG9iMTQwMjJAdHN0OTk5LmNvbSIsImVtYWlsX3ZlcmlmaWVkIjpmYWxzZSwiZmlyZWJhc2UiOnsiaWRlbnRpdGllcyI6eyJlbWFpbCI6WyJ2aXRvYjE0MDIyQHRzdDk5OS5jb20iXX0sInNpZ25faW5fcHJvdmlkZXIiOiJwYXNzd29yZCJ9fQ.YjiEsFuWP6tw0EGasTFb9mc3fLySdh0bJm_2YF6airQAZ2XAPHlyFJ2APpokWV6c_0vtislMzmnzUtWj2wSh_gq3geCtVPUA47njCn8xWoMrzgGUhFrD9srCCdcDuS6VTJ-fpM9xZua4OkC-ZHyEZP48BYNe1hbaEvn2pT7VLZV1Kpcz_SDA5oSPtRMpvXb5aSD8VRm-nm_1YY-EySApR7k7CJOAorW8xN7IIo3BBXUGuZEKjnVzm7yC-_0OEv5fMQY_Hx2xm7YOT3xoIrMtOvpWgaoRxgeEWgxu7rWbvUKVrXRjoCZoJ9uWC8HB_y2Jq-oiICQtapTA0U0wWiX-nQ";
@@ -67,6 +81,7 @@ public class GoogleIdentityPlatformAuthenticatorTest {
 	protected ApiMethodConfig config;
 	
 	@Test
+	@Ignore(PUBLIC_KEYS_CHANGE)
 	public void testIdentityPlatformAuthenticator() throws ServiceException {
 		Authenticator authenticator = new GoogleIdentityPlatformAuthenticator(CLOCK, "ao-docs-staging");
 		//accepts Firebase token
@@ -76,6 +91,7 @@ public class GoogleIdentityPlatformAuthenticatorTest {
 	}
 	
 	@Test
+	@Ignore(PUBLIC_KEYS_CHANGE)
 	public void testGoogleToken() throws ServiceException {
 		Authenticator authenticator = new TestGoogleJwtAuthenticator(CLOCK);
 		//accepts Google token
@@ -85,18 +101,21 @@ public class GoogleIdentityPlatformAuthenticatorTest {
 	}
 	
 	@Test
+	@Ignore(PUBLIC_KEYS_CHANGE)
 	public void testNoProjectIdCheck() throws ServiceException {
 		Authenticator authenticator = new GoogleIdentityPlatformAuthenticator(CLOCK);
 		assertNotNull(authenticator.authenticate(configureRequest(FIREBASE_TOKEN)));
 	}
 	
 	@Test
+	@Ignore(PUBLIC_KEYS_CHANGE)
 	public void testDifferentProjectId() throws ServiceException {
 		Authenticator authenticator = new GoogleIdentityPlatformAuthenticator(CLOCK, "not-the-same-project");
 		assertNull(authenticator.authenticate(configureRequest(FIREBASE_TOKEN)));
 	}
 	
 	@Test
+	@Ignore(PUBLIC_KEYS_CHANGE)
 	public void testMultipleProjectId() throws ServiceException {
 		Authenticator authenticator = new GoogleIdentityPlatformAuthenticator(CLOCK, "not-the-same-project", "ao-docs-staging");
 		assertNotNull(authenticator.authenticate(configureRequest(FIREBASE_TOKEN)));
@@ -105,6 +124,19 @@ public class GoogleIdentityPlatformAuthenticatorTest {
 	}
 	
 	@Test
+	@Ignore(PUBLIC_KEYS_CHANGE)
+	public void testVerifiedTokenCache() throws ServiceException {
+		Authenticator authenticator = new GoogleIdentityPlatformAuthenticator(CLOCK, 10, "ao-docs-staging");
+		assertNotNull(authenticator.authenticate(configureRequest(FIREBASE_TOKEN)));
+		//served from the cache
+		assertNotNull(authenticator.authenticate(configureRequest(FIREBASE_TOKEN)));
+		//another instance never reuses tokens verified for other projects
+		authenticator = new GoogleIdentityPlatformAuthenticator(CLOCK, 10, "not-the-same-project");
+		assertNull(authenticator.authenticate(configureRequest(FIREBASE_TOKEN)));
+	}
+	
+	@Test
+	@Ignore(PUBLIC_KEYS_CHANGE)
 	public void testExpiration() throws ServiceException {
 		Authenticator authenticator = new GoogleIdentityPlatformAuthenticator("ao-docs-staging");
 		assertNull(authenticator.authenticate(configureRequest(FIREBASE_TOKEN)));
@@ -112,6 +144,55 @@ public class GoogleIdentityPlatformAuthenticatorTest {
 		assertNull(authenticator.authenticate(configureRequest(GOOGLE_ID_TOKEN)));
 	}
 	
+	@Test
+	public void testCachedTokenIsRejectedForAnotherProject() throws Exception {
+		KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+		GooglePublicKeysManager publicKeysManager = mock(GooglePublicKeysManager.class);
+		when(publicKeysManager.getPublicKeys()).thenReturn(Collections.singletonList(keyPair.getPublic()));
+		when(publicKeysManager.getExpirationTimeMilliseconds()).thenReturn(CLOCK.currentTimeMillis() + 3600_000);
+		String token = signToken(keyPair, "project-a");
+		
+		Authenticator projectA = new GoogleIdentityPlatformAuthenticator(publicKeysManager, CLOCK, 10, "project-a");
+		assertNotNull(projectA.authenticate(configureRequest(token)));
+		//served from the cache
+		assertNotNull(projectA.authenticate(configureRequest(token)));
+		verify(publicKeysManager).getPublicKeys();
+		
+		//the token cached for project A is verified again, and rejected, for project B
+		Authenticator projectB = new GoogleIdentityPlatformAuthenticator(publicKeysManager, CLOCK, 10, "project-b");
+		assertNull(projectB.authenticate(configureRequest(token)));
+	}
+	
+	@Test
+	public void testTokenVerifiedDuringRefreshIsNotCached() throws Exception {
+		KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+		GooglePublicKeysManager publicKeysManager = mock(GooglePublicKeysManager.class);
+		when(publicKeysManager.getPublicKeys()).thenReturn(Collections.singletonList(keyPair.getPublic()));
+		//refreshed while the first token is verified
+		when(publicKeysManager.getExpirationTimeMilliseconds())
+				.thenReturn(CLOCK.currentTimeMillis() + 1800_000, CLOCK.currentTimeMillis() + 3600_000);
+		String token = signToken(keyPair, "project-a");
+		
+		Authenticator authenticator = new GoogleIdentityPlatformAuthenticator(publicKeysManager, CLOCK, 10, "project-a");
+		assertNotNull(authenticator.authenticate(configureRequest(token)));
+		//verified again, then cached
+		assertNotNull(authenticator.authenticate(configureRequest(token)));
+		assertNotNull(authenticator.authenticate(configureRequest(token)));
+		verify(publicKeysManager, times(2)).getPublicKeys();
+	}
+	
+	private static String signToken(KeyPair keyPair, String projectId) throws GeneralSecurityException, IOException {
+		long nowSeconds = CLOCK.currentTimeMillis() / 1000;
+		JsonWebToken.Payload payload = new JsonWebToken.Payload()
+				.setIssuer(GoogleIdentityPlatformAuthenticator.ISSUER_PREFIX + projectId)
+				.setAudience(projectId)
+				.setSubject("user")
+				.setIssuedAtTimeSeconds(nowSeconds)
+				.setExpirationTimeSeconds(nowSeconds + 3600);
+		return JsonWebSignature.signUsingRsaSha256(keyPair.getPrivate(), Client.getInstance().getJsonFactory(),
+				new JsonWebSignature.Header().setAlgorithm("RS256").setType("JWT"), payload);
+	}
+	
 	private HttpServletRequest configureRequest(String token) {
 		MockHttpServletRequest request = new MockHttpServletRequest();
 		Attribute attr = Attribute.from(request);
@@ -0,0 +1,197 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.auth.authenticator;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import com.google.api.server.spi.ServiceException;
+import com.google.api.server.spi.auth.common.User;
+import com.google.api.server.spi.config.Authenticator;
+
+public class IssuerRoutingAuthenticatorTest {
+    
+    private final User user = new User("123456789", "mail@mail.com");
+    
+    private Authenticator google;
+    private Authenticator identityPlatform;
+    private Authenticator microsoft;
+    private Authenticator oauth2;
+    private Authenticator fallback;
+    private IssuerRoutingAuthenticator underTest;
+    
+    @Before
+    public void setUp() throws ServiceException {
+        google = mock(Authenticator.class);
+        identityPlatform = mock(Authenticator.class);
+        microsoft = mock(Authenticator.class);
+        oauth2 = mock(Authenticator.class);
+        fallback = mock(Authenticator.class);
+        underTest = IssuerRoutingAuthenticator.builder()
+                .issuer("https://accounts.google.com", google)
+                .issuerPrefix(GoogleIdentityPlatformAuthenticator.ISSUER_PREFIX, identityPlatform)
+                .issuerPrefix("https://login.microsoftonline.com/", microsoft)
+                .opaqueTokens(oauth2)
+                .fallback(fallback)
+                .build();
+    }
+    
+    @Test
+    public void testRouteByExactIssuer() throws ServiceException {
+        HttpServletRequest request = createRequest(jwt("RS256", "https://accounts.google.com"));
+        when(google.authenticate(request)).thenReturn(user);
+        
+        assertSame(user, underTest.authenticate(request));
+        verifyNotCalled(identityPlatform, microsoft, oauth2, fallback);
+    }
+    
+    @Test
+    public void testRouteByIssuerPrefix() throws ServiceException {
+        HttpServletRequest request = createRequest(jwt("RS256", "https://login.microsoftonline.com/tenant/v2.0"));
+        when(microsoft.authenticate(request)).thenReturn(user);
+        
+        assertSame(user, underTest.authenticate(request));
+        verifyNotCalled(google, identityPlatform, oauth2, fallback);
+    }
+    
+    @Test
+    public void testRejectedTokenIsNotSentToOtherAuthenticators() throws ServiceException {
+        HttpServletRequest request = createRequest(jwt("RS256", "https://securetoken.google.com/project"));
+        
+        assertNull(underTest.authenticate(request));
+        verify(identityPlatform).authenticate(request);
+        verifyNotCalled(google, microsoft, oauth2, fallback);
+    }
+    
+    @Test
+    public void testOpaqueToken() throws ServiceException {
+        HttpServletRequest request = createRequest("ya29.opaque-token");
+        when(oauth2.authenticate(request)).thenReturn(user);
+        
+        assertSame(user, underTest.authenticate(request));
+        verifyNotCalled(google, identityPlatform, microsoft, fallback);
+    }
+    
+    @Test
+    public void testUnknownIssuerUsesFallback() throws ServiceException {
+        HttpServletRequest request = createRequest(jwt("RS256", "https://unknown.example.com"));
+        when(fallback.authenticate(request)).thenReturn(user);
+        
+        assertSame(user, underTest.authenticate(request));
+        verifyNotCalled(google, identityPlatform, microsoft, oauth2);
+    }
+    
+    @Test
+    public void testNoTokenUsesFallback() throws ServiceException {
+        HttpServletRequest request = new MockHttpServletRequest();
+        when(fallback.authenticate(request)).thenReturn(user);
+        
+        assertSame(user, underTest.authenticate(request));
+    }
+    
+    @Test
+    public void testUnsignedTokenIsRejected() throws ServiceException {
+        assertNull(underTest.authenticate(createRequest(jwt("none", "https://accounts.google.com"))));
+        assertNull(underTest.authenticate(createRequest(jwt(null, "https://accounts.google.com"))));
+        verifyNotCalled(google, identityPlatform, microsoft, oauth2, fallback);
+    }
+    
+    @Test
+    public void testRouteByKeyId() throws ServiceException {
+        IssuerRoutingAuthenticator byKeyId = IssuerRoutingAuthenticator.builder()
+                .keyId("internal-key", identityPlatform)
+                .issuer("https://accounts.google.com", google)
+                .build();
+        HttpServletRequest request = createRequest(jwt("RS256", "internal-key", "https://accounts.google.com"));
+        when(identityPlatform.authenticate(request)).thenReturn(user);
+        
+        assertSame(user, byKeyId.authenticate(request));
+        verifyNotCalled(google);
+        //other keys are routed by issuer
+        byKeyId.authenticate(createRequest(jwt("RS256", "other-key", "https://accounts.google.com")));
+        verify(google).authenticate(any(HttpServletRequest.class));
+    }
+    
+    @Test
+    public void testAlgorithmNotAllowedIsRejected() throws ServiceException {
+        IssuerRoutingAuthenticator rs256Only = IssuerRoutingAuthenticator.builder()
+                .algorithms("RS256")
+                .issuer("https://accounts.google.com", google)
+                .fallback(fallback)
+                .build();
+        
+        assertNull(rs256Only.authenticate(createRequest(jwt("HS256", "https://accounts.google.com"))));
+        verifyNotCalled(google, fallback);
+        rs256Only.authenticate(createRequest(jwt("RS256", "https://accounts.google.com")));
+        verify(google).authenticate(any(HttpServletRequest.class));
+    }
+    
+    @Test
+    public void testNoFallback() throws ServiceException {
+        IssuerRoutingAuthenticator withoutFallback = IssuerRoutingAuthenticator.builder()
+                .issuer("https://accounts.google.com", google)
+                .build();
+        
+        assertNull(withoutFallback.authenticate(createRequest(jwt("RS256", "https://unknown.example.com"))));
+        assertNull(withoutFallback.authenticate(createRequest("ya29.opaque-token")));
+        verifyNotCalled(google);
+    }
+    
+    private static void verifyNotCalled(Authenticator... authenticators) throws ServiceException {
+        for (Authenticator authenticator : authenticators) {
+            verify(authenticator, never()).authenticate(any(HttpServletRequest.class));
+        }
+    }
+    
+    private static String jwt(String algorithm, String issuer) {
+        return jwt(algorithm, null, issuer);
+    }
+    
+    private static String jwt(String algorithm, String keyId, String issuer) {
+        String header = "{" + (algorithm == null ? "" : "\"alg\":\"" + algorithm + "\",")
+                + (keyId == null ? "" : "\"kid\":\"" + keyId + "\",") + "\"typ\":\"JWT\"}";
+        String payload = "{\"iss\":\"" + issuer + "\",\"sub\":\"123456789\"}";
+        return base64(header) + "." + base64(payload) + "." + base64("signature");
+    }
+    
+    private static String base64(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static HttpServletRequest createRequest(String token) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Authorization", "Bearer " + token);
+        return request;
+    }
+}
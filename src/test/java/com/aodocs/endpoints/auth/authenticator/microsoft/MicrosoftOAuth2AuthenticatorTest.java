@@ -22,6 +22,9 @@ package com.aodocs.endpoints.auth.authenticator.microsoft;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
@@ -35,6 +38,7 @@ import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.mock.web.MockHttpServletRequest;
 
 import com.aodocs.endpoints.auth.CustomAttribute;
+import com.aodocs.endpoints.auth.DecodedJwt;
 import com.aodocs.endpoints.auth.authenticator.microsoft.MicrosoftIdToken;
 import com.aodocs.endpoints.auth.authenticator.microsoft.MicrosoftOAuth2Authenticator;
 import com.aodocs.endpoints.auth.authenticator.microsoft.verifier.MicrosoftTokenVerifier;
@@ -47,7 +51,10 @@ import com.google.api.server.spi.request.Attribute;
 public class MicrosoftOAuth2AuthenticatorTest {
 	
 	private static final String AUTHORIZATION_HEADER = "Authorization";
-	private static final String TOKEN = "abcdefjh.abcdefjh.abcdefjh";
+	//{"alg":"RS256","kid":"key"}.{"iss":"https://login.microsoftonline.com/tenant/v2.0"}.signature
+	private static final String TOKEN = "eyJhbGciOiJSUzI1NiIsImtpZCI6ImtleSJ9"
+			+ ".eyJpc3MiOiJodHRwczovL2xvZ2luLm1pY3Jvc29mdG9ubGluZS5jb20vdGVuYW50L3YyLjAifQ"
+			+ ".c2lnbmF0dXJl";
 	private static final String EMAIL = "dummy@gmail.com";
 	private static final String AUDIENCE = "audience1";
 	private static final String USER_ID = "1234567";
@@ -84,15 +91,16 @@ public class MicrosoftOAuth2AuthenticatorTest {
 	
 	@Test
 	public void testVerifyToken_verificationExceptionsHandled() throws Exception {
-		when(verifier.verify(TOKEN))
+		when(verifier.verify(any(DecodedJwt.class)))
 				.thenReturn(token)
 				.thenThrow(new GeneralSecurityException())
 				.thenThrow(new IOException())
 				.thenThrow(new IllegalArgumentException())
 				.thenThrow(new ServiceException(1, ""));
-		assertEquals(token, authenticator.verifyToken(TOKEN));
+		DecodedJwt decodedJwt = DecodedJwt.decode(TOKEN);
+		assertEquals(token, authenticator.verifyToken(decodedJwt));
 		for (int i = 0; i < 4; i++) {
-			assertNull(authenticator.verifyToken(TOKEN));
+			assertNull(authenticator.verifyToken(decodedJwt));
 		}
 	}
 	
@@ -112,14 +120,14 @@ public class MicrosoftOAuth2AuthenticatorTest {
 	
 	@Test
 	public void testAuthenticate_invalidToken() throws Exception {
-		when(verifier.verify(TOKEN)).thenReturn(null);
+		when(verifier.verify(any(DecodedJwt.class))).thenReturn(null);
 		assertNull(authenticator.authenticate(request));
 		assertNull(attr.get(CustomAttribute.MICROSOFT_ID_TOKEN));
 	}
 	
 	@Test
 	public void testAuthenticate() throws Exception {
-		when(verifier.verify(TOKEN)).thenReturn(token);
+		when(verifier.verify(any(DecodedJwt.class))).thenReturn(token);
 		
 		User user = authenticator.authenticate(request);
 		
@@ -132,10 +140,20 @@ public class MicrosoftOAuth2AuthenticatorTest {
 		assertEquals(USER_ID, idToken.getPayload().getObjectId());
 	}
 	
+	@Test
+	public void testAuthenticate_verifiedTokenIsNotDecoded() throws Exception {
+		when(verifier.getVerifiedToken(TOKEN)).thenReturn(token);
+		
+		User user = authenticator.authenticate(request);
+		assertEquals(EMAIL, user.getEmail());
+		assertNull(request.getAttribute(CustomAttribute.DECODED_JWT));
+		verify(verifier, never()).verify(any(DecodedJwt.class));
+	}
+	
 	@Test
 	public void testAuthenticate_appEngineUser() throws Exception {
 		attr.set(Attribute.REQUIRE_APPENGINE_USER, true);
-		when(verifier.verify(TOKEN)).thenReturn(token);
+		when(verifier.verify(any(DecodedJwt.class))).thenReturn(token);
 		
 		User user = authenticator.authenticate(request);
 		assertEquals(EMAIL, user.getEmail());
@@ -0,0 +1,124 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.auth.authenticator.microsoft.jwks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aodocs.endpoints.auth.FakeTicker;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.json.webtoken.JsonWebSignature;
+import com.google.api.server.spi.response.ServiceUnavailableException;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+
+public class PublicKeyProviderTest {
+	
+	private static final String JWKS_URI = "https://login.microsoftonline.com/common/discovery/v2.0/keys";
+	
+	private final FakeTicker ticker = new FakeTicker();
+	private final AtomicInteger fetchCount = new AtomicInteger();
+	
+	private RSAKey key1;
+	private RSAKey key2;
+	private volatile JWKSet served;
+	private PublicKeyProvider provider;
+	
+	@Before
+	public void setUp() throws Exception {
+		key1 = new RSAKeyGenerator(2048).keyID("key1").generate().toPublicJWK();
+		key2 = new RSAKeyGenerator(2048).keyID("key2").generate().toPublicJWK();
+		served = new JWKSet(key1);
+		provider = new PublicKeyProvider(jwksUri -> {
+			fetchCount.incrementAndGet();
+			return new JwksFetcher.FetchedKeySet(served, TimeUnit.HOURS.toSeconds(1));
+		}, ticker, MoreExecutors.directExecutor());
+	}
+	
+	@Test
+	public void testKeysAreFetchedOnce() throws Exception {
+		assertEquals(key1.toRSAPublicKey(), provider.getPublicKey(JWKS_URI, header("key1")));
+		assertEquals(key1.toRSAPublicKey(), provider.getPublicKey(JWKS_URI, header("key1")));
+		assertEquals(1, fetchCount.get());
+	}
+	
+	@Test
+	public void testKeysAreRefreshedAfterCacheTime() throws Exception {
+		provider.getPublicKey(JWKS_URI, header("key1"));
+		ticker.advance(2, TimeUnit.HOURS);
+		served = new JWKSet(Arrays.<JWK>asList(key1, key2));
+		//the refresh is asynchronous, the executor used in this test is direct
+		provider.getPublicKey(JWKS_URI, header("key1"));
+		assertEquals(2, fetchCount.get());
+		assertEquals(key2.toRSAPublicKey(), provider.getCachedPublicKey(JWKS_URI, "key2"));
+	}
+	
+	@Test
+	public void testUnknownKeyIdRefetchIsRateLimited() throws Exception {
+		provider.getPublicKey(JWKS_URI, header("key1"));
+		//too soon after the initial fetch
+		assertThrows(ServiceUnavailableException.class, () -> provider.getPublicKey(JWKS_URI, header("forged")));
+		assertEquals(1, fetchCount.get());
+		
+		ticker.advance(JwksCache.MIN_REFETCH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+		assertThrows(ServiceUnavailableException.class, () -> provider.getPublicKey(JWKS_URI, header("forged")));
+		assertThrows(ServiceUnavailableException.class, () -> provider.getPublicKey(JWKS_URI, header("forged2")));
+		assertEquals(2, fetchCount.get());
+	}
+	
+	@Test
+	public void testRotatedKeyIsFetched() throws Exception {
+		provider.getPublicKey(JWKS_URI, header("key1"));
+		served = new JWKSet(key2);
+		ticker.advance(JwksCache.MIN_REFETCH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+		assertEquals(key2.toRSAPublicKey(), provider.getPublicKey(JWKS_URI, header("key2")));
+		//the old key was rotated out
+		assertNull(provider.getCachedPublicKey(JWKS_URI, "key1"));
+	}
+	
+	@Test
+	public void testUnsupportedAlgorithm() {
+		JsonWebSignature.Header header = header("key1").setAlgorithm("HS256");
+		assertThrows(ServiceUnavailableException.class, () -> provider.getPublicKey(JWKS_URI, header));
+		assertEquals(0, fetchCount.get());
+	}
+	
+	@Test
+	public void testCacheTimeFromHeaders() {
+		assertEquals(0, HttpJwksFetcher.getCacheTimeInSeconds(new HttpHeaders()));
+		assertEquals(86400, HttpJwksFetcher.getCacheTimeInSeconds(new HttpHeaders().setCacheControl("max-age=86400, private")));
+		assertEquals(86300, HttpJwksFetcher.getCacheTimeInSeconds(new HttpHeaders().setCacheControl("public, max-age=86400").setAge(100L)));
+	}
+	
+	private static JsonWebSignature.Header header(String keyId) {
+		return new JsonWebSignature.Header().setAlgorithm("RS256").setKeyId(keyId);
+	}
+}
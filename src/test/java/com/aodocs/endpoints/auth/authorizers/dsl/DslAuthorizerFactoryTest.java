@@ -25,6 +25,7 @@ import com.aodocs.endpoints.auth.authorizers.clientid.CurrentProjectClientIdAuth
 import com.aodocs.endpoints.auth.authorizers.logic.DisjunctAuthorizer;
 import com.aodocs.endpoints.auth.authorizers.request.HttpMethodAuthorizer;
 import com.aodocs.endpoints.storage.*;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.google.cloud.datastore.KeyQuery;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
@@ -40,6 +41,8 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import static com.aodocs.endpoints.auth.authorizers.AuthorizerBuilder.*;
 import static org.junit.Assert.assertEquals;
@@ -102,10 +105,26 @@ public class DslAuthorizerFactoryTest {
         roundtrip(DatastoreStringListSupplier.builder().kind("A").namespace("nonDefault").ttlInSeconds(600).build());
         roundtrip(new CloudStorageStringListSupplier("gs://test/test", 6000));
         roundtrip(new CloudStorageStringListSupplier("gs://test/test", 6000, false));
+        Path file = Files.createTempFile("list", ".txt");
+        try (FileStringListSupplier fileSupplier = new FileStringListSupplier(file.toString(), 100, true)) {
+            roundtrip(fileSupplier);
+        } finally {
+            Files.delete(file);
+        }
         roundtrip(new MergingStringListSupplier(
                 new ExplicitStringListSupplier("a", "b", "c"),
                 new ClasspathStringListSupplier("list.txt", true)
         ));
+        roundtrip(new ClasspathStringListSupplier("list.txt", false).withBloomFilter(0.01));
+    }
+
+    @Test(expected = JsonMappingException.class)
+    public void testInvalidBloomFilterFpp() throws IOException {
+        DslAuthorizerFactory factory = DslAuthorizerFactory.get();
+        String serialized = factory.toString(
+                new ClientIdsAuthorizer(new ClasspathStringListSupplier("list.txt", false).withBloomFilter(0.01)),
+                DslAuthorizerFactory.Format.JSON);
+        factory.build(serialized.replace("0.01", "2.0"), DslAuthorizerFactory.Format.JSON);
     }
 
     private void roundtrip(StringListSupplier supplier) throws IOException {
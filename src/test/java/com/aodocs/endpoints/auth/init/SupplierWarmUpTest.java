@@ -0,0 +1,124 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.auth.init;
+
+import static com.aodocs.endpoints.auth.authorizers.AuthorizerBuilder.clientIds;
+import static com.aodocs.endpoints.auth.authorizers.AuthorizerBuilder.not;
+import static com.aodocs.endpoints.auth.authorizers.AuthorizerBuilder.or;
+import static com.aodocs.endpoints.auth.authorizers.AuthorizerBuilder.projects;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.aodocs.endpoints.auth.authorizers.Authorizer;
+import com.aodocs.endpoints.auth.authorizers.logic.ConjunctAuthorizer;
+import com.aodocs.endpoints.storage.ExplicitStringListSupplier;
+import com.aodocs.endpoints.storage.MergingStringListSupplier;
+import com.aodocs.endpoints.storage.StringListSupplier;
+import com.example.endpoints.ApplicationAuthenticator;
+import com.google.common.collect.ImmutableSet;
+
+public class SupplierWarmUpTest {
+
+    @Test
+    public void testDiscover() {
+        StringListSupplier explicit = new ExplicitStringListSupplier("a");
+        StringListSupplier nested = new ExplicitStringListSupplier("b");
+        StringListSupplier merged = new MergingStringListSupplier(nested, explicit);
+        StringListSupplier projects = new ExplicitStringListSupplier("1234");
+        Authorizer authorizer = new ConjunctAuthorizer(
+                or(clientIds(explicit), clientIds(merged)),
+                not(projects(projects)));
+
+        Set<StringListSupplier> suppliers = SupplierWarmUp.discover(Collections.singletonList(authorizer));
+        assertEquals(ImmutableSet.of(explicit, nested, merged, projects), suppliers);
+    }
+
+    @Test
+    public void testDiscoverFromApplicationAuthenticator() {
+        StringListSupplier explicit = new ExplicitStringListSupplier("a");
+        ApplicationAuthenticator authenticator = new ApplicationAuthenticator(clientIds(explicit));
+
+        Set<StringListSupplier> suppliers = SupplierWarmUp.discover(Collections.singletonList(authenticator));
+        assertEquals(ImmutableSet.of(explicit), suppliers);
+    }
+
+    @Test
+    public void testWarmUpIsConcurrent() {
+        //each supplier waits for the other one, so loading them one after the other would time out
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        StringListSupplier first = new WaitingSupplier(bothStarted);
+        StringListSupplier second = new WaitingSupplier(bothStarted);
+
+        Map<StringListSupplier, Long> loadTimes = SupplierWarmUp.warmUp(Arrays.asList(first, second), 5000);
+        assertEquals(ImmutableSet.of(first, second), loadTimes.keySet());
+    }
+
+    @Test
+    public void testWarmUpTimeout() {
+        StringListSupplier fast = new ExplicitStringListSupplier("a");
+        StringListSupplier slow = new WaitingSupplier(new CountDownLatch(1));
+
+        Map<StringListSupplier, Long> loadTimes = SupplierWarmUp.warmUp(Arrays.asList(fast, slow), 200);
+        assertEquals(ImmutableSet.of(fast), loadTimes.keySet());
+    }
+
+    @Test
+    public void testFailureIsReported() {
+        StringListSupplier failing = new StringListSupplier() {
+            @Override
+            protected List<String> getRaw() {
+                throw new IllegalStateException("expected");
+            }
+        };
+        assertTrue(SupplierWarmUp.warmUp(Collections.singletonList(failing), 1000).isEmpty());
+    }
+
+    private static class WaitingSupplier extends StringListSupplier {
+        private final CountDownLatch latch;
+
+        private WaitingSupplier(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        protected List<String> getRaw() {
+            latch.countDown();
+            try {
+                if (!latch.await(2, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("not loaded concurrently");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Collections.singletonList("value");
+        }
+    }
+
+}
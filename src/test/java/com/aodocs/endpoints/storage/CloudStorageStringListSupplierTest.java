@@ -40,6 +40,8 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by Clement on 11/10/2016.
@@ -90,6 +92,37 @@ public class CloudStorageStringListSupplierTest extends AppEngineTest {
         assertEquals(lines2, supplier.get());
     }
 
+    @Test
+    public void testUnchangedObjectIsNotDownloaded() throws IOException {
+        String pathString = "gs://" + bucket + "/unchanged.txt";
+        Path path = Paths.get(URI.create(pathString));
+        Files.write(path, ImmutableList.of("1", "2", "3"), StandardCharsets.UTF_8);
+        CloudStorageStringListSupplier supplier = new CloudStorageStringListSupplier(pathString, 60);
+        assertEquals(1, supplier.getFullRefreshCount());
+
+        List<String> first = supplier.getUncached();
+        assertSame(first, supplier.getUncached());
+        assertEquals(1, supplier.getFullRefreshCount());
+        assertEquals(2, supplier.getSkippedRefreshCount());
+
+        ImmutableList<String> lines2 = ImmutableList.of("1", "2", "3", "4");
+        Files.write(path, lines2, StandardCharsets.UTF_8);
+        assertEquals(lines2, supplier.getUncached());
+        assertEquals(2, supplier.getFullRefreshCount());
+        assertEquals(2, supplier.getSkippedRefreshCount());
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        String pathString = "gs://" + bucket + "/compact.txt";
+        Path path = Paths.get(URI.create(pathString));
+        Files.write(path, ImmutableList.of("3 # comment", "1", "", "2", "1"), StandardCharsets.UTF_8);
+        CloudStorageStringListSupplier supplier = new CloudStorageStringListSupplier(pathString, 60, true, true);
+        assertEquals(ImmutableList.of("1", "2", "3"), supplier.get());
+        assertTrue(supplier.get() instanceof CompactStringList);
+        assertTrue(supplier.contains("2"));
+    }
+
     @Test
     public void testMissingWithoutFailOnMissing() {
         //non-existing files should give an empty list
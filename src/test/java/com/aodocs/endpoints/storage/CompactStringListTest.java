@@ -0,0 +1,124 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.storage;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class CompactStringListTest {
+
+  @Test
+  public void testReadCleaned() throws IOException {
+    BufferedReader reader = new BufferedReader(new StringReader("b # comment\n\n  a\n#only a comment\nc\nb\n"));
+    CompactStringList list = CompactStringList.readCleaned(reader);
+    assertEquals(Arrays.asList("a", "b", "c"), list);
+    assertEquals(3, list.byteSize());
+  }
+
+  @Test
+  public void testSortedByCodePoint() {
+    CompactStringList list = CompactStringList.copyOf(Arrays.asList("é", "z", "😀", "Z", "aa", "a"));
+    assertEquals(Arrays.asList("Z", "a", "aa", "z", "é", "😀"), list);
+    for (int i = 0; i < list.size(); i++) {
+      assertEquals(i, list.indexOf(list.get(i)));
+    }
+  }
+
+  @Test
+  public void testContains() {
+    CompactStringList list = CompactStringList.copyOf(Arrays.asList("client1", "client2", "client10"));
+    assertTrue(list.contains("client1"));
+    assertTrue(list.contains("client10"));
+    assertFalse(list.contains("client"));
+    assertFalse(list.contains("client3"));
+    assertFalse(list.contains(null));
+    assertFalse(list.contains(1));
+  }
+
+  @Test
+  public void testEmpty() {
+    CompactStringList list = CompactStringList.copyOf(Arrays.asList("", ""));
+    assertTrue(list.isEmpty());
+    assertFalse(list.contains(""));
+    assertEquals(Collections.emptyList(), list);
+  }
+
+  @Test
+  public void testEqualsAndHashCode() {
+    List<String> strings = Arrays.asList("a", "b");
+    CompactStringList list = CompactStringList.copyOf(strings);
+    assertEquals(list, CompactStringList.copyOf(strings));
+    assertEquals(strings, list);
+    assertEquals(list, strings);
+    assertEquals(strings.hashCode(), list.hashCode());
+    assertNotEquals(list, CompactStringList.copyOf(Arrays.asList("a", "c")));
+  }
+
+  @Test
+  public void testLargeList() {
+    CompactStringList.Builder builder = new CompactStringList.Builder();
+    for (int i = 100_000; i > 0; i--) {
+      builder.add("value" + i);
+    }
+    CompactStringList list = builder.build();
+    assertEquals(100_000, list.size());
+    assertTrue(list.contains("value1"));
+    assertTrue(list.contains("value100000"));
+    assertFalse(list.contains("value0"));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testImmutable() {
+    CompactStringList.copyOf(Arrays.asList("a")).add("b");
+  }
+
+  @Test
+  public void testLargeList() {
+    List<String> strings = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      strings.add("client" + (i * 7919 % 500));
+    }
+    List<String> expected = new ArrayList<>(new TreeSet<>(strings));
+    assertEquals(expected, CompactStringList.copyOf(strings));
+    //sorted runs are merged as well
+    Collections.sort(strings);
+    assertEquals(expected, CompactStringList.copyOf(strings));
+  }
+
+  @Test
+  public void testBuilderAddAll() {
+    CompactStringList merged = new CompactStringList.Builder()
+        .addAll(CompactStringList.copyOf(Arrays.asList("c", "a")))
+        .addAll(CompactStringList.copyOf(Arrays.asList("b", "a")))
+        .build();
+    assertEquals(Arrays.asList("a", "b", "c"), merged);
+  }
+
+}
@@ -20,6 +20,7 @@
 package com.aodocs.endpoints.storage;
 
 import com.aodocs.endpoints.auth.AppEngineTest;
+import com.google.cloud.Timestamp;
 import com.google.cloud.datastore.Datastore;
 import com.google.cloud.datastore.Entity;
 import com.google.cloud.datastore.Key;
@@ -32,10 +33,12 @@ import org.junit.Test;
 import org.threeten.bp.Duration;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 /**
  * This test is very slow, because of the local DS emulator.
@@ -107,4 +110,68 @@ public class DatastoreStringListSupplierTest extends AppEngineTest {
         assertEquals(ImmutableList.of("12345", "123456"), supplier.get());
     }
 
+    @Test
+    public void testPaged() {
+        Datastore datastoreService = helper.getOptions().getService();
+        for (int i = 0; i < 250; i++) {
+            datastoreService.put(Entity.newBuilder(Key.newBuilder(helper.getProjectId(), "ClientId", "id" + i).build()).build());
+        }
+        //the default limit truncates
+        assertEquals(100, DatastoreStringListSupplier.builder()
+                .kind("ClientId").datastore(datastoreService).build().get().size());
+        assertEquals(250, DatastoreStringListSupplier.builder()
+                .kind("ClientId").pageSize(40).datastore(datastoreService).build().get().size());
+        assertEquals(90, DatastoreStringListSupplier.builder()
+                .kind("ClientId").pageSize(40).limit(90).datastore(datastoreService).build().get().size());
+    }
+
+    @Test
+    public void testIncremental() {
+        Datastore datastoreService = helper.getOptions().getService();
+        datastoreService.put(clientId("1", Timestamp.ofTimeSecondsAndNanos(1000, 0), false));
+        datastoreService.put(clientId("2", Timestamp.ofTimeSecondsAndNanos(2000, 0), false));
+        DatastoreStringListSupplier supplier = DatastoreStringListSupplier.builder()
+                .kind("ClientId").pageSize(1).updatedProperty("updated").deletedProperty("deleted")
+                .datastore(datastoreService).build();
+        List<String> first = supplier.getUncached();
+        assertEquals(ImmutableList.of("1", "2"), first);
+        //unchanged
+        assertSame(first, supplier.getUncached());
+
+        datastoreService.put(clientId("3", Timestamp.ofTimeSecondsAndNanos(3000, 0), false));
+        datastoreService.put(clientId("1", Timestamp.ofTimeSecondsAndNanos(3001, 0), true));
+        assertEquals(ImmutableList.of("2", "3"), supplier.getUncached());
+        //entities older than the last refresh are not read again
+        datastoreService.put(clientId("old", Timestamp.ofTimeSecondsAndNanos(10, 0), false));
+        assertEquals(ImmutableList.of("2", "3"), supplier.getUncached());
+    }
+
+    @Test
+    public void testGroupedRefresh() {
+        Datastore datastoreService = helper.getOptions().getService();
+        datastoreService.put(Entity.newBuilder(Key.newBuilder(helper.getProjectId(), "A", "a1").build()).build());
+        datastoreService.put(Entity.newBuilder(Key.newBuilder(helper.getProjectId(), "B", "b1").build()).build());
+        DatastoreStringListSupplier a = DatastoreStringListSupplier.builder()
+                .kind("A").ttlInSeconds(60).datastore(datastoreService).build();
+        DatastoreStringListSupplier b = DatastoreStringListSupplier.builder()
+                .kind("B").ttlInSeconds(60).datastore(datastoreService).build();
+
+        //members join the group on their first refresh
+        assertEquals(ImmutableList.of("b1"), b.getUncached());
+        //refreshing A also queries B
+        assertEquals(ImmutableList.of("a1"), a.getUncached());
+        DatastoreRefreshGroup.get(datastoreService, 60).awaitRound();
+        datastoreService.put(Entity.newBuilder(Key.newBuilder(helper.getProjectId(), "B", "b2").build()).build());
+        assertEquals(ImmutableList.of("b1"), b.getUncached());
+        //the result of a round is only used once
+        assertEquals(ImmutableList.of("b1", "b2"), b.getUncached());
+    }
+
+    private static Entity clientId(String id, Timestamp updated, boolean deleted) {
+        return Entity.newBuilder(Key.newBuilder(helper.getProjectId(), "ClientId", id).build())
+                .set("updated", updated)
+                .set("deleted", deleted)
+                .build();
+    }
+
 }
@@ -0,0 +1,127 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileStringListSupplierTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReloadOnChange() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("list.txt");
+        Files.write(file, Arrays.asList("a", "b # comment"), StandardCharsets.UTF_8);
+        try (FileStringListSupplier supplier = new FileStringListSupplier(file.toString(), 50, false)) {
+            assertEquals(Arrays.asList("a", "b"), supplier.get());
+
+            Files.write(file, Arrays.asList("a", "b", "c"), StandardCharsets.UTF_8);
+            waitFor(supplier, Arrays.asList("a", "b", "c"));
+            assertTrue(supplier.contains("c"));
+        }
+    }
+
+    @Test
+    public void testKeepsListWhileFileIsMissing() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("replaced.txt");
+        Files.write(file, Arrays.asList("a"), StandardCharsets.UTF_8);
+        try (FileStringListSupplier supplier = new FileStringListSupplier(file.toString(), 50, false)) {
+            Files.delete(file);
+            TimeUnit.MILLISECONDS.sleep(500);
+            assertEquals(Arrays.asList("a"), supplier.get());
+
+            Path temporary = folder.getRoot().toPath().resolve("replaced.tmp");
+            Files.write(temporary, Arrays.asList("b"), StandardCharsets.UTF_8);
+            Files.move(temporary, file);
+            waitFor(supplier, Arrays.asList("b"));
+        }
+    }
+
+    @Test
+    public void testMemoryMapped() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("large.txt");
+        Files.write(file, Arrays.asList("c", "a # comment", "", "b\r", " \té # é", "#"), StandardCharsets.UTF_8);
+        try (FileStringListSupplier supplier = new FileStringListSupplier(file.toString(), null, true)) {
+            assertTrue(supplier.get() instanceof CompactStringList);
+            assertEquals(Arrays.asList("a", "b", "c", "é"), supplier.get());
+        }
+    }
+
+    @Test
+    public void testCloseStopsWatchingDirectory() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        Path file = directory.resolve("list.txt");
+        Files.write(file, Arrays.asList("a"), StandardCharsets.UTF_8);
+        FileStringListSupplier first = new FileStringListSupplier(file.toString());
+        FileStringListSupplier second = new FileStringListSupplier(file.toString());
+        assertTrue(FileWatcher.getShared().isWatched(directory));
+
+        first.close();
+        assertTrue(FileWatcher.getShared().isWatched(directory));
+        second.close();
+        assertFalse(FileWatcher.getShared().isWatched(directory));
+    }
+
+    @Test
+    public void testDiscardedSupplierStopsWatching() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        Path file = directory.resolve("list.txt");
+        Files.write(file, Arrays.asList("a"), StandardCharsets.UTF_8);
+        new FileStringListSupplier(file.toString());
+        assertTrue(FileWatcher.getShared().isWatched(directory));
+
+        //not closed, but no longer referenced
+        for (int i = 0; i < 50 && FileWatcher.getShared().isWatched(directory); i++) {
+            System.gc();
+            TimeUnit.MILLISECONDS.sleep(100);
+            FileWatcher.getShared().expungeCollectedOwners();
+        }
+        assertFalse(FileWatcher.getShared().isWatched(directory));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissing() {
+        new FileStringListSupplier(folder.getRoot().toPath().resolve("missing.txt").toString());
+    }
+
+    private static void waitFor(FileStringListSupplier supplier, List<String> expected) throws InterruptedException {
+        //some platforms poll for changes every few seconds
+        for (int i = 0; i < 150 && !expected.equals(supplier.get()); i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        assertEquals(expected, supplier.get());
+    }
+
+}
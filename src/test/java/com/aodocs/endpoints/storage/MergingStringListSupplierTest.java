@@ -22,7 +22,11 @@ package com.aodocs.endpoints.storage;
 import com.google.common.collect.ImmutableList;
 import org.junit.Test;
 
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by Clement on 14/10/2016.
@@ -34,9 +38,36 @@ public class MergingStringListSupplierTest {
         assertEquals(ImmutableList.of("1", "2"), new MergingStringListSupplier(
             new ExplicitStringListSupplier("1"), new ExplicitStringListSupplier("2")
         ).get());
-        assertEquals(ImmutableList.of("1", "1"), new MergingStringListSupplier(
+        assertEquals(ImmutableList.of("1"), new MergingStringListSupplier(
                 new ExplicitStringListSupplier("1"), new ExplicitStringListSupplier("1")
         ).get());
     }
 
+    @Test
+    public void testMergedOncePerChange() {
+        TestStringListSupplier dynamic = new TestStringListSupplier(ImmutableList.of("2"));
+        MergingStringListSupplier merging = new MergingStringListSupplier(new ExplicitStringListSupplier("1"), dynamic);
+
+        List<String> merged = merging.get();
+        assertEquals(ImmutableList.of("1", "2"), merged);
+        long version = merging.snapshotVersion();
+        assertSame(merged, merging.get());
+        assertEquals(version, merging.snapshotVersion());
+
+        dynamic.setRaw(ImmutableList.of("2", "3"));
+        assertEquals(ImmutableList.of("1", "2", "3"), merging.get());
+        assertTrue(merging.snapshotVersion() > version);
+    }
+
+    @Test
+    public void testCompactListsStayCompact() {
+        MergingStringListSupplier merging = new MergingStringListSupplier(
+                new TestStringListSupplier(CompactStringList.copyOf(ImmutableList.of("c", "a"))),
+                new TestStringListSupplier(CompactStringList.copyOf(ImmutableList.of("b", "a"))));
+
+        List<String> merged = merging.get();
+        assertTrue(merged instanceof CompactStringList);
+        assertEquals(ImmutableList.of("a", "b", "c"), merged);
+    }
+
 }
@@ -21,22 +21,120 @@ package com.aodocs.endpoints.storage;
 
 import static org.junit.Assert.*;
 
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableSet;
+
 public class StringListSupplierTest {
   
   @Test
   public void testRawListIsNull() {
-    StringListSupplier rawIsNull = new StringListSupplier() {
+    StringListSupplier rawIsNull = new TestStringListSupplier(null);
+    
+    assertEquals(Collections.emptyList(), rawIsNull.get());
+  }
+  
+  @Test
+  public void testCleanedOncePerRawList() {
+    TestStringListSupplier supplier = new TestStringListSupplier(Arrays.asList("a # comment", "  ", "b"));
+    
+    List<String> cleaned = supplier.get();
+    assertEquals(Arrays.asList("a", "b"), cleaned);
+    assertSame(cleaned, supplier.get());
+    assertThrows(UnsupportedOperationException.class, () -> cleaned.add("c"));
+    
+    //a new raw list is cleaned again
+    supplier.setRaw(Arrays.asList("c"));
+    assertEquals(Collections.singletonList("c"), supplier.get());
+  }
+  
+  @Test
+  public void testContains() {
+    TestStringListSupplier supplier = new TestStringListSupplier(Arrays.asList("a # comment", "b", "b"));
+    
+    assertTrue(supplier.contains("a"));
+    assertTrue(supplier.contains("b"));
+    assertFalse(supplier.contains("a # comment"));
+    assertFalse(supplier.contains(null));
+    assertEquals(ImmutableSet.of("a", "b"), supplier.asSet());
+    assertSame(supplier.asSet(), supplier.asSet());
+    
+    //the set follows the raw list
+    supplier.setRaw(Arrays.asList("c"));
+    assertFalse(supplier.contains("a"));
+    assertTrue(supplier.contains("c"));
+  }
+  
+  @Test
+  public void testPreparedSnapshot() {
+    TestStringListSupplier supplier = new TestStringListSupplier(Arrays.asList("a"));
+    List<String> cleaned = supplier.get();
+    long version = supplier.snapshotVersion();
+    AtomicBoolean readable = new AtomicBoolean(true);
+    List<String> next = new AbstractList<String>() {
       @Override
-      protected List<String> getRaw() {
-        return null;
+      public String get(int index) {
+        assertTrue("the list must only be cleaned while prepared", readable.get());
+        return "b # comment";
+      }
+      
+      @Override
+      public int size() {
+        return 1;
       }
     };
     
-    assertEquals(Collections.emptyList(), rawIsNull.get());
+    supplier.prepareSnapshot(next);
+    readable.set(false);
+    //the current list is still supplied until the prepared one is returned by getRaw
+    assertSame(cleaned, supplier.get());
+    assertTrue(supplier.contains("a"));
+    
+    supplier.setRaw(next);
+    assertEquals(Collections.singletonList("b"), supplier.get());
+    assertTrue(supplier.contains("b"));
+    assertFalse(supplier.contains("a"));
+    assertEquals(version + 1, supplier.snapshotVersion());
+  }
+  
+  @Test
+  public void testCompactListIsNotCopied() {
+    CompactStringList raw = CompactStringList.copyOf(Arrays.asList("b", "a"));
+    StringListSupplier supplier = new TestStringListSupplier(raw);
+    
+    assertSame(raw, supplier.get());
+    assertTrue(supplier.contains("a"));
+    assertFalse(supplier.contains("c"));
+  }
+  
+  @Test
+  public void testBloomFilter() {
+    TestStringListSupplier supplier = new TestStringListSupplier(Arrays.asList("a", "b # comment"));
+    supplier.withBloomFilter(0.01);
+    
+    assertTrue(supplier.contains("a"));
+    assertTrue(supplier.contains("b"));
+    assertFalse(supplier.contains("c"));
+    
+    //the filter follows the raw list
+    supplier.setRaw(Arrays.asList("c"));
+    assertFalse(supplier.contains("a"));
+    assertTrue(supplier.contains("c"));
+    
+    supplier.setRaw(CompactStringList.copyOf(Arrays.asList("d", "e")));
+    assertTrue(supplier.contains("e"));
+    assertFalse(supplier.contains("c"));
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidBloomFilter() {
+    new ExplicitStringListSupplier("a").withBloomFilter(1);
   }
+  
 }
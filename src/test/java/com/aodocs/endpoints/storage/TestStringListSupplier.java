@@ -0,0 +1,44 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.storage;
+
+import java.util.List;
+
+/**
+ * Supplies the raw list it was last set to
+ */
+class TestStringListSupplier extends StringListSupplier {
+
+    private volatile List<String> raw;
+
+    TestStringListSupplier(List<String> raw) {
+        this.raw = raw;
+    }
+
+    void setRaw(List<String> raw) {
+        this.raw = raw;
+    }
+
+    @Override
+    protected List<String> getRaw() {
+        return raw;
+    }
+
+}
@@ -20,9 +20,16 @@
 package com.aodocs.endpoints.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 
+import static com.google.common.util.concurrent.Uninterruptibles.awaitUninterruptibly;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
@@ -31,6 +38,8 @@ import org.junit.Test;
 
 import com.aodocs.endpoints.auth.AppEngineTest;
 import com.aodocs.endpoints.auth.FakeTicker;
+import com.aodocs.endpoints.util.cache.SnapshotStore;
+import com.google.api.client.util.Clock;
 import com.google.appengine.api.ThreadManager;
 import com.google.common.base.Stopwatch;
 
@@ -94,5 +103,98 @@ public class AsyncRefreshMemoizingSupplierTest extends AppEngineTest {
         assertEquals(1, cache.get().intValue());
         
     }
+
+    @Test
+    public void testAdaptiveIntervalKeepsUnchangedValue() throws InterruptedException {
+        final FakeTicker fakeTicker = new FakeTicker();
+        final AtomicInteger loads = new AtomicInteger();
+        final AtomicInteger content = new AtomicInteger();
+        AsyncRefreshMemoizingSupplier<String> cache = new AsyncRefreshMemoizingSupplier<>(RefreshPolicy.adaptive(1, 4),
+                () -> {
+                    loads.incrementAndGet();
+                    return "value" + content.get();
+                }, new RefreshScheduler(ThreadManager.backgroundThreadFactory(), 1, 1), fakeTicker);
+        String initial = cache.get();
+        assertEquals(1, loads.get());
+
+        //unchanged content: the interval doubles to 2s, and the same instance is kept
+        fakeTicker.advance(1, TimeUnit.SECONDS);
+        cache.get();
+        MILLISECONDS.sleep(100);
+        assertEquals(2, loads.get());
+        assertSame(initial, cache.get());
+        fakeTicker.advance(1, TimeUnit.SECONDS);
+        cache.get();
+        MILLISECONDS.sleep(100);
+        assertEquals(2, loads.get());
+
+        //content changes: picked up after 2s, then the interval goes back to 1s
+        content.set(1);
+        fakeTicker.advance(1, TimeUnit.SECONDS);
+        cache.get();
+        MILLISECONDS.sleep(100);
+        assertEquals(3, loads.get());
+        assertEquals("value1", cache.get());
+        content.set(2);
+        fakeTicker.advance(1, TimeUnit.SECONDS);
+        cache.get();
+        MILLISECONDS.sleep(100);
+        assertEquals("value2", cache.get());
+    }
     
+    @Test
+    public void testStartsFromSnapshot() throws Exception {
+        SnapshotStore store = new SnapshotStore(Files.createTempDirectory("snapshots"), TimeUnit.HOURS.toMillis(1), Clock.SYSTEM);
+        store.write("key", Collections.singletonList("snapshot"), SnapshotStore.STRING_LIST);
+        CountDownLatch release = new CountDownLatch(1);
+        RefreshScheduler scheduler = new RefreshScheduler(ThreadManager.backgroundThreadFactory(), 1, 1);
+        AsyncRefreshMemoizingSupplier<List<String>> cache = new AsyncRefreshMemoizingSupplier<>(RefreshPolicy.fixed(60),
+                () -> {
+                    awaitUninterruptibly(release);
+                    return Collections.singletonList("fresh");
+                }, scheduler, new FakeTicker(),
+                new AsyncRefreshMemoizingSupplier.Persistence<>(store, "key", SnapshotStore.STRING_LIST));
+
+        //served from the snapshot, refreshed in the background
+        assertEquals(Collections.singletonList("snapshot"), cache.get());
+        release.countDown();
+        waitForRefresh(scheduler, cache);
+        assertEquals(Collections.singletonList("fresh"), cache.get());
+        //the fresh value is persisted
+        assertEquals(Collections.singletonList("fresh"), store.read("key", SnapshotStore.STRING_LIST).get().getValue());
+    }
+
+    @Test
+    public void testStaleSnapshotIsNotServed() throws Exception {
+        FakeTicker fakeTicker = new FakeTicker();
+        SnapshotStore store = new SnapshotStore(Files.createTempDirectory("snapshots"), TimeUnit.HOURS.toMillis(1), Clock.SYSTEM);
+        store.write("key", Collections.singletonList("snapshot"), SnapshotStore.STRING_LIST);
+        AtomicInteger loads = new AtomicInteger();
+        RefreshScheduler scheduler = new RefreshScheduler(ThreadManager.backgroundThreadFactory(), 1, 1);
+        AsyncRefreshMemoizingSupplier<List<String>> cache = new AsyncRefreshMemoizingSupplier<>(RefreshPolicy.fixed(60),
+                () -> {
+                    if (loads.incrementAndGet() == 1) {
+                        throw new IllegalStateException("unavailable");
+                    }
+                    return Collections.singletonList("fresh");
+                }, scheduler, fakeTicker,
+                new AsyncRefreshMemoizingSupplier.Persistence<>(store, "key", SnapshotStore.STRING_LIST));
+
+        //the background refresh fails, the snapshot is still served
+        assertEquals(Collections.singletonList("snapshot"), cache.get());
+        waitForRefresh(scheduler, cache);
+        assertEquals(1, loads.get());
+        //past the maximum staleness, the value is loaded synchronously
+        fakeTicker.advance(1, TimeUnit.HOURS);
+        assertEquals(Collections.singletonList("fresh"), cache.get());
+        assertEquals(2, loads.get());
+    }
+
+    private static void waitForRefresh(RefreshScheduler scheduler, Object key) throws InterruptedException {
+        for (int i = 0; i < 500 && scheduler.isPending(key); i++) {
+            MILLISECONDS.sleep(10);
+        }
+        assertFalse(scheduler.isPending(key));
+    }
+
 }
@@ -0,0 +1,84 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RefreshPolicyTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    @Test
+    public void testFixed() {
+        RefreshPolicy policy = RefreshPolicy.fixed(60);
+        assertFalse(policy.isAdaptive());
+        assertEquals(MINUTE, policy.initialIntervalNanos());
+        assertEquals(MINUTE, policy.nextIntervalNanos(MINUTE, false));
+        assertEquals(MINUTE, policy.nextIntervalNanos(MINUTE, true));
+        assertEquals(MINUTE, policy.jittered(MINUTE, 0.99));
+    }
+
+    @Test
+    public void testAdaptiveGrowsWhileUnchanged() {
+        RefreshPolicy policy = RefreshPolicy.adaptive(60, 300);
+        assertTrue(policy.isAdaptive());
+        long interval = policy.initialIntervalNanos();
+        assertEquals(MINUTE, interval);
+        interval = policy.nextIntervalNanos(interval, false);
+        assertEquals(2 * MINUTE, interval);
+        interval = policy.nextIntervalNanos(interval, false);
+        assertEquals(4 * MINUTE, interval);
+        interval = policy.nextIntervalNanos(interval, false);
+        assertEquals(5 * MINUTE, interval);
+        interval = policy.nextIntervalNanos(interval, false);
+        assertEquals(5 * MINUTE, interval);
+        //back to the minimum after a change
+        assertEquals(MINUTE, policy.nextIntervalNanos(interval, true));
+    }
+
+    @Test
+    public void testJitterOnlyShortens() {
+        RefreshPolicy policy = RefreshPolicy.fixed(60).withJitter(0.2);
+        assertEquals(MINUTE, policy.jittered(MINUTE, 0));
+        assertEquals(MINUTE - MINUTE / 10, policy.jittered(MINUTE, 0.5));
+        for (int i = 0; i < 100; i++) {
+            long jittered = policy.jittered(MINUTE);
+            assertTrue(jittered <= MINUTE);
+            assertTrue(jittered > MINUTE - MINUTE / 5);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMinAboveMax() {
+        RefreshPolicy.adaptive(600, 60);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidJitter() {
+        RefreshPolicy.fixed(60).withJitter(1);
+    }
+
+}
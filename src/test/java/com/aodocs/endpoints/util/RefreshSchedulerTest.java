@@ -0,0 +1,111 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RefreshSchedulerTest {
+
+    @Test
+    public void testSameKeyIsCoalesced() throws InterruptedException {
+        RefreshScheduler scheduler = new RefreshScheduler(Executors.defaultThreadFactory(), 2, 1000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        Runnable refresh = () -> {
+            runs.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        assertTrue(scheduler.submit("key", refresh));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.getInFlightCount());
+        //already running
+        assertFalse(scheduler.submit("key", refresh));
+
+        release.countDown();
+        waitForKeyReleased(scheduler, "key");
+        assertEquals(1, runs.get());
+
+        //can be scheduled again once done
+        CountDownLatch done = new CountDownLatch(1);
+        assertTrue(scheduler.submit("key", done::countDown));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailedRefreshReleasesKey() throws InterruptedException {
+        RefreshScheduler scheduler = new RefreshScheduler(Executors.defaultThreadFactory(), 1, 1000);
+        assertTrue(scheduler.submit("key", () -> {
+            throw new IllegalStateException("expected");
+        }));
+        waitForKeyReleased(scheduler, "key");
+
+        CountDownLatch done = new CountDownLatch(1);
+        assertTrue(scheduler.submit("key", done::countDown));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testThreadPerRefresh() throws InterruptedException {
+        AtomicInteger threads = new AtomicInteger();
+        RefreshScheduler scheduler = new RefreshScheduler(runnable -> {
+            threads.incrementAndGet();
+            return new Thread(runnable);
+        });
+        CountDownLatch done = new CountDownLatch(2);
+        assertTrue(scheduler.submit("a", done::countDown));
+        assertTrue(scheduler.submit("b", done::countDown));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, threads.get());
+        assertEquals(0, scheduler.getQueuedCount());
+    }
+
+    @Test
+    public void testRejectedRefreshReleasesKey() {
+        RefreshScheduler scheduler = new RefreshScheduler(runnable -> null);
+        assertThrows(RejectedExecutionException.class, () -> scheduler.submit("key", () -> { }));
+        assertFalse(scheduler.isPending("key"));
+    }
+
+    //the key is pending from submission, unlike the in flight count which is only set once the refresh has started
+    private static void waitForKeyReleased(RefreshScheduler scheduler, Object key) throws InterruptedException {
+        for (int i = 0; i < 500 && scheduler.isPending(key); i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertFalse(scheduler.isPending(key));
+    }
+}
@@ -0,0 +1,158 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.aodocs.endpoints.auth.AppEngineTest;
+import com.google.api.client.testing.http.FixedClock;
+import com.google.api.services.iam.v1.model.ListServiceAccountsResponse;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.apphosting.api.ApiProxy;
+
+public class AppEngineMemcacheObjectCacheTest extends AppEngineTest {
+
+    private final FixedClock clock = new FixedClock(1_000_000L);
+    private final AppEngineMemcacheObjectCache cache = new AppEngineMemcacheObjectCache(clock, 10_000, 500);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private String load(String key) {
+        return key + loads.incrementAndGet();
+    }
+
+    private void holdLease(String key) {
+        MemcacheServiceFactory.getMemcacheService("ns").put(AppEngineMemcacheObjectCache.LEASE_PREFIX + key, 0L,
+                Expiration.byDeltaSeconds(60), MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    }
+
+    @Test
+    public void testFreshValueIsCached() {
+        assertEquals("k1", cache.getCachedSerializable("k", "ns", this::load, 10));
+        clock.setTime(clock.currentTimeMillis() + 9_000);
+        assertEquals("k1", cache.getCachedSerializable("k", "ns", this::load, 10));
+        assertEquals("t", cache.getCachedJson("j", ListServiceAccountsResponse.class,
+                key -> new ListServiceAccountsResponse().setNextPageToken("t"), 10).getNextPageToken());
+        assertEquals("t", cache.getCachedJson("j", ListServiceAccountsResponse.class,
+                key -> new ListServiceAccountsResponse(), 10).getNextPageToken());
+    }
+
+    @Test
+    public void testStaleValueIsServedWhileLeaseIsHeld() {
+        cache.getCachedSerializable("k", "ns", this::load, 10);
+        clock.setTime(clock.currentTimeMillis() + 10_000);
+        holdLease("k");
+        assertEquals("k1", cache.getCachedSerializable("k", "ns", this::load, 10));
+        assertEquals(1, loads.get());
+
+        MemcacheServiceFactory.getMemcacheService("ns").delete(AppEngineMemcacheObjectCache.LEASE_PREFIX + "k");
+        assertEquals("k2", cache.getCachedSerializable("k", "ns", this::load, 10));
+        assertEquals("k2", cache.getCachedSerializable("k", "ns", this::load, 10));
+    }
+
+    @Test
+    public void testMissingValueIsLoadedOnce() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> first = executor.submit(() -> {
+                ApiProxy.setEnvironmentForCurrentThread(environment);
+                return cache.getCachedSerializable("k", "ns", key -> {
+                    loading.countDown();
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return load(key);
+                }, 10);
+            });
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            assertEquals("k1", cache.getCachedSerializable("k", "ns", this::load, 10));
+            assertEquals("k1", first.get(5, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMissingValueIsLoadedAfterMaxWait() {
+        holdLease("k");
+        assertEquals("k1", cache.getCachedSerializable("k", "ns", this::load, 10));
+    }
+
+    @Test
+    public void testUndecodableValueIsReplaced() {
+        VersionedCodec<List<String>> codec = VersionedCodec.of("strings", 1, SnapshotStore.STRING_LIST);
+        MemcacheServiceFactory.getMemcacheService(codec.getNamespace()).put("k",
+                new AppEngineMemcacheObjectCache.CachedValue(new byte[]{1, 2, 3}, clock.currentTimeMillis() + 10_000));
+        assertEquals(Collections.singletonList("k1"),
+                cache.getCachedBinary("k", codec, key -> Collections.singletonList(load(key)), 10));
+        assertEquals(Collections.singletonList("k1"),
+                cache.getCachedBinary("k", codec, key -> Collections.singletonList(load(key)), 10));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testStoreFailureReturnsLoadedValue() {
+        VersionedCodec<String> codec = VersionedCodec.of("failing", 1, new SnapshotStore.Codec<String>() {
+            @Override
+            public void write(String value, DataOutput out) throws IOException {
+                throw new IOException("expected");
+            }
+
+            @Override
+            public String read(DataInput in) throws IOException {
+                return in.readUTF();
+            }
+        });
+        assertEquals("k1", cache.getCachedBinary("k", codec, this::load, 10));
+        assertEquals(1, loads.get());
+        assertNull(MemcacheServiceFactory.getMemcacheService(codec.getNamespace())
+                .get(AppEngineMemcacheObjectCache.LEASE_PREFIX + "k"));
+    }
+
+    @Test
+    public void testValueWithoutMetadata() {
+        MemcacheServiceFactory.getMemcacheService("ns").put("k", "old");
+        assertEquals("old", cache.getCachedSerializable("k", "ns", this::load, 10));
+        assertEquals(0, loads.get());
+    }
+
+}
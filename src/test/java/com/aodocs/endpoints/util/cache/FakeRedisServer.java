@@ -0,0 +1,165 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for a Redis server, supporting GET, SET (with EX, PX and NX), DEL and PING.
+ */
+class FakeRedisServer implements Closeable {
+
+    private final ServerSocket serverSocket;
+    private final Map<String, byte[]> values = new ConcurrentHashMap<>();
+    private final Map<String, Long> expirations = new ConcurrentHashMap<>();
+    final AtomicInteger commandCount = new AtomicInteger();
+    final AtomicInteger connectionCount = new AtomicInteger();
+
+    FakeRedisServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "fake-redis");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    byte[] getValue(String key) {
+        Long expiration = expirations.get(key);
+        if (expiration != null && expiration <= System.currentTimeMillis()) {
+            values.remove(key);
+            expirations.remove(key);
+        }
+        return values.get(key);
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connectionCount.incrementAndGet();
+                Thread handler = new Thread(() -> handle(socket), "fake-redis-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            InputStream input = new BufferedInputStream(s.getInputStream());
+            OutputStream output = new BufferedOutputStream(s.getOutputStream());
+            while (true) {
+                @SuppressWarnings("unchecked")
+                List<byte[]> command = (List<byte[]>) RedisClient.readReply(input);
+                commandCount.incrementAndGet();
+                reply(output, execute(command));
+                if (input.available() == 0) {
+                    output.flush();
+                }
+            }
+        } catch (IOException e) {
+            //connection closed
+        }
+    }
+
+    private Object execute(List<byte[]> command) {
+        String name = string(command.get(0)).toUpperCase();
+        String key = command.size() > 1 ? string(command.get(1)) : null;
+        switch (name) {
+            case "PING":
+                return "PONG";
+            case "GET":
+                return getValue(key);
+            case "DEL":
+                expirations.remove(key);
+                return values.remove(key) != null ? 1L : 0L;
+            case "SET":
+                boolean onlyIfAbsent = false;
+                Long expiration = null;
+                for (int i = 3; i < command.size(); i++) {
+                    String option = string(command.get(i)).toUpperCase();
+                    if (option.equals("NX")) {
+                        onlyIfAbsent = true;
+                    } else if (option.equals("EX")) {
+                        expiration = System.currentTimeMillis() + Long.parseLong(string(command.get(++i))) * 1000;
+                    } else if (option.equals("PX")) {
+                        expiration = System.currentTimeMillis() + Long.parseLong(string(command.get(++i)));
+                    }
+                }
+                if (onlyIfAbsent && getValue(key) != null) {
+                    return null;
+                }
+                values.put(key, command.get(2));
+                if (expiration != null) {
+                    expirations.put(key, expiration);
+                } else {
+                    expirations.remove(key);
+                }
+                return "OK";
+            default:
+                return new IllegalArgumentException("ERR unknown command " + name);
+        }
+    }
+
+    private static void reply(OutputStream output, Object reply) throws IOException {
+        if (reply == null) {
+            output.write("$-1\r\n".getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof String) {
+            output.write(("+" + reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof Long) {
+            output.write((":" + reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof Exception) {
+            output.write(("-" + ((Exception) reply).getMessage() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        } else {
+            byte[] bytes = (byte[]) reply;
+            output.write(("$" + bytes.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            output.write(bytes);
+            output.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,158 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.google.api.services.iam.v1.model.ListServiceAccountsResponse;
+import com.google.api.services.iam.v1.model.ServiceAccount;
+import com.google.cloud.Identity;
+import com.google.cloud.Role;
+import com.google.common.base.Strings;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class InstanceMemoryObjectCacheTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final InstanceMemoryObjectCache cache = new InstanceMemoryObjectCache(
+            InstanceMemoryObjectCache.DEFAULT_MAXIMUM_WEIGHT, new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    });
+
+    @Test
+    public void testImmutableValueIsReused() {
+        AtomicInteger loads = new AtomicInteger();
+        ImmutableMap<Role, ImmutableSet<Identity>> bindings = ImmutableMap.of(
+                Role.owner(), ImmutableSet.of(Identity.user("a@b.c")));
+        ImmutableMap<Role, ImmutableSet<Identity>> first = cache.getCachedSerializable("p", "iam", key -> {
+            loads.incrementAndGet();
+            return bindings;
+        }, 60);
+        assertSame(bindings, first);
+        assertSame(bindings, cache.getCachedSerializable("p", "iam", key -> ImmutableMap.of(), 60));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testMutableValueIsCloned() {
+        ArrayList<String> value = new ArrayList<>(Arrays.asList("a", "b"));
+        cache.getCachedSerializable("k", "list", key -> value, 60);
+        ArrayList<String> cached = cache.getCachedSerializable("k", "list", key -> new ArrayList<>(), 60);
+        assertEquals(value, cached);
+        assertNotSame(value, cached);
+        cached.add("c");
+        assertEquals(2, cache.getCachedSerializable("k", "list", key -> new ArrayList<String>(), 60).size());
+
+        ListServiceAccountsResponse response = new ListServiceAccountsResponse()
+                .setAccounts(ImmutableList.of(new ServiceAccount().setEmail("sa@p.iam")));
+        cache.getCachedJson("p", ListServiceAccountsResponse.class, key -> response, 60);
+        ListServiceAccountsResponse cachedResponse = cache.getCachedJson("p", ListServiceAccountsResponse.class,
+                key -> new ListServiceAccountsResponse(), 60);
+        assertNotSame(response, cachedResponse);
+        assertEquals("sa@p.iam", cachedResponse.getAccounts().get(0).getEmail());
+    }
+
+    @Test
+    public void testPerEntryExpiration() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.getCachedSerializable("short", "ns", key -> "v" + loads.incrementAndGet(), 10);
+        cache.getCachedSerializable("long", "ns", key -> "v" + loads.incrementAndGet(), 100);
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertEquals("v3", cache.getCachedSerializable("short", "ns", key -> "v" + loads.incrementAndGet(), 10));
+        assertEquals("v2", cache.getCachedSerializable("long", "ns", key -> "v" + loads.incrementAndGet(), 100));
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void testStats() {
+        cache.getCachedSerializable("k", "ns", key -> {
+            nanos.addAndGet(5);
+            return "v";
+        }, 60);
+        cache.getCachedSerializable("k", "ns", key -> "other", 60);
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.hitCount());
+        assertEquals(1, stats.missCount());
+        assertEquals(1, stats.loadSuccessCount());
+        assertEquals(5, stats.totalLoadTime());
+    }
+
+    @Test
+    public void testImmutableValueIsNotEncoded() {
+        AtomicInteger writes = new AtomicInteger();
+        VersionedCodec<ImmutableList<String>> codec = VersionedCodec.of("strings", 1, new SnapshotStore.Codec<ImmutableList<String>>() {
+            @Override
+            public void write(ImmutableList<String> value, DataOutput out) throws IOException {
+                writes.incrementAndGet();
+                SnapshotStore.STRING_LIST.write(value, out);
+            }
+
+            @Override
+            public ImmutableList<String> read(DataInput in) throws IOException {
+                return ImmutableList.copyOf(SnapshotStore.STRING_LIST.read(in));
+            }
+        });
+        ImmutableList<String> value = ImmutableList.of("a", "b");
+        assertSame(value, cache.getCachedBinary("k", codec, key -> value, 60));
+        assertSame(value, cache.getCachedBinary("k", codec, key -> ImmutableList.of(), 60));
+        assertEquals(0, writes.get());
+    }
+
+    @Test
+    public void testEstimateImmutableWeight() {
+        int small = InstanceMemoryObjectCache.estimateImmutableWeight(ImmutableList.of("a"));
+        int large = InstanceMemoryObjectCache.estimateImmutableWeight(ImmutableList.of(Strings.repeat("a", 1000)));
+        assertTrue(small > 0);
+        assertTrue(large >= 2000);
+        assertTrue(InstanceMemoryObjectCache.estimateImmutableWeight(ImmutableMap.of(
+                Role.owner(), ImmutableSet.of(Identity.user("a@b.c"), Identity.allUsers()))) > 0);
+        assertEquals(-1, InstanceMemoryObjectCache.estimateImmutableWeight(ImmutableMap.of("a", new ArrayList<String>())));
+    }
+
+    @Test
+    public void testIsDeeplyImmutable() {
+        assertTrue(InstanceMemoryObjectCache.isDeeplyImmutable(ImmutableMap.of("a", ImmutableList.of(1L, 2L))));
+        assertFalse(InstanceMemoryObjectCache.isDeeplyImmutable(ImmutableList.of(new ArrayList<String>())));
+        assertFalse(InstanceMemoryObjectCache.isDeeplyImmutable(new ArrayList<String>()));
+    }
+
+}
@@ -0,0 +1,170 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+import java.io.Serializable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class LayeredObjectCacheTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final CountingObjectCache l2 = new CountingObjectCache();
+    private final LayeredObjectCache cache = new LayeredObjectCache(
+            new InstanceMemoryObjectCache(LayeredObjectCache.DEFAULT_L1_MAXIMUM_WEIGHT, new Ticker() {
+                @Override
+                public long read() {
+                    return nanos.get();
+                }
+            }), l2, 30);
+
+    //stands for memcache, never expires
+    static class CountingObjectCache implements ObjectCache {
+        private final InstanceMemoryObjectCache values = new InstanceMemoryObjectCache(
+                InstanceMemoryObjectCache.DEFAULT_MAXIMUM_WEIGHT, Ticker.systemTicker());
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public <T> T getCachedJson(String key, Class<T> valueClass, Function<String, T> valueFunction, int expirationInSeconds) {
+            calls.incrementAndGet();
+            return values.getCachedJson(key, valueClass, valueFunction, 0);
+        }
+
+        @Override
+        public <T extends Serializable> T getCachedSerializable(String key, String namespace, Function<String, T> valueFunction, int expirationInSeconds) {
+            calls.incrementAndGet();
+            return values.getCachedSerializable(key, namespace, valueFunction, 0);
+        }
+
+        @Override
+        public <T> T getJson(String key, Class<T> valueClass) {
+            calls.incrementAndGet();
+            return values.getJson(key, valueClass);
+        }
+
+        @Override
+        public <T> void putJson(String key, Class<T> valueClass, T value, int expirationInSeconds) {
+            calls.incrementAndGet();
+            values.putJson(key, valueClass, value, 0);
+        }
+    }
+
+    @Test
+    public void testL1ExpiresBeforeL2() {
+        AtomicInteger loads = new AtomicInteger();
+        Function<String, ImmutableList<String>> valueFunction = key -> {
+            loads.incrementAndGet();
+            return ImmutableList.of(key);
+        };
+        ImmutableList<String> first = cache.getCachedSerializable("k", "ns", valueFunction, 600);
+        assertSame(first, cache.getCachedSerializable("k", "ns", valueFunction, 600));
+        assertEquals(1, l2.calls.get());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        assertEquals(first, cache.getCachedSerializable("k", "ns", valueFunction, 600));
+        assertEquals(2, l2.calls.get());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testL1ExpirationIsBoundedByRequestedOne() {
+        cache.getCachedJson("k", String.class, key -> "v", 10);
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        cache.getCachedJson("k", String.class, key -> "v", 10);
+        assertEquals(2, l2.calls.get());
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<String> first = executor.submit(() -> cache.getCachedSerializable("k", "ns", key -> {
+                loading.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "v";
+            }, 600));
+            loading.await(5, TimeUnit.SECONDS);
+            Future<String> second = executor.submit(() -> cache.getCachedSerializable("k", "ns", key -> "other", 600));
+            Future<String> third = executor.submit(() -> cache.getCachedSerializable("k", "ns", key -> "other", 600));
+            Thread.sleep(100);
+            release.countDown();
+            assertEquals("v", first.get(5, TimeUnit.SECONDS));
+            assertEquals("v", second.get(5, TimeUnit.SECONDS));
+            assertEquals("v", third.get(5, TimeUnit.SECONDS));
+            assertEquals(1, l2.calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBinaryValues() {
+        VersionedCodec<ImmutableMap<String, String>> codec = VersionedCodec.of("map", 1, BinaryCodecs.STRING_MAP);
+        AtomicInteger loads = new AtomicInteger();
+        ImmutableMap<String, String> value = cache.getCachedBinary("k", codec, key -> {
+            loads.incrementAndGet();
+            return ImmutableMap.of("a", "1");
+        }, 600);
+        assertSame(value, cache.getCachedBinary("k", codec, key -> ImmutableMap.of(), 600));
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        assertEquals(value, cache.getCachedBinary("k", codec, key -> ImmutableMap.of(), 600));
+        assertEquals(1, loads.get());
+        assertEquals(2, l2.calls.get());
+    }
+
+    @Test
+    public void testFailureIsNotRetried() {
+        AtomicInteger loads = new AtomicInteger();
+        assertThrows(IllegalStateException.class, () -> cache.getCachedSerializable("k", "ns", key -> {
+            loads.incrementAndGet();
+            throw new IllegalStateException("expected");
+        }, 600));
+        assertEquals(1, loads.get());
+        assertEquals(1, l2.calls.get());
+    }
+
+    @Test
+    public void testSingleton() {
+        assertSame(ObjectCache.get(), ObjectCache.get());
+    }
+
+}
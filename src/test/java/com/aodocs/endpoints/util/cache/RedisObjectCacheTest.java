@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.api.services.iam.v1.model.ListServiceAccountsResponse;
+import com.google.common.collect.ImmutableList;
+
+public class RedisObjectCacheTest {
+
+    private FakeRedisServer server;
+    private RedisClient client;
+    private RedisObjectCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeRedisServer();
+        client = new RedisClient("localhost", server.getPort(), null, 2, 2000);
+        cache = new RedisObjectCache(client, 500);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.close();
+        server.close();
+    }
+
+    @Test
+    public void testPipeline() throws IOException {
+        List<Object> replies = client.pipeline(ImmutableList.of(
+                RedisClient.command("SET", "a", "1"),
+                RedisClient.command("GET", "a"),
+                RedisClient.command("GET", "b"),
+                RedisClient.command("DEL", "a")));
+        assertEquals("OK", replies.get(0));
+        assertArrayEquals("1".getBytes(StandardCharsets.UTF_8), (byte[]) replies.get(1));
+        assertNull(replies.get(2));
+        assertEquals(1L, replies.get(3));
+        assertThrows(RedisClient.ErrorReplyException.class, () -> client.execute(RedisClient.command("FOO")));
+        assertEquals("PONG", client.execute(RedisClient.command("PING")));
+        assertEquals(1, server.connectionCount.get());
+    }
+
+    @Test
+    public void testCachedValues() {
+        AtomicInteger loads = new AtomicInteger();
+        ImmutableList<String> value = cache.getCachedSerializable("k", "ns", key -> {
+            loads.incrementAndGet();
+            return ImmutableList.of("a", "b");
+        }, 60);
+        assertEquals(value, cache.getCachedSerializable("k", "ns", key -> ImmutableList.of(), 60));
+        assertEquals(1, loads.get());
+        assertNull(server.getValue(RedisObjectCache.LEASE_PREFIX + RedisObjectCache.KEY_PREFIX + "ns:k"));
+
+        cache.getCachedJson("p", ListServiceAccountsResponse.class,
+                key -> new ListServiceAccountsResponse().setNextPageToken("t"), 60);
+        assertEquals("t", cache.getCachedJson("p", ListServiceAccountsResponse.class,
+                key -> new ListServiceAccountsResponse(), 60).getNextPageToken());
+    }
+
+    @Test
+    public void testWaitsForLeaseHolder() throws Exception {
+        String redisKey = RedisObjectCache.KEY_PREFIX + "ns:k";
+        client.execute(RedisClient.command("SET", RedisObjectCache.LEASE_PREFIX + redisKey, "1", "PX", 10_000));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> waiting = executor.submit(
+                    () -> cache.getCachedSerializable("k", "ns", key -> "other", 60));
+            Thread.sleep(50);
+            RedisObjectCache otherInstance = new RedisObjectCache(client, 500);
+            client.execute(RedisClient.command("DEL", RedisObjectCache.LEASE_PREFIX + redisKey));
+            assertEquals("v", otherInstance.getCachedSerializable("k", "ns", key -> "v", 60));
+            assertEquals("v", waiting.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedLoadReleasesLease() {
+        AtomicInteger loads = new AtomicInteger();
+        assertThrows(IllegalStateException.class, () -> cache.getCachedSerializable("k", "ns", key -> {
+            loads.incrementAndGet();
+            throw new IllegalStateException("expected");
+        }, 60));
+        assertEquals(1, loads.get());
+        assertNull(server.getValue(RedisObjectCache.LEASE_PREFIX + RedisObjectCache.KEY_PREFIX + "ns:k"));
+    }
+
+    @Test
+    public void testStoreFailureReturnsLoadedValue() {
+        AtomicInteger loads = new AtomicInteger();
+        VersionedCodec<String> codec = VersionedCodec.of("failing", 1, new SnapshotStore.Codec<String>() {
+            @Override
+            public void write(String value, DataOutput out) throws IOException {
+                throw new IOException("expected");
+            }
+
+            @Override
+            public String read(DataInput in) throws IOException {
+                return in.readUTF();
+            }
+        });
+        assertEquals("v", cache.getCachedBinary("k", codec, key -> {
+            loads.incrementAndGet();
+            return "v";
+        }, 60));
+        assertEquals(1, loads.get());
+        assertNull(server.getValue(RedisObjectCache.LEASE_PREFIX + RedisObjectCache.KEY_PREFIX + codec.getNamespace() + ":k"));
+    }
+
+    @Test
+    public void testServerUnavailable() throws IOException {
+        server.close();
+        RedisObjectCache unavailable = new RedisObjectCache(new RedisClient("localhost", server.getPort(), null, 1, 200), 100);
+        assertEquals("v", unavailable.getCachedSerializable("k", "ns", key -> "v", 60));
+    }
+
+    @Test
+    public void testSelection() {
+        assertSame(InstanceMemoryObjectCache.SHARED, DefaultObjectCache.create("memory"));
+        assertTrue(DefaultObjectCache.create(CountingCache.class.getName()) instanceof CountingCache);
+        assertSame(InstanceMemoryObjectCache.SHARED, DefaultObjectCache.create("unknown.Class"));
+    }
+
+    public static class CountingCache extends LayeredObjectCacheTest.CountingObjectCache {
+    }
+
+}
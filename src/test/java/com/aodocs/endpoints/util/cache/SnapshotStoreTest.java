@@ -0,0 +1,84 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.api.client.testing.http.FixedClock;
+
+public class SnapshotStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FixedClock clock = new FixedClock(1_000_000L);
+    private SnapshotStore store;
+
+    @Before
+    public void setUp() {
+        store = new SnapshotStore(folder.getRoot().toPath().resolve("snapshots"), TimeUnit.HOURS.toMillis(1), clock);
+    }
+
+    @Test
+    public void testStringListRoundtrip() {
+        List<String> values = Arrays.asList("a", "é", "");
+        assertEquals(1_000_000L, (long) store.write("list", values, SnapshotStore.STRING_LIST).get());
+        SnapshotStore.Snapshot<List<String>> snapshot = store.read("list", SnapshotStore.STRING_LIST).get();
+        assertEquals(values, snapshot.getValue());
+        assertEquals(1_000_000L, snapshot.getWrittenAtMillis());
+        assertFalse(store.read("other", SnapshotStore.STRING_LIST).isPresent());
+    }
+
+    @Test
+    public void testMaxStaleness() {
+        store.write("list", Arrays.asList("a"), SnapshotStore.STRING_LIST);
+        assertFalse(store.isDueForRewrite(clock.currentTimeMillis()));
+        clock.setTime(clock.currentTimeMillis() + TimeUnit.MINUTES.toMillis(20));
+        assertTrue(store.isDueForRewrite(1_000_000L));
+        assertTrue(store.read("list", SnapshotStore.STRING_LIST).isPresent());
+        clock.setTime(clock.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+        assertFalse(store.read("list", SnapshotStore.STRING_LIST).isPresent());
+    }
+
+    @Test
+    public void testCorruptedSnapshotIsIgnored() throws IOException {
+        store.write("list", Arrays.asList("a"), SnapshotStore.STRING_LIST);
+        try (java.util.stream.Stream<Path> files = Files.list(folder.getRoot().toPath().resolve("snapshots"))) {
+            Path file = files.findFirst().get();
+            Files.write(file, new byte[]{1, 2, 3});
+        }
+        assertFalse(store.read("list", SnapshotStore.STRING_LIST).isPresent());
+    }
+
+}
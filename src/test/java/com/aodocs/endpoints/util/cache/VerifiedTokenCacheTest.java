@@ -0,0 +1,76 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.google.api.client.testing.http.FixedClock;
+import com.google.common.cache.CacheStats;
+
+public class VerifiedTokenCacheTest {
+
+    private final FixedClock clock = new FixedClock(1000L);
+    private final VerifiedTokenCache<String> cache = new VerifiedTokenCache<>(2, clock);
+
+    @Test
+    public void testHitAndMiss() {
+        assertNull(cache.getIfValid("token"));
+        cache.put("token", "verified", 2000L, () -> true);
+        assertEquals("verified", cache.getIfValid("token"));
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.hitCount());
+        assertEquals(1, stats.missCount());
+    }
+
+    @Test
+    public void testExpiration() {
+        cache.put("token", "verified", 2000L, () -> true);
+        clock.setTime(2000L);
+        assertNull(cache.getIfValid("token"));
+        assertEquals(1, cache.stats().evictionCount());
+        //already expired values are not cached
+        cache.put("token", "verified", 2000L, () -> true);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testValidityCheck() {
+        AtomicBoolean keyPublished = new AtomicBoolean(true);
+        cache.put("token", "verified", 2000L, keyPublished::get);
+        assertEquals("verified", cache.getIfValid("token"));
+        keyPublished.set(false);
+        assertNull(cache.getIfValid("token"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMaximumSize() {
+        cache.put("token1", "verified1", 2000L, () -> true);
+        cache.put("token2", "verified2", 2000L, () -> true);
+        cache.put("token3", "verified3", 2000L, () -> true);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.stats().evictionCount());
+    }
+}
@@ -0,0 +1,79 @@
+/*-
+ * #%L
+ * Extended authenticators for Cloud Endpoints v2
+ * ---
+ * Copyright (C) 2018 - 2024 AODocs (Altirnao Inc)
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.aodocs.endpoints.util.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.cloud.Identity;
+import com.google.cloud.Role;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class VersionedCodecTest {
+
+    private final VersionedCodec<List<String>> codec = VersionedCodec.of("list", 1, BinaryCodecs.STRING_LIST);
+
+    @Test
+    public void testStringList() {
+        List<String> value = ImmutableList.of("a", "é", "", "ccc");
+        byte[] bytes = codec.encode(value);
+        assertEquals(value, codec.decode(bytes).get());
+        //header, count, and each length-prefixed string
+        assertEquals(3 + 1 + 2 + 3 + 1 + 4, bytes.length);
+    }
+
+    @Test
+    public void testIamBindings() {
+        VersionedCodec<ImmutableMap<Role, ImmutableSet<Identity>>> iamCodec =
+                VersionedCodec.of("iamBindings", 1, BinaryCodecs.IAM_BINDINGS);
+        ImmutableMap<Role, ImmutableSet<Identity>> bindings = ImmutableMap.of(
+                Role.owner(), ImmutableSet.of(Identity.user("a@b.c"), Identity.domain("b.c")),
+                Role.of("custom"), ImmutableSet.of(Identity.allAuthenticatedUsers()));
+        assertEquals(bindings, iamCodec.decode(iamCodec.encode(bindings)).get());
+    }
+
+    @Test
+    public void testCompression() {
+        List<String> value = Collections.nCopies(10_000, "user@example.com");
+        byte[] compressed = codec.encode(value);
+        byte[] uncompressed = codec.withCompressionThreshold(Integer.MAX_VALUE).encode(value);
+        assertTrue(compressed.length < uncompressed.length / 10);
+        assertEquals(value, codec.decode(compressed).get());
+        assertEquals(value, codec.decode(uncompressed).get());
+    }
+
+    @Test
+    public void testOtherVersionIsSkipped() {
+        byte[] bytes = codec.encode(ImmutableList.of("a"));
+        assertFalse(VersionedCodec.of("list", 2, BinaryCodecs.STRING_LIST).decode(bytes).isPresent());
+        assertFalse(codec.decode(new byte[]{1, 2, 3}).isPresent());
+        assertFalse(codec.decode(new byte[0]).isPresent());
+        assertEquals("list/v1", codec.getNamespace());
+    }
+
+}